@@ -23,12 +23,12 @@ import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.interfaces.RSAPublicKey;
 
 import org.apache.commons.codec.binary.Hex;
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.utils.CryptoEngines;
 import org.kopi.ebics.utils.Utils;
 
 /**
@@ -117,7 +117,7 @@ public class KeyUtil {
 
         try {
             // Compute SHA-256 digest using BouncyCastle and ASCII encoding
-            digest = MessageDigest.getInstance("SHA-256", "BC").digest(hash.getBytes(StandardCharsets.US_ASCII));
+            digest = CryptoEngines.digest("SHA-256", hash.getBytes(StandardCharsets.US_ASCII));
         } catch (GeneralSecurityException e) {
             // Wrap and propagate the exception in a domain-specific EbicsException
             throw new EbicsException(e.getMessage(), e);
@@ -19,6 +19,7 @@
 
 package org.kopi.ebics.client;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -30,11 +31,11 @@ import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -52,6 +53,7 @@ import org.kopi.ebics.interfaces.EbicsUser;
 import org.kopi.ebics.interfaces.InitLetter;
 import org.kopi.ebics.interfaces.LetterManager;
 import org.kopi.ebics.interfaces.PasswordCallback;
+import org.kopi.ebics.io.FileContentFactory;
 import org.kopi.ebics.io.IOUtils;
 import org.kopi.ebics.messages.Messages;
 import org.kopi.ebics.session.DefaultConfiguration;
@@ -82,9 +84,9 @@ public class EbicsClient {
     }
 
     private final Configuration configuration;
-    private final Map<String, User> users = new HashMap<>();
-    private final Map<String, Partner> partners = new HashMap<>();
-    private final Map<String, Bank> banks = new HashMap<>();
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Map<String, Partner> partners = new ConcurrentHashMap<>();
+    private final Map<String, Bank> banks = new ConcurrentHashMap<>();
     private final ConfigProperties properties;
     private final Messages messages;
     private Product defaultProduct;
@@ -246,6 +248,7 @@ public class EbicsClient {
     private EbicsSession createSession(User user, Product product) {
         EbicsSession session = new EbicsSession(user, configuration);
         session.setProduct(product);
+        session.setTraceDirectory(configuration.getTransferTraceDirectory(user));
         return session;
     }
 
@@ -408,8 +411,6 @@ public class EbicsClient {
         }
         EbicsSession session = createSession(user, product);
         KeyManagement keyManager = new KeyManagement(session);
-        configuration.getTraceManager().setTraceDirectory(
-                configuration.getTransferTraceDirectory(user));
         try {
             keyManager.sendINI(null);
             user.setInitialized(true);
@@ -437,8 +438,6 @@ public class EbicsClient {
         }
         EbicsSession session = createSession(user, product);
         KeyManagement keyManager = new KeyManagement(session);
-        configuration.getTraceManager().setTraceDirectory(
-                configuration.getTransferTraceDirectory(user));
         try {
             keyManager.sendHIA(null);
             user.setInitializedHIA(true);
@@ -459,9 +458,6 @@ public class EbicsClient {
         EbicsSession session = createSession(user, product);
         KeyManagement keyManager = new KeyManagement(session);
 
-        configuration.getTraceManager().setTraceDirectory(
-                configuration.getTransferTraceDirectory(user));
-
         try {
             keyManager.sendHPB();
             logger.info(messages.getString("hpb.send.success", userId));
@@ -486,9 +482,6 @@ public class EbicsClient {
         EbicsSession session = createSession(user, product);
         KeyManagement keyManager = new KeyManagement(session);
 
-        configuration.getTraceManager().setTraceDirectory(
-                configuration.getTransferTraceDirectory(user));
-
         try {
             keyManager.lockAccess();
         } catch (Exception e) {
@@ -509,11 +502,8 @@ public class EbicsClient {
 
         FileTransfer transferManager = new FileTransfer(session);
 
-        configuration.getTraceManager().setTraceDirectory(
-                configuration.getTransferTraceDirectory(user));
-
         try {
-            transferManager.sendFile(IOUtils.getFileContent(file), orderType, uploadService);
+            transferManager.sendFile(new FileContentFactory(file), orderType, uploadService);
         } catch (IOException | EbicsException e) {
             logger.error(messages.getString("upload.file.error", file.getAbsolutePath()), e);
             throw e;
@@ -534,9 +524,6 @@ public class EbicsClient {
         }
         transferManager = new FileTransfer(session);
 
-        configuration.getTraceManager().setTraceDirectory(
-                configuration.getTransferTraceDirectory(user));
-
         try {
             transferManager.fetchFile(orderType, downloadService, start, end, file);
         } catch (NoDownloadDataAvailableException e) {
@@ -586,6 +573,11 @@ public class EbicsClient {
         }
 
         clearTraces();
+        if (configuration instanceof Closeable closeable) {
+            closeable.close();
+        } else if (configuration.getHttpClientPool() != null) {
+            configuration.getHttpClientPool().close();
+        }
     }
 
     public void clearTraces() throws IOException {
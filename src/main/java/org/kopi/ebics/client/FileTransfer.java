@@ -20,15 +20,36 @@
 package org.kopi.ebics.client;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.HttpStatusException;
+import org.kopi.ebics.exception.RecoverySyncException;
+import org.kopi.ebics.exception.ReturnCode;
 import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.interfaces.EbicsBank;
 import org.kopi.ebics.interfaces.EbicsOrderType;
-import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.io.BandwidthStatistics;
 import org.kopi.ebics.io.Joiner;
+import org.kopi.ebics.io.SegmentJournal;
 import org.kopi.ebics.messages.Messages;
 import org.kopi.ebics.session.EbicsSession;
 import org.kopi.ebics.utils.Constants;
@@ -80,6 +101,16 @@ import org.slf4j.LoggerFactory;
 public class FileTransfer {
     private static final Logger logger = LoggerFactory.getLogger(FileTransfer.class);
 
+    /**
+     * Runs the segments fetched and prepared in the background, for all the transfers.
+     */
+    private static final ExecutorService background = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Numbers the transfers, so that their traces are kept apart.
+     */
+    private static final AtomicLong transfers = new AtomicLong();
+
     private final EbicsSession session;
 
     /**
@@ -101,29 +132,326 @@ public class FileTransfer {
      */
     public void sendFile(byte[] content, EbicsOrderType orderType, UploadService uploadService)
             throws IOException, EbicsException {
-        HttpRequestSender sender = new HttpRequestSender(session);
-        UploadInitializationRequestElement initializer = new UploadInitializationRequestElement(session,
-                orderType, uploadService,
-                content);
+        sendFile(new UploadInitializationRequestElement(session, orderType, uploadService, content), orderType);
+    }
+
+    /**
+     * Initiates a file transfer to the bank reading the data from
+     * a content factory. The order data is compressed, encrypted and
+     * segmented in a streaming way, so the whole file is never held
+     * in memory.
+     *
+     * @param content   The content you want to send.
+     * @param orderType As which order type
+     * @throws IOException
+     * @throws EbicsException
+     */
+    public void sendFile(ContentFactory content, EbicsOrderType orderType, UploadService uploadService)
+            throws IOException, EbicsException {
+        sendFile(new UploadInitializationRequestElement(session, orderType, uploadService, content), orderType);
+    }
+
+    /**
+     * Uploads a file. When the upload recovery is enabled for the bank,
+     * the upload goes through a segment journal identified by the order
+     * type and the content.
+     */
+    private void sendFile(UploadInitializationRequestElement initializer, EbicsOrderType orderType)
+            throws IOException, EbicsException {
+        TransferState state = start(orderType);
+
+        try (initializer) {
+            if (session.getConfiguration().isUploadRecoveryEnabled(session.getUser().getPartner().getBank())) {
+                upload(initializer, orderType, state);
+            } else {
+                initializer.build();
+                initialize(initializer, orderType, state);
+                sendSegments(initializer::getContent, state, orderType, null);
+            }
+        } finally {
+            session.endTrace(state.getTraceName());
+        }
+    }
+
+    /**
+     * Uploads a file through a segment journal, identified by the digest of
+     * the raw file. The digest is streamed from the file before the request
+     * is built, so a transaction found in the journal is resumed without
+     * compressing, encrypting and signing the file again: it goes on at the
+     * segment following the last acknowledged one, with the order data the
+     * bank has started to receive. Otherwise the encrypted file is spooled to
+     * the journal directory, so that journaling it is a mere rename. If the bank no longer knows the transaction, the
+     * journal is dropped and the error is thrown: the bank may have received the
+     * whole file, so the upload is not started over on its own.
+     */
+    private void upload(UploadInitializationRequestElement initializer, EbicsOrderType orderType, TransferState state)
+            throws IOException, EbicsException {
+        Path directory = Paths.get(session.getConfiguration().getJournalDirectory(session.getUser()));
+        SegmentJournal journal;
+
+        Files.createDirectories(directory);
+        journal = journal(orderType, initializer.getInputDigest());
+        if (journal.isComplete()) {
+            logger.info("Resuming the upload transaction {} at segment {} of {}",
+                    Hex.encodeHexString(journal.getTransactionId()),
+                    journal.getAcknowledged() + 1,
+                    journal.getNumSegments());
+            state.setNumSegments(journal.getNumSegments());
+            state.setTransactionId(journal.getTransactionId());
+            state.setAcknowledged(journal.getAcknowledged());
+            state.setSegmentNumber(journal.getAcknowledged());
+            try {
+                sendSegments(journal::getSegment, state, orderType, journal);
+            } catch (EbicsException e) {
+                if (isTransactionLost(e)) {
+                    journal.delete();
+                }
+                throw e;
+            }
+            journal.delete();
+            return;
+        }
+
+        initializer.setSpoolDirectory(directory);
         initializer.build();
+        initialize(initializer, orderType, state);
+        journal.start(state.getTransactionId(),
+                initializer.getTransactionKey(),
+                state.getNumSegments(),
+                initializer.getSegmentSize(),
+                initializer.detachContent());
+        sendSegments(journal::getSegment, state, orderType, journal);
+        journal.delete();
+    }
+
+    /**
+     * Returns the journal of an upload, identified by its order type and
+     * the SHA-256 digest of its content.
+     */
+    private SegmentJournal journal(EbicsOrderType orderType, byte[] digest) throws EbicsException {
+        String key = orderType.getCode() + ":" + Hex.encodeHexString(digest);
+
+        return new SegmentJournal(Paths.get(session.getConfiguration().getJournalDirectory(session.getUser()),
+                orderType.getCode() + "-upload-" + DigestUtils.sha256Hex(key).substring(0, 16)));
+    }
+
+    /**
+     * Sends the initialization request of a built upload, and sets the
+     * transaction ID and the number of segments of the transfer state.
+     */
+    private void initialize(UploadInitializationRequestElement initializer,
+                            EbicsOrderType orderType,
+                            TransferState state)
+            throws IOException, EbicsException {
+        HttpRequestSender sender = sender(HttpRequestSender.Phase.INITIALIZATION, state.getDeadline());
+
         initializer.validate();
-        session.getConfiguration().getTraceManager().trace(initializer.getUserSignature());
-        session.getConfiguration().getTraceManager().trace(initializer);
-        int httpCode = sender.send(new ByteArrayContentFactory(initializer.prettyPrint()));
+        session.trace(initializer.getUserSignature(), state.getTraceName());
+        session.trace(initializer, state.getTraceName());
+        int httpCode = sender.send(initializer);
 
         Utils.checkHttpCode(httpCode);
         InitializationResponseElement response = new InitializationResponseElement(sender.getResponseBody(),
                 orderType,
                 DefaultEbicsRootElement.generateName(orderType));
         response.build();
-        session.getConfiguration().getTraceManager().trace(response);
+        session.trace(response, state.getTraceName());
+
+        state.setNumSegments(initializer.getSegmentNumber());
+        state.setTransactionId(response.getTransactionId());
+    }
 
-        TransferState state = new TransferState(initializer.getSegmentNumber(), response.getTransactionId());
+    /**
+     * Sends the segments of an upload transaction, recovering from the
+     * failed segments when upload retries are configured for the bank.
+     *
+     * <p>After a communication error or a transient bank error, the failed
+     * segment is sent again in the same transaction, after a delay doubling
+     * with every recovery of the same segment. If the bank answers
+     * <code>EBICS_TX_RECOVERY_SYNC</code>, the upload resumes with the segment
+     * following the last one the bank has received. The encrypted segments are kept by the initialization
+     * or the journal until the upload ends, so a recovery never sends the whole file again.
+     * The segment requests are then not retried by the HTTP retry policy, so
+     * a segment is sent at most one more time than the upload retries.
+     *
+     * @param segments  the encrypted segments, by segment number
+     * @param state     the transfer state
+     * @param orderType the order type
+     * @param journal   the journal of the acknowledged segments, may be null
+     * @throws IOException
+     * @throws EbicsException
+     */
+    private void sendSegments(IntFunction<ContentFactory> segments,
+                              TransferState state,
+                              EbicsOrderType orderType,
+                              SegmentJournal journal)
+            throws IOException, EbicsException {
+        EbicsBank bank = session.getUser().getPartner().getBank();
+        int retries = session.getConfiguration().getUploadRetries(bank);
+        long delay = session.getConfiguration().getUploadRetryDelay(bank);
+        int acknowledged = state.getAcknowledged();
+        int recoveries = 0;
+        long wait = delay;
 
-        while (state.hasNext()) {
-            int segmentNumber = state.next();
-            sendFile(initializer.getContent(segmentNumber), segmentNumber, state.isLastSegment(),
-                    state.getTransactionId(), orderType);
+        while (true) {
+            try {
+                resumeSegments(segments, state, orderType, journal);
+                return;
+            } catch (IOException | EbicsException e) {
+                if (state.getAcknowledged() > acknowledged) {
+                    acknowledged = state.getAcknowledged();
+                    recoveries = 0;
+                    wait = delay;
+                }
+                if (!isRecoverable(e)
+                        || !isSynchronization(e, state) && recoveries++ == retries
+                        || state.getDeadline() > 0 && System.currentTimeMillis() + wait >= state.getDeadline()) {
+                    throw e;
+                }
+                if (e instanceof RecoverySyncException sync) {
+                    logger.warn("The bank has received the segments of the transaction {} up to {}, resuming",
+                            Hex.encodeHexString(state.getTransactionId()),
+                            sync.getSegmentNumber());
+                    acknowledge(state, journal, sync.getSegmentNumber());
+                } else {
+                    logger.warn("Sending the segment {} of the transaction {} failed, retrying in {} ms: {}",
+                            state.getAcknowledged() + 1,
+                            Hex.encodeHexString(state.getTransactionId()),
+                            wait,
+                            e.getMessage());
+                    sleep(wait);
+                    wait *= 2;
+                }
+                state.setSegmentNumber(state.getAcknowledged());
+            }
+        }
+    }
+
+    /**
+     * Sends the segments of an upload transaction following the last
+     * acknowledged one.
+     *
+     * <p>When an upload look-ahead is configured for the bank, the requests of
+     * the next segments are built, validated and serialized in the background,
+     * one after the other, while the current segment is sent. The segments are
+     * still sent one after another in their order, and the upload stops at the
+     * first error.
+     *
+     * @param segments  the encrypted segments, by segment number
+     * @param state     the transfer state
+     * @param orderType the order type
+     * @param journal   the journal of the acknowledged segments, may be null
+     * @throws IOException
+     * @throws EbicsException
+     */
+    private void resumeSegments(IntFunction<ContentFactory> segments,
+                                TransferState state,
+                                EbicsOrderType orderType,
+                                SegmentJournal journal)
+            throws IOException, EbicsException {
+        int lookAhead = session.getConfiguration().getUploadLookAhead(session.getUser().getPartner().getBank());
+        CompletableFuture<UploadTransferRequestElement> previous;
+        Deque<Future<UploadTransferRequestElement>> prepared;
+
+        if (lookAhead == 0 || state.getNumSegments() - state.getSegmentNumber() < 2) {
+            while (state.hasNext()) {
+                int segmentNumber = state.next();
+                sendSegment(prepareSegment(segments.apply(segmentNumber), segmentNumber, state.isLastSegment(),
+                        state.getTransactionId(), orderType, state.getTraceName()), orderType, state);
+                acknowledge(state, journal, segmentNumber);
+            }
+            return;
+        }
+
+        previous = CompletableFuture.completedFuture(null);
+        prepared = new ArrayDeque<>();
+        try {
+            while (state.hasNext() || !prepared.isEmpty()) {
+                while (state.hasNext() && prepared.size() <= lookAhead) {
+                    int segmentNumber = state.next();
+                    boolean lastSegment = state.isLastSegment();
+                    byte[] transactionId = state.getTransactionId();
+                    String traceName = state.getTraceName();
+                    ContentFactory content = segments.apply(segmentNumber);
+
+                    previous = previous.thenApplyAsync(ignored -> {
+                        try {
+                            return prepareSegment(content,
+                                    segmentNumber,
+                                    lastSegment,
+                                    transactionId,
+                                    orderType,
+                                    traceName);
+                        } catch (EbicsException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, background);
+                    prepared.add(previous);
+                }
+                sendSegment(await(prepared.poll()), orderType, state);
+                acknowledge(state, journal, state.getAcknowledged() + 1);
+            }
+        } finally {
+            for (Future<UploadTransferRequestElement> request : prepared) {
+                request.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Records the last segment acknowledged by the bank, in the journal too
+     * when the upload is recoverable.
+     */
+    private static void acknowledge(TransferState state, SegmentJournal journal, int segmentNumber)
+            throws IOException {
+        state.setAcknowledged(segmentNumber);
+        if (journal != null) {
+            journal.acknowledge(segmentNumber);
+        }
+    }
+
+    /**
+     * Tells if a failed upload segment may be sent again: the communication
+     * errors, the HTTP server errors and the bank internal errors are
+     * transient, and a recovery synchronization tells where to resume.
+     * A request failing its validation or refused by the bank would fail
+     * again.
+     */
+    private static boolean isRecoverable(Exception e) {
+        if (e instanceof InterruptedIOException) {
+            return false;
+        }
+        if (e instanceof HttpStatusException httpStatus) {
+            return httpStatus.getHttpCode() >= 500;
+        }
+        if (e instanceof EbicsException ebicsException) {
+            return ReturnCode.EBICS_INTERNAL_ERROR.equals(ebicsException.getReturnCode())
+                    || ReturnCode.EBICS_TX_RECOVERY_SYNC.equals(ebicsException.getReturnCode());
+        }
+
+        return e instanceof IOException;
+    }
+
+    /**
+     * Tells if the bank answered with a recovery synchronization moving the
+     * upload forward. It does not count as a failed segment, so a resumed
+     * upload follows it even without upload retries.
+     */
+    private static boolean isSynchronization(Exception e, TransferState state) {
+        return e instanceof RecoverySyncException sync && sync.getSegmentNumber() > state.getAcknowledged();
+    }
+
+    /**
+     * Waits before a recovery.
+     *
+     * @param delay the time to wait in milliseconds
+     */
+    private static void sleep(long delay) throws InterruptedIOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
         }
     }
 
@@ -144,10 +472,34 @@ public class FileTransfer {
                          byte[] transactionId,
                          EbicsOrderType orderType)
             throws IOException, EbicsException {
+        TransferState state = new TransferState(0, transactionId);
+
+        state.setDeadline(deadline());
+        sendSegment(prepareSegment(factory, segmentNumber, lastSegment, transactionId, orderType, null),
+                orderType,
+                state);
+    }
+
+    /**
+     * Builds, validates and traces the request of an upload segment.
+     *
+     * @param factory       the content factory that contain the segment data.
+     * @param segmentNumber the segment number
+     * @param lastSegment   is it the last segment?
+     * @param transactionId the transaction Id
+     * @param orderType     the order type
+     * @param traceName     the trace name of the transfer, may be null
+     * @return the segment request
+     * @throws EbicsException
+     */
+    private UploadTransferRequestElement prepareSegment(ContentFactory factory,
+                                                        int segmentNumber,
+                                                        boolean lastSegment,
+                                                        byte[] transactionId,
+                                                        EbicsOrderType orderType,
+                                                        String traceName)
+            throws EbicsException {
         UploadTransferRequestElement uploader;
-        HttpRequestSender sender;
-        TransferResponseElement response;
-        int httpCode;
 
         Messages messages = new Messages(Constants.APPLICATION_BUNDLE_NAME);
         String logMessage = messages.getString("upload.segment", segmentNumber);
@@ -158,23 +510,52 @@ public class FileTransfer {
                 lastSegment,
                 transactionId,
                 factory);
-        sender = new HttpRequestSender(session);
         uploader.build();
         uploader.validate();
-        session.getConfiguration().getTraceManager().trace(uploader);
-        httpCode = sender.send(new ByteArrayContentFactory(uploader.prettyPrint()));
+        session.trace(uploader, traceName);
+        return uploader;
+    }
+
+    /**
+     * Sends a segment request and checks the bank response. The request
+     * is written straight into the HTTP request body.
+     *
+     * @param request   the segment request
+     * @param orderType the order type
+     * @param state     the transfer state
+     * @throws IOException
+     * @throws EbicsException
+     */
+    private void sendSegment(UploadTransferRequestElement request, EbicsOrderType orderType, TransferState state)
+            throws IOException, EbicsException {
+        EbicsBank bank = session.getUser().getPartner().getBank();
+        HttpRequestSender sender;
+        TransferResponseElement response;
+        int httpCode;
+        long start;
+
+        sender = sender(HttpRequestSender.Phase.SEGMENT, state.getDeadline());
+        start = System.nanoTime();
+        httpCode = sender.send(request, session.getConfiguration().getUploadRetries(bank) == 0);
         Utils.checkHttpCode(httpCode);
+        BandwidthStatistics.record(bank,
+                sender.getRequestLength(),
+                System.nanoTime() - start);
         response = new TransferResponseElement(sender.getResponseBody(),
                 DefaultEbicsRootElement.generateName(orderType));
         response.build();
-        session.getConfiguration().getTraceManager().trace(response);
+        session.trace(response, state.getTraceName());
     }
 
     /**
      * Fetches a file of the given order type from the bank.
      * You may give an optional start and end date.
      * This type of transfer will run until everything is processed.
-     * No transaction recovery is possible.
+     *
+     * <p>When the download recovery is enabled for the bank, the received
+     * segments are journaled and a download interrupted by a crash or a
+     * network error is resumed by the next call with the same order type,
+     * dates and output file. Otherwise no transaction recovery is possible.
      *
      * @param orderType  type of file to fetch
      * @param start      optional begin of fetch term
@@ -189,16 +570,167 @@ public class FileTransfer {
                           Date end,
                           File outputFile)
             throws IOException, EbicsException {
+        TransferState state = start(orderType);
+
+        try {
+            if (session.getConfiguration().isDownloadRecoveryEnabled(session.getUser().getPartner().getBank())) {
+                fetchFile(orderType,
+                        downloadService,
+                        start,
+                        end,
+                        outputFile,
+                        journal(orderType, start, end, outputFile),
+                        state);
+            } else {
+                fetchFile(orderType, downloadService, start, end, outputFile, state);
+            }
+        } finally {
+            session.endTrace(state.getTraceName());
+        }
+    }
+
+    /**
+     * Fetches a file without journal, straight to the output file.
+     */
+    private void fetchFile(EbicsOrderType orderType,
+                           DownloadService downloadService,
+                           Date start,
+                           Date end,
+                           File outputFile,
+                           TransferState state)
+            throws IOException, EbicsException {
+        DownloadInitializationResponseElement response;
+        Joiner joiner;
+
+        response = initializeDownload(orderType, downloadService, start, end, state);
+        state.setNumSegments(response.getSegmentsNumber());
+        state.setTransactionId(response.getTransactionId());
+        state.setSegmentNumber(response.getSegmentNumber());
+        joiner = new Joiner(session.getUser(),
+                response.getTransactionKey(),
+                Files.newOutputStream(outputFile.toPath()),
+                session.getConfiguration().getSymmetricCipher());
+        try (joiner) {
+            joiner.append(response.getOrderData());
+            fetchSegments(orderType, state, new JoinerSink(joiner));
+        } catch (IOException | EbicsException | RuntimeException e) {
+            Files.deleteIfExists(outputFile.toPath());
+            throw e;
+        }
+        sendReceipt(orderType, state);
+    }
+
+    /**
+     * Fetches a file through a segment journal. A transaction found in the
+     * journal is resumed at the segment following the last journaled one.
+     * If the bank no longer knows the transaction, the download starts over.
+     * The receipt is only sent once all the segments are journaled and
+     * joined to the output file.
+     */
+    private void fetchFile(EbicsOrderType orderType,
+                           DownloadService downloadService,
+                           Date start,
+                           Date end,
+                           File outputFile,
+                           SegmentJournal journal,
+                           TransferState state)
+            throws IOException, EbicsException {
+        Joiner joiner;
+
+        if (journal.isStarted()) {
+            logger.info("Resuming the download transaction {} at segment {} of {}",
+                    Hex.encodeHexString(journal.getTransactionId()),
+                    journal.getLastSegment() + 1,
+                    journal.getNumSegments());
+            try {
+                fetchSegments(orderType, journal, state);
+            } catch (EbicsException e) {
+                if (!isTransactionLost(e)) {
+                    throw e;
+                }
+                logger.warn("The download transaction cannot be resumed, starting over: {}", e.getMessage());
+                journal.delete();
+            }
+        }
+
+        if (!journal.isStarted()) {
+            DownloadInitializationResponseElement response;
+
+            response = initializeDownload(orderType, downloadService, start, end, state);
+            journal.start(response.getTransactionId(), response.getTransactionKey(), response.getSegmentsNumber());
+            journal.write(response.getSegmentNumber(), response.getOrderData());
+            fetchSegments(orderType, journal, state);
+        }
+
+        joiner = new Joiner(session.getUser(),
+                journal.getTransactionKey(),
+                Files.newOutputStream(outputFile.toPath()),
+                session.getConfiguration().getSymmetricCipher());
+        try (joiner) {
+            journal.joinTo(joiner);
+        } catch (IOException | EbicsException | RuntimeException e) {
+            Files.deleteIfExists(outputFile.toPath());
+            throw e;
+        }
+        try {
+            sendReceipt(orderType, state);
+        } finally {
+            journal.delete();
+        }
+    }
+
+    /**
+     * Fetches the segments missing from the journal, setting the
+     * transfer state to the journaled transaction.
+     */
+    private void fetchSegments(EbicsOrderType orderType, SegmentJournal journal, TransferState state)
+            throws IOException, EbicsException {
+        state.setNumSegments(journal.getNumSegments());
+        state.setTransactionId(journal.getTransactionId());
+        state.setSegmentNumber(journal.getLastSegment());
+        fetchSegments(orderType, state, journal::write);
+    }
+
+    /**
+     * Tells if the bank answered that the transaction is unknown or aborted.
+     */
+    private static boolean isTransactionLost(EbicsException e) {
+        return ReturnCode.EBICS_TX_UNKNOWN_TXID.equals(e.getReturnCode())
+                || ReturnCode.EBICS_TX_ABORT.equals(e.getReturnCode());
+    }
+
+    /**
+     * Returns the journal of a download, identified by its order type,
+     * its dates and its output file.
+     */
+    private SegmentJournal journal(EbicsOrderType orderType, Date start, Date end, File outputFile)
+            throws EbicsException {
+        String key = orderType.getCode()
+                + ":" + (start == null ? "" : start.getTime())
+                + ":" + (end == null ? "" : end.getTime())
+                + ":" + outputFile.getAbsolutePath();
+
+        return new SegmentJournal(Paths.get(session.getConfiguration().getJournalDirectory(session.getUser()),
+                orderType.getCode() + "-" + DigestUtils.sha256Hex(key).substring(0, 16)));
+    }
+
+    /**
+     * Sends the initialization request of a download.
+     *
+     * @return the initialization response, holding the first segment
+     */
+    private DownloadInitializationResponseElement initializeDownload(EbicsOrderType orderType,
+                                                                     DownloadService downloadService,
+                                                                     Date start,
+                                                                     Date end,
+                                                                     TransferState state)
+            throws IOException, EbicsException {
         HttpRequestSender sender;
         DownloadInitializationRequestElement initializer;
         DownloadInitializationResponseElement response;
-        ReceiptRequestElement receipt;
-        ReceiptResponseElement receiptResponse;
         int httpCode;
-        TransferState state;
-        Joiner joiner;
 
-        sender = new HttpRequestSender(session);
+        sender = sender(HttpRequestSender.Phase.INITIALIZATION, state.getDeadline());
         initializer = new DownloadInitializationRequestElement(session,
                 downloadService,
                 orderType,
@@ -207,49 +739,155 @@ public class FileTransfer {
         initializer.build();
         initializer.validate();
 
-        session.getConfiguration().getTraceManager().trace(initializer);
-        httpCode = sender.send(new ByteArrayContentFactory(initializer.prettyPrint()));
+        session.trace(initializer, state.getTraceName());
+        httpCode = sender.send(initializer);
         Utils.checkHttpCode(httpCode);
         response = new DownloadInitializationResponseElement(sender.getResponseBody(),
                 orderType,
                 DefaultEbicsRootElement.generateName(orderType));
 
         response.build();
-        session.getConfiguration().getTraceManager().trace(response);
+        session.trace(response, state.getTraceName());
         response.report();
-        state = new TransferState(response.getSegmentsNumber(), response.getTransactionId());
-        state.setSegmentNumber(response.getSegmentNumber());
-        joiner = new Joiner(session.getUser());
-        joiner.append(response.getOrderData());
-        while (state.hasNext()) {
-            int segmentNumber;
-
-            segmentNumber = state.next();
-            fetchFile(orderType,
-                    segmentNumber,
-                    state.isLastSegment(),
-                    state.getTransactionId(),
-                    joiner);
-        }
+        return response;
+    }
 
-        try (FileOutputStream dest = new FileOutputStream(outputFile)) {
-            joiner.writeTo(dest, response.getTransactionKey());
-        }
+    /**
+     * Sends the receipt closing the download transaction of the given state.
+     */
+    private void sendReceipt(EbicsOrderType orderType, TransferState state)
+            throws IOException, EbicsException {
+        HttpRequestSender sender;
+        ReceiptRequestElement receipt;
+        ReceiptResponseElement receiptResponse;
+        int httpCode;
+
+        sender = sender(HttpRequestSender.Phase.RECEIPT, state.getDeadline());
         receipt = new ReceiptRequestElement(session,
                 state.getTransactionId(),
                 DefaultEbicsRootElement.generateName(orderType));
         receipt.build();
         receipt.validate();
-        session.getConfiguration().getTraceManager().trace(receipt);
-        httpCode = sender.send(new ByteArrayContentFactory(receipt.prettyPrint()));
+        session.trace(receipt, state.getTraceName());
+        httpCode = sender.send(receipt);
         Utils.checkHttpCode(httpCode);
         receiptResponse = new ReceiptResponseElement(sender.getResponseBody(),
                 DefaultEbicsRootElement.generateName(orderType));
         receiptResponse.build();
-        session.getConfiguration().getTraceManager().trace(receiptResponse);
+        session.trace(receiptResponse, state.getTraceName());
         receiptResponse.report();
     }
 
+    /**
+     * Fetches the remaining segments of a download transaction.
+     *
+     * <p>When the download window of the bank is greater than one, up to
+     * window segments are requested at the same time and appended to the
+     * joiner in their order. The last segment is requested once all the
+     * previous ones are received, since it closes the transaction on the
+     * bank side. When the download fails, the segment requests still
+     * running are aborted.
+     *
+     * @param orderType the order type
+     * @param state     the transfer state
+     * @param sink      the receiver of the segments, in their order
+     * @throws IOException    communication error
+     * @throws EbicsException server generated error
+     */
+    private void fetchSegments(EbicsOrderType orderType, TransferState state, SegmentSink sink)
+            throws IOException, EbicsException {
+        int window = session.getConfiguration().getDownloadWindow(session.getUser().getPartner().getBank());
+        Deque<Fetch> pending;
+        OutputStream output;
+        int received;
+
+        if (window == 1 || state.getNumSegments() - state.getSegmentNumber() < 2) {
+            output = sink.getOutputStream();
+            while (state.hasNext()) {
+                int segmentNumber;
+
+                segmentNumber = state.next();
+                if (output != null) {
+                    fetchSegment(sender(HttpRequestSender.Phase.SEGMENT, state.getDeadline()),
+                            orderType,
+                            segmentNumber,
+                            state.isLastSegment(),
+                            state.getTransactionId(),
+                            output,
+                            state.getTraceName());
+                } else {
+                    HttpRequestSender sender = sender(HttpRequestSender.Phase.SEGMENT, state.getDeadline());
+
+                    sink.append(segmentNumber, fetchSegment(sender,
+                            orderType,
+                            segmentNumber,
+                            state.isLastSegment(),
+                            state.getTransactionId(),
+                            null,
+                            state.getTraceName()).getOrderData());
+                }
+            }
+            return;
+        }
+
+        pending = new ArrayDeque<>();
+        received = state.getSegmentNumber();
+        try {
+            while (state.hasNext() || !pending.isEmpty()) {
+                while (state.hasNext() && pending.size() < window
+                        && (state.getSegmentNumber() + 1 < state.getNumSegments() || pending.isEmpty())) {
+                    int segmentNumber = state.next();
+                    boolean lastSegment = state.isLastSegment();
+                    byte[] transactionId = state.getTransactionId();
+                    String traceName = state.getTraceName();
+                    HttpRequestSender sender = sender(HttpRequestSender.Phase.SEGMENT, state.getDeadline());
+
+                    pending.add(new Fetch(sender, background.submit(() -> fetchSegment(sender,
+                            orderType,
+                            segmentNumber,
+                            lastSegment,
+                            transactionId,
+                            null,
+                            traceName).getOrderData())));
+                }
+                sink.append(++received, await(pending.poll().segment()));
+            }
+        } finally {
+            for (Fetch fetch : pending) {
+                fetch.segment().cancel(true);
+                fetch.sender().abort();
+            }
+        }
+    }
+
+    /**
+     * Waits for a segment fetched or prepared in the background.
+     *
+     * @param segment the pending segment
+     * @return the segment
+     */
+    private static <T> T await(Future<T> segment) throws IOException, EbicsException {
+        try {
+            return segment.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof EbicsException ebicsException) {
+                throw ebicsException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new EbicsException(cause.getMessage(), cause);
+        }
+    }
+
     /**
      * Fetches a given portion of a file.
      *
@@ -267,12 +905,42 @@ public class FileTransfer {
                           byte[] transactionId,
                           Joiner joiner)
             throws IOException, EbicsException {
+        fetchSegment(sender(HttpRequestSender.Phase.SEGMENT, deadline()),
+                orderType,
+                segmentNumber,
+                lastSegment,
+                transactionId,
+                joiner.getOutputStream(),
+                null);
+    }
+
+    /**
+     * Fetches a given portion of a file, decoding its order data
+     * to the given output if there is one.
+     *
+     * @param sender        the sender of the segment request
+     * @param orderType     the order type
+     * @param segmentNumber the segment number
+     * @param lastSegment   is it the last segment?
+     * @param transactionId the transaction ID
+     * @param output        the output of the order data, or null to keep it in the response
+     * @param traceName     the trace name of the transfer, may be null
+     * @return the segment response
+     * @throws IOException    communication error
+     * @throws EbicsException server generated error
+     */
+    private DownloadTransferResponseElement fetchSegment(HttpRequestSender sender,
+                                                         EbicsOrderType orderType,
+                                                         int segmentNumber,
+                                                         boolean lastSegment,
+                                                         byte[] transactionId,
+                                                         OutputStream output,
+                                                         String traceName)
+            throws IOException, EbicsException {
         DownloadTransferRequestElement downloader;
-        HttpRequestSender sender;
         DownloadTransferResponseElement response;
         int httpCode;
 
-        sender = new HttpRequestSender(session);
         downloader = new DownloadTransferRequestElement(session,
                 orderType,
                 segmentNumber,
@@ -280,15 +948,91 @@ public class FileTransfer {
                 transactionId);
         downloader.build();
         downloader.validate();
-        session.getConfiguration().getTraceManager().trace(downloader);
-        httpCode = sender.send(new ByteArrayContentFactory(downloader.prettyPrint()));
+        session.trace(downloader, traceName);
+        httpCode = sender.send(downloader, true);
         Utils.checkHttpCode(httpCode);
         response = new DownloadTransferResponseElement(sender.getResponseBody(),
                 orderType,
-                DefaultEbicsRootElement.generateName(orderType));
+                DefaultEbicsRootElement.generateName(orderType),
+                output);
         response.build();
-        session.getConfiguration().getTraceManager().trace(response);
+        session.trace(response, traceName);
         response.report();
-        joiner.append(response.getOrderData());
+        return response;
+    }
+
+    /**
+     * Returns the state of an upload or a download starting now, before
+     * its transaction is opened: its deadline and the name of its traces.
+     */
+    private TransferState start(EbicsOrderType orderType) {
+        TransferState state = new TransferState(0, null);
+
+        state.setDeadline(deadline());
+        state.setTraceName(orderType.getCode() + "-" + transfers.incrementAndGet());
+        return state;
+    }
+
+    /**
+     * Returns the deadline of an upload or a download starting now,
+     * 0 if none is configured for the bank.
+     */
+    private long deadline() {
+        long timeout = session.getConfiguration().getTransferDeadline(session.getUser().getPartner().getBank());
+
+        return timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+    }
+
+    /**
+     * Returns a sender of the requests of the given phase, bound
+     * to the given transfer deadline.
+     */
+    private HttpRequestSender sender(HttpRequestSender.Phase phase, long deadline) {
+        HttpRequestSender sender = new HttpRequestSender(session);
+
+        sender.setPhase(phase);
+        sender.setDeadline(deadline);
+        return sender;
+    }
+
+    /**
+     * Receives the order data of the downloaded segments.
+     */
+    @FunctionalInterface
+    private interface SegmentSink {
+
+        void append(int segmentNumber, byte[] orderData) throws IOException, EbicsException;
+
+        /**
+         * Returns the stream the segments fetched one after the other are
+         * decoded to, or null if they are appended as arrays.
+         */
+        default OutputStream getOutputStream() {
+            return null;
+        }
+    }
+
+    /**
+     * A segment fetched in the background, and the sender
+     * aborting its request if the download fails.
+     */
+    private record Fetch(HttpRequestSender sender, Future<byte[]> segment) {
+    }
+
+    /**
+     * Appends the segments to a joiner, the ones fetched one
+     * after the other being decoded straight into it.
+     */
+    private record JoinerSink(Joiner joiner) implements SegmentSink {
+
+        @Override
+        public void append(int segmentNumber, byte[] orderData) throws EbicsException {
+            joiner.append(orderData);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return joiner.getOutputStream();
+        }
     }
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+package org.kopi.ebics.client;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.ProxyAuthenticationStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.HttpClientProvider;
+
+
+/**
+ * Shared HTTP clients of the EBICS client application.
+ *
+ * <p>One client with a bounded connection pool is kept for every bank
+ * URL and proxy combination, so the segments of a transfer reuse the
+ * same keep-alive connection instead of opening a new TCP and TLS
+ * connection per request. Idle and expired connections are evicted in
+ * the background. The pool must be closed when the application quits.
+ *
+ * <p>The pool reads the following configuration properties:
+ * <ul>
+ *   <li><code>http.proxy.host</code>, <code>http.proxy.port</code>,
+ *       <code>http.proxy.user</code>, <code>http.proxy.password</code>
+ *   <li><code>http.pool.max</code> the maximum connections per bank, 4 by default
+ *   <li><code>http.pool.keepalive</code> the keep-alive in seconds when the
+ *       bank does not send one, 60 by default
+ *   <li><code>http.pool.idle</code> the idle time in seconds after which a
+ *       connection is closed, 30 by default
+ * </ul>
+ */
+public class HttpClientPool implements HttpClientProvider {
+
+    private static final int TIMEOUT = 300_000;
+    private static final int DEFAULT_MAX_CONNECTIONS = 4;
+    private static final long DEFAULT_KEEP_ALIVE = 60;
+    private static final long DEFAULT_IDLE_TIME = 30;
+
+    private final Configuration conf;
+    private final Map<String, PooledClient> clients;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new <code>HttpClientPool</code> reading its
+     * settings from the given configuration.
+     *
+     * @param conf the client configuration
+     */
+    public HttpClientPool(Configuration conf) {
+        this.conf = conf;
+        clients = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public CloseableHttpClient getClient(URL url) {
+        return getPooledClient(url).client;
+    }
+
+    /**
+     * Returns the default request configuration of the client of the given
+     * bank URL, holding its proxy.
+     */
+    @Override
+    public RequestConfig getRequestConfig(URL url) {
+        return getPooledClient(url).config;
+    }
+
+    /**
+     * Returns the client of the given bank URL, creating it if needed.
+     *
+     * <p>The pool may be closed while the client is created, after
+     * {@link #close()} went through the clients. The new client is then
+     * removed and closed here, since nothing else would close it.
+     */
+    private PooledClient getPooledClient(URL url) {
+        String key = key(url);
+        PooledClient pooled;
+
+        if (closed) {
+            throw new IllegalStateException("HTTP client pool is closed");
+        }
+
+        pooled = clients.computeIfAbsent(key, k -> new PooledClient());
+        if (closed) {
+            IllegalStateException error = new IllegalStateException("HTTP client pool is closed");
+
+            if (clients.remove(key, pooled)) {
+                try {
+                    pooled.client.close();
+                } catch (IOException e) {
+                    error.addSuppressed(e);
+                }
+            }
+            throw error;
+        }
+
+        return pooled;
+    }
+
+    /**
+     * Returns the connection statistics summed over all the banks.
+     *
+     * @return a snapshot of the leased, pending and available connections
+     */
+    public PoolStats getStatistics() {
+        int leased = 0;
+        int pending = 0;
+        int available = 0;
+        int max = 0;
+
+        for (PooledClient pooled : clients.values()) {
+            PoolStats stats = pooled.manager.getTotalStats();
+
+            leased += stats.getLeased();
+            pending += stats.getPending();
+            available += stats.getAvailable();
+            max += stats.getMax();
+        }
+
+        return new PoolStats(leased, pending, available, max);
+    }
+
+    /**
+     * Closes all the clients and their connections.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (Map.Entry<String, PooledClient> entry : clients.entrySet()) {
+            if (clients.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().client.close();
+            }
+        }
+    }
+
+    private String key(URL url) {
+        return url.getProtocol() + "://" + url.getAuthority() + "|" + getProxyHost() + ":"
+                + getProperty("http.proxy.port");
+    }
+
+    private String getProxyHost() {
+        String proxyHost = getProperty("http.proxy.host");
+
+        return proxyHost == null || proxyHost.equals("") ? null : proxyHost.trim();
+    }
+
+    private String getProperty(String key) {
+        return conf.getProperty(key);
+    }
+
+    private long getLong(String key, long defaultValue) {
+        String value = getProperty(key);
+
+        return value == null || value.trim().equals("") ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * A client together with its connection manager.
+     */
+    private final class PooledClient {
+
+        private final PoolingHttpClientConnectionManager manager;
+        private final RequestConfig config;
+        private final CloseableHttpClient client;
+
+        private PooledClient() {
+            int maxConnections = (int) getLong("http.pool.max", DEFAULT_MAX_CONNECTIONS);
+            long keepAlive = getLong("http.pool.keepalive", DEFAULT_KEEP_ALIVE) * 1000;
+            RequestConfig.Builder configBuilder = RequestConfig.copy(RequestConfig.DEFAULT)
+                    .setSocketTimeout(TIMEOUT)
+                    .setConnectTimeout(TIMEOUT)
+                    .setConnectionRequestTimeout(TIMEOUT);
+            String proxyHost = getProxyHost();
+            CredentialsProvider credsProvider = null;
+
+            manager = new PoolingHttpClientConnectionManager();
+            manager.setMaxTotal(maxConnections);
+            manager.setDefaultMaxPerRoute(maxConnections);
+
+            if (proxyHost != null) {
+                int proxyPort = Integer.parseInt(getProperty("http.proxy.port").trim());
+                configBuilder.setProxy(new HttpHost(proxyHost, proxyPort));
+
+                String user = getProperty("http.proxy.user");
+                if (user != null && !user.equals("")) {
+                    String pwd = getProperty("http.proxy.password").trim();
+                    credsProvider = new BasicCredentialsProvider();
+                    credsProvider.setCredentials(new AuthScope(proxyHost, proxyPort),
+                            new UsernamePasswordCredentials(user.trim(), pwd));
+                }
+            }
+
+            config = configBuilder.build();
+            HttpClientBuilder builder = HttpClientBuilder.create()
+                    .setConnectionManager(manager)
+                    .setDefaultRequestConfig(config)
+                    .setKeepAliveStrategy((response, context) -> {
+                        long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+                                .getKeepAliveDuration(response, context);
+                        return duration > 0 ? duration : keepAlive;
+                    })
+                    .evictExpiredConnections()
+                    .evictIdleConnections(getLong("http.pool.idle", DEFAULT_IDLE_TIME), TimeUnit.SECONDS);
+            if (credsProvider != null) {
+                builder.setDefaultCredentialsProvider(credsProvider);
+                builder.setProxyAuthenticationStrategy(new ProxyAuthenticationStrategy());
+            }
+            client = builder.build();
+        }
+    }
+}
@@ -19,37 +19,97 @@
 
 package org.kopi.ebics.client;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
-import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.EntityBuilder;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.entity.EntityTemplate;
+import org.apache.http.impl.execchain.RequestAbortedException;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.ProxyAuthenticationStrategy;
 import org.apache.http.util.EntityUtils;
+import org.kopi.ebics.exception.DeadlineExceededException;
+import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.Configuration;
 import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.kopi.ebics.interfaces.HttpClientProvider;
 import org.kopi.ebics.io.ByteArrayContentFactory;
 import org.kopi.ebics.session.EbicsSession;
+import org.kopi.ebics.xml.DefaultEbicsRootElement;
 
 /**
  * A simple HTTP request sender and receiver. The send returns a HTTP code that
  * should be analyzed before proceeding ebics request response parse.
+ *
+ * <p>The requests go through the {@link HttpRetryPolicy} of the configuration.
+ * Only the requests sent as retryable are retried, the others only go
+ * through the circuit breaker of their bank.
+ *
+ * <p>The connect timeout and the response timeout of the request phase are
+ * read from the configuration for the bank. When a deadline is set, the
+ * timeouts are cut to the time left and a request still running at the
+ * deadline is aborted. A request may also be aborted by another thread, as
+ * a transfer does with the segments it fetches in the background when it fails.
+ *
+ * <p>The ebics elements are written straight into the HTTP request body,
+ * with the chunked transfer encoding, so that no request is held in memory.
+ * The body of a successful response is not buffered either: it is read from
+ * the connection by the response element, and only copied for the traces when
+ * tracing is enabled. The connection is released when the body stream is
+ * closed, or when the next request is sent. The body of an error status is
+ * skipped.
  */
 public class HttpRequestSender {
 
+    /**
+     * The phase of a request, which sets the time the bank may take to answer it.
+     */
+    public enum Phase {
+        /**
+         * A transaction initialization or a key management request.
+         */
+        INITIALIZATION,
+        /**
+         * An upload or download segment.
+         */
+        SEGMENT,
+        /**
+         * A download receipt.
+         */
+        RECEIPT
+    }
+
+    private static final ScheduledExecutorService aborter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ebics-request-aborter");
+
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final EbicsSession session;
     private ContentFactory response;
+    private volatile ResponseContent open;
+    private Phase phase = Phase.INITIALIZATION;
+    private long deadline;
+    private volatile long requestLength;
+    private volatile HttpPost running;
+    private volatile HttpClientProvider requestClients;
+    private volatile boolean aborted;
 
     /**
      * Constructs a new <code>HttpRequestSender</code> with a given ebics
@@ -61,6 +121,38 @@ public class HttpRequestSender {
         this.session = session;
     }
 
+    /**
+     * Sets the phase of the requests, the initialization by default.
+     *
+     * @param phase the request phase
+     */
+    public void setPhase(Phase phase) {
+        this.phase = phase;
+    }
+
+    /**
+     * Sets the time after which no request is sent and the running
+     * request is aborted.
+     *
+     * @param deadline the deadline in milliseconds since the epoch, 0 for no deadline
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Aborts the running request, if any, and fails the requests sent afterwards.
+     */
+    public void abort() {
+        HttpPost method;
+
+        aborted = true;
+        method = running;
+        if (method != null) {
+            method.abort();
+        }
+    }
+
     /**
      * Sends the request contained in the <code>ContentFactory</code>. The
      * <code>ContentFactory</code> will deliver the request as an
@@ -70,55 +162,381 @@ public class HttpRequestSender {
      * @return the HTTP return code
      */
     public final int send(ContentFactory request) throws IOException {
-        RequestConfig.Builder configBuilder = RequestConfig.copy(RequestConfig.DEFAULT).setSocketTimeout(
-                300_000).setConnectTimeout(300_000);
+        return send(request, false);
+    }
+
+    /**
+     * Sends the request contained in the <code>ContentFactory</code>, retrying
+     * it on transient failures if it may safely be sent again, as the transfer
+     * segments may.
+     *
+     * @param request   the ebics request
+     * @param retryable whether the request may be sent again
+     * @return the HTTP return code
+     */
+    public final int send(ContentFactory request, boolean retryable) throws IOException {
+        return send(() -> {
+            InputStream input = request.getContent();
 
+            return EntityBuilder.create().setStream(input).build();
+        }, retryable);
+    }
+
+    /**
+     * Sends the given ebics element. The element is serialized once,
+     * straight into the HTTP request body.
+     *
+     * @param request the ebics request
+     * @return the HTTP return code
+     */
+    public final int send(DefaultEbicsRootElement<?> request) throws IOException {
+        return send(request, false);
+    }
+
+    /**
+     * Sends the given ebics element, retrying it on transient failures if it
+     * may safely be sent again, as the transfer segments may.
+     *
+     * @param request   the ebics request
+     * @param retryable whether the request may be sent again
+     * @return the HTTP return code
+     */
+    public final int send(DefaultEbicsRootElement<?> request, boolean retryable) throws IOException {
+        return send(() -> new EntityTemplate(out -> {
+            CountingOutputStream counter = new CountingOutputStream(out);
+
+            try {
+                request.writeTo(counter);
+            } catch (EbicsException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                requestLength = counter.count;
+            }
+        }), retryable);
+    }
+
+    private int send(Entity entity, boolean retryable) throws IOException {
+        return session.getConfiguration().getHttpRetryPolicy().send(session.getUser().getPartner().getBank(),
+                retryable,
+                deadline,
+                () -> send(entity.create()));
+    }
+
+    private int send(HttpEntity requestEntity) throws IOException {
         Configuration conf = session.getConfiguration();
-        String proxyHost = conf.getProperty("http.proxy.host");
-        CredentialsProvider credsProvider = null;
-
-        if (proxyHost != null && !proxyHost.equals("")) {
-            int proxyPort = Integer.parseInt(conf.getProperty("http.proxy.port").trim());
-            HttpHost proxy = new HttpHost(proxyHost.trim(), proxyPort);
-            configBuilder.setProxy(proxy);
-
-            String user = conf.getProperty("http.proxy.user");
-            if (user != null && !user.equals("")) {
-                user = user.trim();
-                String pwd = conf.getProperty("http.proxy.password").trim();
-                credsProvider = new BasicCredentialsProvider();
-                credsProvider.setCredentials(new AuthScope(proxyHost, proxyPort),
-                        new UsernamePasswordCredentials(user, pwd));
+        EbicsBank bank = session.getUser().getPartner().getBank();
+        URL url = bank.getURL();
+        HttpPost method = new HttpPost(url.toString());
+        int connectTimeout = conf.getConnectTimeout(bank);
+        int timeout = getTimeout(conf, bank);
+        ScheduledFuture<?> abort = null;
+        HttpClientProvider clients;
+        CloseableHttpClient httpClient;
+        CloseableHttpResponse httpResponse;
+        HttpEntity entity;
+        int status;
+
+        release();
+        if (deadline > 0) {
+            long left = deadline - System.currentTimeMillis();
+
+            if (left <= 0) {
+                throw new DeadlineExceededException("The transfer deadline is over");
             }
+            connectTimeout = (int) Math.min(connectTimeout, left);
+            timeout = (int) Math.min(timeout, left);
+            abort = aborter.schedule(method::abort, left, TimeUnit.MILLISECONDS);
         }
-        HttpClientBuilder builder = HttpClientBuilder.create().setDefaultRequestConfig(
-                configBuilder.build());
-        if (credsProvider != null) {
-            builder.setDefaultCredentialsProvider(credsProvider);
-            builder.setProxyAuthenticationStrategy(new ProxyAuthenticationStrategy());
+        clients = conf.getHttpClientPool();
+        if (clients == null) {
+            clients = new HttpClientPool(conf);
+            requestClients = clients;
         }
-        CloseableHttpClient httpClient = builder.build();
-
-        InputStream input = request.getContent();
-        HttpPost method = new HttpPost(session.getUser().getPartner().getBank().getURL().toString());
-
-        HttpEntity requestEntity = EntityBuilder.create().setStream(input).build();
+        httpClient = clients.getClient(url);
+        method.setConfig(RequestConfig.copy(clients.getRequestConfig(url))
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(timeout)
+                .build());
         method.setEntity(requestEntity);
         method.setHeader(HttpHeaders.CONTENT_TYPE, "text/xml; charset=ISO-8859-1");
 
-        try (CloseableHttpResponse closeableHttpResponse = httpClient.execute(method)) {
-            this.response = new ByteArrayContentFactory(
-                    EntityUtils.toByteArray(closeableHttpResponse.getEntity()));
-            return closeableHttpResponse.getStatusLine().getStatusCode();
+        running = method;
+        try {
+            if (aborted) {
+                throw new RequestAbortedException("The request was aborted");
+            }
+            httpResponse = httpClient.execute(method);
+        } catch (IOException e) {
+            finish(method, abort);
+            throw failure(method, e);
+        }
+
+        status = httpResponse.getStatusLine().getStatusCode();
+        entity = httpResponse.getEntity();
+        if (status == HttpStatus.SC_OK && entity != null) {
+            open = new ResponseContent(this, method, httpResponse, abort, conf.isTraceEnabled());
+            response = open;
+            return status;
+        }
+
+        // the body of an error is not used, it is skipped to release the connection at once
+        try (httpResponse) {
+            EntityUtils.consume(entity);
+            response = status == HttpStatus.SC_OK ? new ByteArrayContentFactory(new byte[0]) : null;
+            return status;
+        } catch (IOException e) {
+            throw failure(method, e);
+        } finally {
+            finish(method, abort);
+        }
+    }
+
+    /**
+     * Releases the connection of a response whose body was not read.
+     */
+    private void release() throws IOException {
+        ResponseContent content = open;
+
+        open = null;
+        if (content != null) {
+            content.discard();
+        }
+    }
+
+    /**
+     * Ends a request once its response is read or has failed, closing
+     * the client of its own when the configuration has no pool.
+     */
+    private void finish(HttpPost method, ScheduledFuture<?> abort) {
+        HttpClientProvider clients = requestClients;
+
+        if (running == method) {
+            running = null;
         }
+        if (abort != null) {
+            abort.cancel(false);
+        }
+        if (clients != null) {
+            requestClients = null;
+            try {
+                clients.close();
+            } catch (IOException e) {
+                // the response is already read, the request does not fail
+            }
+        }
+    }
+
+    /**
+     * Returns the exception to throw for a failed request, telling
+     * an aborted request or an exceeded deadline apart.
+     */
+    private IOException failure(HttpPost method, IOException e) {
+        if (aborted) {
+            return new RequestAbortedException("The request was aborted");
+        }
+        if (method.isAborted()) {
+            return new DeadlineExceededException("The transfer deadline is over");
+        }
+
+        return e;
+    }
+
+    private int getTimeout(Configuration conf, EbicsBank bank) {
+        return switch (phase) {
+            case SEGMENT -> conf.getSegmentTimeout(bank);
+            case RECEIPT -> conf.getReceiptTimeout(bank);
+            default -> conf.getInitializationTimeout(bank);
+        };
+    }
+
+    /**
+     * Creates the body of every attempt of a request.
+     */
+    @FunctionalInterface
+    private interface Entity {
+
+        HttpEntity create() throws IOException;
+    }
+
+    /**
+     * Returns the size of the last ebics element written to a request body.
+     *
+     * @return the request body size in bytes
+     */
+    public long getRequestLength() {
+        return requestLength;
     }
 
     /**
-     * Returns the content factory of the response body
+     * Returns the content factory of the response body.
+     *
+     * <p>The body of a successful response is read from the connection, so
+     * its content can only be read once, unless tracing is enabled. The
+     * stream must be closed to release the connection.
      *
-     * @return the content factory of the response.
+     * @return the content factory of the response, null after an error status.
      */
     public ContentFactory getResponseBody() {
         return response;
     }
+
+    /**
+     * The body of a successful response. The first {@link #getContent()}
+     * reads it from the connection, copying it when tracing is enabled;
+     * the following ones read the copy.
+     */
+    private static final class ResponseContent implements ContentFactory {
+
+        private static final long serialVersionUID = -2741907385310428911L;
+
+        private final transient HttpRequestSender sender;
+        private final transient HttpPost method;
+        private final transient CloseableHttpResponse httpResponse;
+        private final transient ScheduledFuture<?> abort;
+        private final transient ByteArrayOutputStream trace;
+        private transient boolean read;
+        private volatile byte[] content;
+
+        ResponseContent(HttpRequestSender sender,
+                        HttpPost method,
+                        CloseableHttpResponse httpResponse,
+                        ScheduledFuture<?> abort,
+                        boolean traced) {
+            this.sender = sender;
+            this.method = method;
+            this.httpResponse = httpResponse;
+            this.abort = abort;
+            trace = traced ? new ByteArrayOutputStream() : null;
+        }
+
+        @Override
+        public synchronized InputStream getContent() throws IOException {
+            if (content != null) {
+                return new ByteArrayInputStream(content);
+            }
+            if (read) {
+                throw new IOException("The response body was already read");
+            }
+
+            read = true;
+            return new BodyStream(httpResponse.getEntity().getContent());
+        }
+
+        /**
+         * Closes the connection of a body that was not read.
+         */
+        synchronized void discard() throws IOException {
+            if (!read) {
+                read = true;
+                close();
+            }
+        }
+
+        private void close() throws IOException {
+            try {
+                httpResponse.close();
+            } finally {
+                sender.finish(method, abort);
+            }
+        }
+
+        /**
+         * The body read from the connection, copied to the trace if any.
+         */
+        private final class BodyStream extends InputStream {
+
+            private final InputStream in;
+            private boolean closed;
+
+            BodyStream(InputStream in) {
+                this.in = in;
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b;
+
+                try {
+                    b = in.read();
+                } catch (IOException e) {
+                    throw sender.failure(method, e);
+                }
+                if (b >= 0 && trace != null) {
+                    trace.write(b);
+                }
+
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count;
+
+                try {
+                    count = in.read(b, off, len);
+                } catch (IOException e) {
+                    throw sender.failure(method, e);
+                }
+                if (count > 0 && trace != null) {
+                    trace.write(b, off, count);
+                }
+
+                return count;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return in.available();
+            }
+
+            /**
+             * Reads the rest of the body, for the trace and so that the
+             * connection may be reused, then releases the connection.
+             */
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+                try {
+                    if (trace != null) {
+                        in.transferTo(trace);
+                        content = trace.toByteArray();
+                    }
+                    in.close();
+                } catch (IOException e) {
+                    throw sender.failure(method, e);
+                } finally {
+                    ResponseContent.this.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes of a request body.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.kopi.ebics.exception.DeadlineExceededException;
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.kopi.ebics.interfaces.RetryPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The retries of the HTTP requests sent to the banks.
+ *
+ * <p>A request that may safely be sent again, such as a transfer segment,
+ * is retried after a connection error or a <code>502</code>, <code>503</code>
+ * or <code>504</code> answer of the bank load balancers. The wait before a
+ * retry grows exponentially with a random jitter, so that the clients do not
+ * come back to a recovering bank all at the same time. The requests opening
+ * a transaction or sending an order are never retried, since the bank may
+ * have processed them.
+ *
+ * <p>Every bank has a retry budget: a retry spends one token and every
+ * successful request gives back a tenth of a token, so that the retries
+ * never exceed a tenth of the traffic of a failing bank. Every bank also
+ * has a circuit breaker: after a number of consecutive failures, the
+ * requests to the bank fail at once during the open time. The first request
+ * sent after the open time probes the bank while the others still fail at
+ * once: its success closes the circuit, its failure opens it again.
+ *
+ * <p>The policy reads the following configuration properties:
+ * <ul>
+ *   <li><code>http.retry.max</code> the maximum retries of a request, 3 by default
+ *   <li><code>http.retry.delay</code> the wait in milliseconds before the
+ *       first retry, 500 by default
+ *   <li><code>http.retry.delay.max</code> the maximum wait in milliseconds
+ *       before a retry, 30000 by default
+ *   <li><code>http.retry.budget</code> the maximum retry tokens of a bank, 10 by default
+ *   <li><code>http.circuit.failures</code> the consecutive failures opening
+ *       the circuit of a bank, 5 by default
+ *   <li><code>http.circuit.open</code> the time in seconds the circuit
+ *       stays open, 30 by default
+ * </ul>
+ *
+ * @author hachani
+ */
+public class HttpRetryPolicy implements RetryPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpRetryPolicy.class);
+
+    private static final double BUDGET_RATIO = 0.1;
+    private static final long DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_DELAY = 500;
+    private static final long DEFAULT_MAX_DELAY = 30_000;
+    private static final long DEFAULT_BUDGET = 10;
+    private static final long DEFAULT_CIRCUIT_FAILURES = 5;
+    private static final long DEFAULT_CIRCUIT_OPEN = 30;
+
+    private final int maxRetries;
+    private final long delay;
+    private final long maxDelay;
+    private final double budget;
+    private final int circuitFailures;
+    private final long circuitOpenTime;
+    private final Map<String, BankState> banks;
+    private final LongAdder retries;
+    private final LongAdder waitTime;
+    private final LongAdder rejected;
+
+    /**
+     * Constructs a new <code>HttpRetryPolicy</code> reading its
+     * settings from the given configuration.
+     *
+     * @param conf the client configuration
+     */
+    public HttpRetryPolicy(Configuration conf) {
+        maxRetries = (int) getLong(conf, "http.retry.max", DEFAULT_MAX_RETRIES);
+        delay = getLong(conf, "http.retry.delay", DEFAULT_DELAY);
+        maxDelay = getLong(conf, "http.retry.delay.max", DEFAULT_MAX_DELAY);
+        budget = getLong(conf, "http.retry.budget", DEFAULT_BUDGET);
+        circuitFailures = (int) getLong(conf, "http.circuit.failures", DEFAULT_CIRCUIT_FAILURES);
+        circuitOpenTime = getLong(conf, "http.circuit.open", DEFAULT_CIRCUIT_OPEN) * 1000;
+        banks = new ConcurrentHashMap<>();
+        retries = new LongAdder();
+        waitTime = new LongAdder();
+        rejected = new LongAdder();
+    }
+
+    /**
+     * Sends a request to the given bank, retrying it if it is retryable.
+     *
+     * @param bank      the ebics bank
+     * @param retryable whether the request may safely be sent again
+     * @param request   the request
+     * @return the HTTP code of the last attempt
+     * @throws IOException the last attempt failed, or the circuit of the bank is open
+     */
+    public int send(EbicsBank bank, boolean retryable, Request request) throws IOException {
+        return send(bank, retryable, 0, request);
+    }
+
+    @Override
+    public int send(EbicsBank bank, boolean retryable, long deadline, Request request) throws IOException {
+        BankState state = banks.computeIfAbsent(bank.getHostId(), hostId -> new BankState(budget));
+        int attempt = 0;
+
+        while (true) {
+            IOException error = null;
+            int httpCode = 0;
+            Admission admission;
+            long wait;
+
+            admission = state.admit(circuitFailures);
+            if (admission == Admission.REJECTED) {
+                rejected.increment();
+                throw new IOException("The circuit to the bank " + bank.getHostId() + " is open");
+            }
+            try {
+                httpCode = request.send();
+            } catch (IOException e) {
+                if (e instanceof DeadlineExceededException
+                        || e instanceof RequestAbortedException
+                        || Thread.currentThread().isInterrupted()) {
+                    state.cancel(admission);
+                    throw e;
+                }
+                error = e;
+            } catch (RuntimeException e) {
+                state.cancel(admission);
+                throw e;
+            }
+
+            if (error == null && httpCode < 500) {
+                state.success(admission);
+                return httpCode;
+            }
+            state.failure(admission, circuitFailures, circuitOpenTime);
+            wait = backoff(attempt + 1);
+            if (!retryable
+                    || attempt == maxRetries
+                    || !isTransient(error, httpCode)
+                    || deadline > 0 && System.currentTimeMillis() + wait >= deadline
+                    || state.isOpen(circuitFailures)
+                    || !state.spend()) {
+                if (error != null) {
+                    throw error;
+                }
+                return httpCode;
+            }
+
+            attempt++;
+            logger.warn("Retrying the request to the bank {} ({} of {}): {}",
+                    bank.getHostId(),
+                    attempt,
+                    maxRetries,
+                    error != null ? error.getMessage() : "HTTP " + httpCode);
+            sleep(wait);
+        }
+    }
+
+    /**
+     * Returns the number of retried requests.
+     *
+     * @return the retries
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Returns the time spent waiting before the retries.
+     *
+     * @return the wait time in milliseconds
+     */
+    public long getWaitTime() {
+        return waitTime.sum();
+    }
+
+    /**
+     * Returns the number of requests failed at once because the circuit
+     * of their bank was open.
+     *
+     * @return the rejected requests
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Tells if a failure may pass by itself: a connection error or an
+     * unavailable bank behind its load balancer.
+     */
+    private static boolean isTransient(IOException error, int httpCode) {
+        return error != null || httpCode == 502 || httpCode == 503 || httpCode == 504;
+    }
+
+    /**
+     * Returns the wait before a retry: an exponential backoff capped to the
+     * maximum wait, of which a random half is kept.
+     */
+    private long backoff(int attempt) {
+        long backoff = Math.min(maxDelay, delay << Math.min(attempt - 1, 30));
+
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private void sleep(long wait) throws InterruptedIOException {
+        retries.increment();
+        waitTime.add(wait);
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    private static long getLong(Configuration conf, String key, long defaultValue) {
+        String value = conf.getProperty(key);
+
+        return value == null || value.trim().equals("") ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * How the circuit breaker of a bank let a request through.
+     */
+    private enum Admission {
+
+        /** The circuit is closed. */
+        ALLOWED,
+
+        /** The circuit is open and the request probes whether the bank is back. */
+        PROBE,
+
+        /** The circuit is open. */
+        REJECTED
+    }
+
+    /**
+     * The retry budget and the circuit breaker of a bank.
+     */
+    private static final class BankState {
+
+        private final double budget;
+        private double tokens;
+        private int failures;
+        private long openUntil;
+        private boolean probing;
+
+        BankState(double budget) {
+            this.budget = budget;
+            tokens = budget;
+        }
+
+        /**
+         * Tells if a request may be sent: the circuit is closed, or its
+         * open time is over and no other request is probing the bank.
+         */
+        synchronized Admission admit(int circuitFailures) {
+            if (failures < circuitFailures) {
+                return Admission.ALLOWED;
+            }
+            if (probing || System.currentTimeMillis() < openUntil) {
+                return Admission.REJECTED;
+            }
+            probing = true;
+            return Admission.PROBE;
+        }
+
+        synchronized boolean isOpen(int circuitFailures) {
+            return failures >= circuitFailures;
+        }
+
+        synchronized void success(Admission admission) {
+            failures = 0;
+            tokens = Math.min(budget, tokens + BUDGET_RATIO);
+            cancel(admission);
+        }
+
+        synchronized void failure(Admission admission, int circuitFailures, long circuitOpenTime) {
+            failures++;
+            if (failures >= circuitFailures) {
+                openUntil = System.currentTimeMillis() + circuitOpenTime;
+            }
+            cancel(admission);
+        }
+
+        /**
+         * Ends the probe of the bank without a result.
+         */
+        synchronized void cancel(Admission admission) {
+            if (admission == Admission.PROBE) {
+                probing = false;
+            }
+        }
+
+        /**
+         * Spends a retry token.
+         *
+         * @return false if the budget is exhausted
+         */
+        synchronized boolean spend() {
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
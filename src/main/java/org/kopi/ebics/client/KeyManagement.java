@@ -83,12 +83,12 @@ public class KeyManagement {
         request = new INIRequestElement(session);
         request.build();
         request.validate();
-        session.getConfiguration().getTraceManager().trace(request);
-        httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
+        session.trace(request);
+        httpCode = sender.send(request);
         Utils.checkHttpCode(httpCode);
         response = new KeyManagementResponseElement(sender.getResponseBody(), "INIResponse");
         response.build();
-        session.getConfiguration().getTraceManager().trace(response);
+        session.trace(response);
         response.report();
     }
 
@@ -109,12 +109,12 @@ public class KeyManagement {
         request = new HIARequestElement(session);
         request.build();
         request.validate();
-        session.getConfiguration().getTraceManager().trace(request);
-        httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
+        session.trace(request);
+        httpCode = sender.send(request);
         Utils.checkHttpCode(httpCode);
         response = new KeyManagementResponseElement(sender.getResponseBody(), "HIAResponse");
         response.build();
-        session.getConfiguration().getTraceManager().trace(response);
+        session.trace(response);
         response.report();
     }
 
@@ -143,17 +143,17 @@ public class KeyManagement {
         request = new HPBRequestElement(session);
         request.build();
         request.validate();
-        session.getConfiguration().getTraceManager().trace(request);
-        httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
+        session.trace(request);
+        httpCode = sender.send(request);
         Utils.checkHttpCode(httpCode);
         response = new KeyManagementResponseElement(sender.getResponseBody(), "HBPResponse");
         response.build();
-        session.getConfiguration().getTraceManager().trace(response);
+        session.trace(response);
         response.report();
         factory = new ByteArrayContentFactory(Utils.unzip(session.getUser().decrypt(response.getOrderData(), response.getTransactionKey())));
         orderData = new HPBResponseOrderDataElement(factory);
         orderData.build();
-        session.getConfiguration().getTraceManager().trace(orderData);
+        session.trace(orderData);
         keystoreManager = new KeyStoreManager();
         path = session.getConfiguration().getKeystoreDirectory(session.getUser());
         keystoreManager.load("", session.getUser().getPasswordCallback().getPassword());
@@ -185,12 +185,12 @@ public class KeyManagement {
         request = new SPRRequestElement(session);
         request.build();
         request.validate();
-        session.getConfiguration().getTraceManager().trace(request);
-        httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
+        session.trace(request);
+        httpCode = sender.send(request);
         Utils.checkHttpCode(httpCode);
         response = new SPRResponseElement(sender.getResponseBody());
         response.build();
-        session.getConfiguration().getTraceManager().trace(response);
+        session.trace(response);
         response.report();
     }
 }
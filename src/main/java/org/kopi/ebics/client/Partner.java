@@ -41,7 +41,7 @@ public class Partner implements EbicsPartner, Savable {
     private final EbicsBank bank;
     private final String partnerId;
     private int orderId = 10 * 36 * 36 * 36;
-    private boolean needSave;
+    private volatile boolean needSave;
 
     /**
      * Reconstructs a persisted EBICS customer.
@@ -73,7 +73,7 @@ public class Partner implements EbicsPartner, Savable {
      *
      * @return the next order ID
      */
-    public Integer getNextOrderId() {
+    public synchronized Integer getNextOrderId() {
         return Integer.valueOf(orderId);
     }
 
@@ -82,13 +82,13 @@ public class Partner implements EbicsPartner, Savable {
      *
      * @param orderId the order ID
      */
-    public void setOrderId(Integer orderId) {
+    public synchronized void setOrderId(Integer orderId) {
         this.orderId = orderId.intValue();
         needSave = true;
     }
 
     @Override
-    public void save(ObjectOutputStream oos) throws IOException {
+    public synchronized void save(ObjectOutputStream oos) throws IOException {
         oos.writeUTF(partnerId);
         oos.writeInt(orderId);
         oos.flush();
@@ -129,7 +129,7 @@ public class Partner implements EbicsPartner, Savable {
      * changes.
      */
     @Override
-    public String nextOrderId() {
+    public synchronized String nextOrderId() {
         char[] chars = new char[4];
 
         orderId += 1;
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+package org.kopi.ebics.client;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.kopi.ebics.interfaces.EbicsOrderType;
+import org.kopi.ebics.session.Product;
+
+
+/**
+ * Runs independent uploads and downloads of several users and banks
+ * at the same time.
+ *
+ * <p>Every transfer runs on its own virtual thread and is traced in the
+ * transfer trace directory of its user. The number of transfers running
+ * at the same time against one bank is bounded by
+ * {@link Configuration#getTransferConcurrency(EbicsBank) getTransferConcurrency(EbicsBank)};
+ * the other transfers of that bank wait for a free slot.
+ *
+ * <p>The engine does not own the client: closing it waits for the
+ * running transfers, then the client may quit.
+ */
+public class TransferEngine implements AutoCloseable {
+
+    /**
+     * How long closing the engine waits for the running transfers,
+     * then for the interrupted ones.
+     */
+    private static final long CLOSE_TIMEOUT_MINUTES = 5;
+
+    private final EbicsClient client;
+    private final Configuration configuration;
+    private final ExecutorService executor;
+    private final Map<String, Semaphore> limits;
+
+    /**
+     * Constructs a new <code>TransferEngine</code> running the transfers
+     * of the given client.
+     *
+     * @param client        the ebics client
+     * @param configuration the client configuration
+     */
+    public TransferEngine(EbicsClient client, Configuration configuration) {
+        this.client = client;
+        this.configuration = configuration;
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        limits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sends a file to the bank of the given user.
+     *
+     * @param file          the file to send
+     * @param user          the user
+     * @param product       the application product
+     * @param orderType     the order type
+     * @param uploadService the upload service
+     * @return a future completed when the bank acknowledged the last segment
+     */
+    public CompletableFuture<Void> sendFile(File file,
+                                            User user,
+                                            Product product,
+                                            EbicsOrderType orderType,
+                                            UploadService uploadService) {
+        return submit(user, () -> {
+            client.sendFile(file, user, product, orderType, uploadService);
+            return null;
+        });
+    }
+
+    /**
+     * Fetches a file from the bank of the given user.
+     *
+     * @param file            the output file
+     * @param user            the user
+     * @param product         the application product
+     * @param orderType       the order type
+     * @param downloadService the download service
+     * @param isTest          is it a test download?
+     * @param start           optional begin of fetch term
+     * @param end             optional end of fetch term
+     * @return a future completed with the output file once the receipt is sent
+     */
+    public CompletableFuture<File> fetchFile(File file,
+                                             User user,
+                                             Product product,
+                                             EbicsOrderType orderType,
+                                             DownloadService downloadService,
+                                             boolean isTest,
+                                             Date start,
+                                             Date end) {
+        return submit(user, () -> {
+            client.fetchFile(file, user, product, orderType, downloadService, isTest, start, end);
+            return file;
+        });
+    }
+
+    /**
+     * Runs a transfer once its bank has a free slot.
+     *
+     * @param user     the transfer user
+     * @param transfer the transfer
+     * @return the future of the transfer result
+     */
+    private <T> CompletableFuture<T> submit(User user, Callable<T> transfer) {
+        EbicsBank bank = user.getPartner().getBank();
+        Semaphore limit = limits.computeIfAbsent(bank.getHostId(),
+                hostId -> new Semaphore(configuration.getTransferConcurrency(bank), true));
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        executor.execute(() -> {
+            try {
+                limit.acquire();
+                try {
+                    result.complete(transfer.call());
+                } finally {
+                    limit.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(e);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Stops accepting transfers and waits for the running ones. The transfers
+     * still running after a few minutes are interrupted; a recoverable transfer
+     * resumes from its journal the next time it is started.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                executor.shutdownNow();
+                executor.awaitTermination(CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+    }
+}
@@ -36,7 +36,10 @@ public class TransferState implements Serializable {
     private byte[] transactionId;
     private int segmentNumber;
     private int numSegments;
+    private int acknowledged;
     private transient boolean lastSegment;
+    private transient long deadline;
+    private transient String traceName;
 
     public TransferState(int numSegments, byte[] transactionId) {
         this.numSegments = numSegments;
@@ -50,10 +53,7 @@ public class TransferState implements Serializable {
      */
     public int next() {
         segmentNumber++;
-
-        if (segmentNumber == numSegments) {
-            lastSegment = true;
-        }
+        lastSegment = segmentNumber == numSegments;
 
         return segmentNumber;
     }
@@ -62,6 +62,15 @@ public class TransferState implements Serializable {
         return segmentNumber < numSegments;
     }
 
+    /**
+     * Returns the number of the last segment handed out by {@link #next()}.
+     *
+     * @return the current segment number
+     */
+    public int getSegmentNumber() {
+        return segmentNumber;
+    }
+
     /**
      * Sets the segment number
      *
@@ -72,6 +81,25 @@ public class TransferState implements Serializable {
     }
 
 
+    /**
+     * Returns the number of the last segment the bank has acknowledged.
+     * A recovered transfer resumes with the segment following it.
+     *
+     * @return the last acknowledged segment number, 0 if none is acknowledged
+     */
+    public int getAcknowledged() {
+        return acknowledged;
+    }
+
+    /**
+     * Sets the number of the last segment the bank has acknowledged.
+     *
+     * @param acknowledged the last acknowledged segment number
+     */
+    public void setAcknowledged(int acknowledged) {
+        this.acknowledged = acknowledged;
+    }
+
     /**
      * Is the current segment is the last one?
      *
@@ -81,6 +109,44 @@ public class TransferState implements Serializable {
         return lastSegment;
     }
 
+    /**
+     * Returns the time the transfer must be done by. The deadline
+     * only holds for the current run of the transfer, it is not persisted.
+     *
+     * @return the deadline in milliseconds since the epoch, 0 for none
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets the time the transfer must be done by.
+     *
+     * @param deadline the deadline in milliseconds since the epoch, 0 for none
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns the name the traces of the transfer are kept apart under.
+     * Like the deadline, it only holds for the current run of the transfer.
+     *
+     * @return the trace name, null if the transfer traces are not kept apart
+     */
+    public String getTraceName() {
+        return traceName;
+    }
+
+    /**
+     * Sets the name the traces of the transfer are kept apart under.
+     *
+     * @param traceName the trace name
+     */
+    public void setTraceName(String traceName) {
+        this.traceName = traceName;
+    }
+
     /**
      * @return the transactionID
      */
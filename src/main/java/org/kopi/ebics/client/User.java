@@ -21,6 +21,7 @@ package org.kopi.ebics.client;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.security.GeneralSecurityException;
@@ -40,6 +41,8 @@ import org.kopi.ebics.interfaces.EbicsPartner;
 import org.kopi.ebics.interfaces.EbicsUser;
 import org.kopi.ebics.interfaces.PasswordCallback;
 import org.kopi.ebics.interfaces.Savable;
+import org.kopi.ebics.io.SignatureOutputStream;
+import org.kopi.ebics.utils.CryptoEngines;
 import org.kopi.ebics.utils.Utils;
 import org.kopi.ebics.xml.SignedInfo;
 import org.kopi.ebics.xml.UserSignature;
@@ -166,22 +169,12 @@ public class User implements EbicsUser, Savable {
      *
      * @param buf the given byte buffer
      * @return The byte buffer portion corresponding to the given length and offset
+     * @deprecated the order data is signed through a {@link SignatureOutputStream},
+     * which skips these characters while the data is written.
      */
+    @Deprecated
     public static byte[] removeOSSpecificChars(byte[] buf) {
-        ByteArrayOutputStream output;
-
-        output = new ByteArrayOutputStream();
-        for (byte b : buf) {
-            switch (b) {
-                case '\r', '\n', 0x1A: // CTRL-Z / EOF
-                    // ignore this character
-                    break;
-                default:
-                    output.write(b);
-            }
-        }
-
-        return output.toByteArray();
+        return SignatureOutputStream.removeIgnored(buf);
     }
 
     /**
@@ -475,17 +468,12 @@ public class User implements EbicsUser, Savable {
      * <ol>
      *   <li> The key length is defined else where.
      *   <li> The padding is performed by the {@link Signature} class.
-     *   <li> The digest is already canonized in the {@link SignedInfo#sign(byte[]) sign(byte[])}
+     *   <li> The digest is already canonized in the {@link SignedInfo#sign(org.kopi.ebics.xml.DefaultEbicsRootElement, org.kopi.ebics.schema.xmldsig.SignatureType) sign}
      * </ol>
      */
     @Override
     public byte[] authenticate(byte[] digest) throws GeneralSecurityException {
-        Signature signature;
-
-        signature = Signature.getInstance("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME);
-        signature.initSign(x002PrivateKey);
-        signature.update(digest);
-        return signature.sign();
+        return CryptoEngines.sign("SHA256WithRSA", x002PrivateKey, digest);
     }
 
     /**
@@ -535,10 +523,34 @@ public class User implements EbicsUser, Savable {
      */
     @Override
     public byte[] sign(byte[] digest) throws IOException, GeneralSecurityException {
+        try (SignatureOutputStream signature = new SignatureOutputStream(createSignature())) {
+            signature.write(digest);
+            return signature.sign();
+        }
+    }
+
+    /**
+     * Signs the data read from the given stream like {@link #sign(byte[])} does,
+     * dropping the OS specific characters while the data is streamed.
+     */
+    @Override
+    public byte[] sign(InputStream data) throws IOException, GeneralSecurityException {
+        try (SignatureOutputStream signature = new SignatureOutputStream(createSignature())) {
+            data.transferTo(signature);
+            return signature.sign();
+        }
+    }
+
+    /**
+     * The signature engine is not taken from the {@link CryptoEngines} pool
+     * since it lives as long as the signed data is written.
+     */
+    @Override
+    public Signature createSignature() throws GeneralSecurityException {
         Signature signature = Signature.getInstance("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME);
+
         signature.initSign(a005PrivateKey);
-        signature.update(removeOSSpecificChars(digest));
-        return signature.sign();
+        return signature;
     }
 
     /**
@@ -557,19 +569,29 @@ public class User implements EbicsUser, Savable {
     @Override
     public byte[] decrypt(byte[] encryptedData, byte[] transactionKey)
             throws EbicsException, GeneralSecurityException, IOException {
-        Cipher cipher;
-        int blockSize;
-        ByteArrayOutputStream outputStream;
-
-        cipher = Cipher.getInstance("RSA/NONE/PKCS1Padding", BouncyCastleProvider.PROVIDER_NAME);
-        cipher.init(Cipher.DECRYPT_MODE, e002PrivateKey);
-        blockSize = cipher.getBlockSize();
-        outputStream = new ByteArrayOutputStream();
-        for (int j = 0; j * blockSize < transactionKey.length; j++) {
-            outputStream.write(cipher.doFinal(transactionKey, j * blockSize, blockSize));
-        }
+        return decryptData(encryptedData, decryptTransactionKey(transactionKey));
+    }
+
+    @Override
+    public boolean canDecryptTransactionKey() {
+        return true;
+    }
+
+    @Override
+    public byte[] decryptTransactionKey(byte[] transactionKey)
+            throws GeneralSecurityException, IOException {
+        return CryptoEngines.withCipher("RSA/NONE/PKCS1Padding", Cipher.DECRYPT_MODE, e002PrivateKey, null, cipher -> {
+            int blockSize;
+            ByteArrayOutputStream outputStream;
+
+            blockSize = cipher.getBlockSize();
+            outputStream = new ByteArrayOutputStream();
+            for (int j = 0; j * blockSize < transactionKey.length; j++) {
+                outputStream.writeBytes(cipher.doFinal(transactionKey, j * blockSize, blockSize));
+            }
 
-        return decryptData(encryptedData, outputStream.toByteArray());
+            return outputStream.toByteArray();
+        });
     }
 
     /**
@@ -593,6 +615,6 @@ public class User implements EbicsUser, Savable {
      */
     private byte[] decryptData(byte[] input, byte[] key)
             throws EbicsException {
-        return Utils.decrypt(input, new SecretKeySpec(key, "EAS"));
+        return Utils.decrypt(input, new SecretKeySpec(key, "AES"));
     }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.exception;
+
+import java.io.InterruptedIOException;
+
+/**
+ * The deadline of a transfer is over. The HTTP request running when the
+ * deadline passes is aborted, and no request is sent afterwards.
+ *
+ * @author hachani
+ */
+public class DeadlineExceededException extends InterruptedIOException {
+
+    private static final long serialVersionUID = -6120391877562804717L;
+
+    /**
+     * Constructs a new <code>DeadlineExceededException</code>.
+     *
+     * @param message the exception message
+     */
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.exception;
+
+/**
+ * The bank answered a request with an HTTP code other than 200.
+ *
+ * @author hachani
+ */
+public class HttpStatusException extends EbicsException {
+
+    private static final long serialVersionUID = -2408470936262916534L;
+
+    private final int httpCode;
+
+    /**
+     * Constructs a new <code>HttpStatusException</code>.
+     *
+     * @param httpCode the HTTP code
+     * @param message  the exception message
+     */
+    public HttpStatusException(int httpCode, String message) {
+        super(message);
+        this.httpCode = httpCode;
+    }
+
+    /**
+     * Returns the HTTP code the bank answered.
+     *
+     * @return the HTTP code
+     */
+    public int getHttpCode() {
+        return httpCode;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.exception;
+
+/**
+ * The bank asks for the synchronization of a recovered upload
+ * transaction. The exception holds the number of the last segment
+ * the bank has received, the upload resumes with the next one.
+ *
+ * @author hachani
+ */
+public class RecoverySyncException extends EbicsException {
+
+    private static final long serialVersionUID = 3811264506021482371L;
+
+    private final int segmentNumber;
+
+    /**
+     * Constructs a new <code>RecoverySyncException</code>.
+     *
+     * @param segmentNumber the last segment number received by the bank
+     */
+    public RecoverySyncException(int segmentNumber) {
+        this.segmentNumber = segmentNumber;
+    }
+
+    /**
+     * Returns the number of the last segment received by the bank.
+     *
+     * @return the last received segment number, 0 if none is received
+     */
+    public int getSegmentNumber() {
+        return segmentNumber;
+    }
+
+    @Override
+    public ReturnCode getReturnCode() {
+        return ReturnCode.EBICS_TX_RECOVERY_SYNC;
+    }
+
+
+    @Override
+    public String getMessage() {
+        return getReturnCode().getText();
+    }
+}
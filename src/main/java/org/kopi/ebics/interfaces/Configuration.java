@@ -19,7 +19,10 @@
 
 package org.kopi.ebics.interfaces;
 
+import java.io.File;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
 
 
 /**
@@ -70,6 +73,18 @@ public interface Configuration {
      */
     String getTransferTraceDirectory(EbicsUser user);
 
+    /**
+     * Returns the directory where the segments of the recoverable
+     * transfers are journaled until the transfers are complete.
+     *
+     * @param user the ebics user
+     * @return the transfer journal directory, <code>journal</code> in the
+     * user directory by default
+     */
+    default String getJournalDirectory(EbicsUser user) {
+        return getUserDirectory(user) + File.separator + "journal";
+    }
+
     /**
      * Returns the object serialization directory.
      *
@@ -126,6 +141,39 @@ public interface Configuration {
      */
     LetterManager getLetterManager();
 
+    /**
+     * Returns the shared HTTP clients. A configuration holding them closes
+     * them when the application quits.
+     *
+     * @return the HTTP client pool, null by default: every request is then
+     *         sent by a client of its own, closed with the request.
+     */
+    default HttpClientProvider getHttpClientPool() {
+        return null;
+    }
+
+    /**
+     * Returns the retry policy of the HTTP requests. By default, the
+     * requests are sent once.
+     *
+     * @return the HTTP retry policy.
+     */
+    default RetryPolicy getHttpRetryPolicy() {
+        return (bank, retryable, deadline, request) -> request.send();
+    }
+
+    /**
+     * Returns the symmetric cipher encrypting and decrypting the order data.
+     * The default configuration reads the <code>cipher.provider</code> property,
+     * <code>bc</code> for BouncyCastle, the default, or <code>jce</code> for the
+     * faster JDK provider.
+     *
+     * @return the symmetric cipher, null by default for the BouncyCastle one.
+     */
+    default SymmetricCipher getSymmetricCipher() {
+        return null;
+    }
+
     /**
      * Returns the initializations letters directory.
      *
@@ -193,6 +241,199 @@ public interface Configuration {
      */
     boolean isCompressionEnabled();
 
+    /**
+     * Returns the deflate level of the compressed order data,
+     * from 0 to 9.
+     *
+     * @return the compression level, 9 by default
+     */
+    default int getCompressionLevel() {
+        return Deflater.BEST_COMPRESSION;
+    }
+
+    /**
+     * Returns the number of threads compressing the order data of an
+     * upload. With more than one thread, the order data is compressed
+     * by blocks in parallel.
+     *
+     * @return the compression threads, 1 by default
+     */
+    default int getCompressionThreads() {
+        return 1;
+    }
+
+    /**
+     * Returns the workers compressing the order data by blocks when there
+     * is more than one compression thread. A configuration holding them
+     * shuts them down when the application quits.
+     *
+     * @return the compression workers, null by default: the blocks are
+     *         then compressed on the common <code>ForkJoinPool</code>.
+     */
+    default ExecutorService getCompressionPool() {
+        return null;
+    }
+
+    /**
+     * Tells if the compression level of an upload is chosen from a sample
+     * of its order data and the bandwidth measured for the bank, rather than
+     * fixed to {@link #getCompressionLevel()}.
+     *
+     * @return true if the compression level is adaptive, false by default
+     */
+    default boolean isCompressionAdaptive() {
+        return false;
+    }
+
+    /**
+     * Returns the number of segments of a download transaction that
+     * may be fetched at the same time from the given bank. A window
+     * of one fetches the segments one after another.
+     *
+     * @param bank the ebics bank
+     * @return the download window size, 1 by default
+     */
+    default int getDownloadWindow(EbicsBank bank) {
+        return 1;
+    }
+
+    /**
+     * Tells if the downloads from the given bank journal their segments,
+     * so that an interrupted download is resumed instead of started over.
+     *
+     * @param bank the ebics bank
+     * @return true if the downloads are recoverable, false by default
+     */
+    default boolean isDownloadRecoveryEnabled(EbicsBank bank) {
+        return false;
+    }
+
+    /**
+     * Tells if the uploads to the given bank journal their transaction and
+     * their encrypted segments, so that an upload interrupted by a crash is
+     * resumed by the next upload of the same content. The same content must
+     * not be uploaded twice at the same time with the same order type.
+     *
+     * @param bank the ebics bank
+     * @return true if the uploads are recoverable, false by default
+     */
+    default boolean isUploadRecoveryEnabled(EbicsBank bank) {
+        return false;
+    }
+
+    /**
+     * Returns the maximum size of an upload segment request sent to the
+     * given bank, envelope included. The EBICS specification allows 1 MB,
+     * a bank announcing a lower limit may be given its own.
+     *
+     * @param bank the ebics bank
+     * @return the maximum segment request size in bytes, 1 MB by default
+     */
+    default int getSegmentSize(EbicsBank bank) {
+        return 1024 * 1024;
+    }
+
+    /**
+     * Returns the number of upload segment requests that may be built
+     * in advance while the current segment is sent to the given bank.
+     * Zero builds every segment request just before it is sent.
+     *
+     * @param bank the ebics bank
+     * @return the upload look-ahead, 0 by default
+     */
+    default int getUploadLookAhead(EbicsBank bank) {
+        return 0;
+    }
+
+    /**
+     * Returns how many times an upload to the given bank recovers from a
+     * failed segment before it gives up. The recovery resends the failed
+     * segment in the same transaction, or resumes at the segment the bank
+     * asks for. Zero disables the recovery. When the recovery is enabled,
+     * the segment requests are not retried by the HTTP retry policy, so
+     * the retries of a segment do not multiply.
+     *
+     * @param bank the ebics bank
+     * @return the number of upload recoveries, 0 by default
+     */
+    default int getUploadRetries(EbicsBank bank) {
+        return 0;
+    }
+
+    /**
+     * Returns the time to wait before the first recovery of an upload to
+     * the given bank. The wait doubles with every following recovery.
+     *
+     * @param bank the ebics bank
+     * @return the first recovery delay in milliseconds, 1 second by default
+     */
+    default long getUploadRetryDelay(EbicsBank bank) {
+        return 1000;
+    }
+
+    /**
+     * Returns the time allowed to open a connection to the given bank.
+     *
+     * @param bank the ebics bank
+     * @return the connect timeout in milliseconds, 300 seconds by default
+     */
+    default int getConnectTimeout(EbicsBank bank) {
+        return 300_000;
+    }
+
+    /**
+     * Returns the time the given bank may take to answer a transaction
+     * initialization or a key management request.
+     *
+     * @param bank the ebics bank
+     * @return the initialization timeout in milliseconds, 300 seconds by default
+     */
+    default int getInitializationTimeout(EbicsBank bank) {
+        return 300_000;
+    }
+
+    /**
+     * Returns the time the given bank may take to answer a transfer segment.
+     *
+     * @param bank the ebics bank
+     * @return the segment timeout in milliseconds, 300 seconds by default
+     */
+    default int getSegmentTimeout(EbicsBank bank) {
+        return 300_000;
+    }
+
+    /**
+     * Returns the time the given bank may take to answer a receipt.
+     *
+     * @param bank the ebics bank
+     * @return the receipt timeout in milliseconds, 300 seconds by default
+     */
+    default int getReceiptTimeout(EbicsBank bank) {
+        return 300_000;
+    }
+
+    /**
+     * Returns the time a whole upload or download with the given bank may
+     * take. The HTTP request running when it is over is aborted.
+     *
+     * @param bank the ebics bank
+     * @return the transfer deadline in milliseconds, 0 for no deadline by default
+     */
+    default long getTransferDeadline(EbicsBank bank) {
+        return 0;
+    }
+
+    /**
+     * Returns the number of transfers that may run at the same time
+     * against the given bank.
+     *
+     * @param bank the ebics bank
+     * @return the transfer concurrency limit, 4 by default
+     */
+    default int getTransferConcurrency(EbicsBank bank) {
+        return 4;
+    }
+
     /**
      * Returns the default revision of sent XML.
      *
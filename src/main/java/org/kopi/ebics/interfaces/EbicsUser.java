@@ -20,8 +20,10 @@
 package org.kopi.ebics.interfaces;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
+import java.security.Signature;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPublicKey;
 
@@ -183,6 +185,31 @@ public interface EbicsUser {
      */
     byte[] sign(byte[] digest) throws IOException, GeneralSecurityException;
 
+    /**
+     * Signs the data read from the given stream with the private A005 key.
+     * The default implementation reads the whole data and signs it with
+     * {@link #sign(byte[])}.
+     *
+     * @param data the data to sign, not closed
+     * @return the signature
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    default byte[] sign(InputStream data) throws IOException, GeneralSecurityException {
+        return sign(data.readAllBytes());
+    }
+
+    /**
+     * Returns a signature engine initialized with the private A005 key, so that
+     * the order data can be signed while it is compressed and encrypted. Like
+     * {@link #sign(byte[])}, the engine must not be given the carriage returns,
+     * line feeds and CTRL-Z characters of the order data.
+     *
+     * @return the signature engine
+     * @throws GeneralSecurityException
+     */
+    Signature createSignature() throws GeneralSecurityException;
+
     /**
      * Uses the E001 key to decrypt the given secret key.
      *
@@ -195,4 +222,30 @@ public interface EbicsUser {
      */
     byte[] decrypt(byte[] encryptedKey, byte[] transactionKey)
             throws GeneralSecurityException, IOException, EbicsException;
+
+    /**
+     * Tells if the user can decrypt a transaction key alone with
+     * {@link #decryptTransactionKey(byte[])}, so that the order data can be
+     * decrypted while it is downloaded. Otherwise the order data is decrypted
+     * as a whole by {@link #decrypt(byte[], byte[])}. False by default.
+     *
+     * @return true if the transaction key can be decrypted alone
+     */
+    default boolean canDecryptTransactionKey() {
+        return false;
+    }
+
+    /**
+     * Uses the E001 key to decrypt the given transaction key. It is only
+     * called when {@link #canDecryptTransactionKey()} is true.
+     *
+     * @param transactionKey the encrypted transaction key
+     * @return the plain symmetric key of the transaction
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    default byte[] decryptTransactionKey(byte[] transactionKey)
+            throws GeneralSecurityException, IOException {
+        throw new UnsupportedOperationException("The transaction key cannot be decrypted alone");
+    }
 }
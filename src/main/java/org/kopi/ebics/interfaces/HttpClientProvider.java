@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.interfaces;
+
+import java.io.Closeable;
+import java.net.URL;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+/**
+ * The HTTP clients sending the requests to the banks. They are
+ * shared by the requests and closed when the application quits.
+ *
+ * @author hachani
+ */
+public interface HttpClientProvider extends Closeable {
+
+    /**
+     * Returns the client of the given bank URL.
+     *
+     * @param url the bank URL
+     * @return the HTTP client
+     */
+    CloseableHttpClient getClient(URL url);
+
+    /**
+     * Returns the default request configuration of the client of the given
+     * bank URL. A request setting its own timeouts must start from it.
+     *
+     * @param url the bank URL
+     * @return the default request configuration
+     */
+    RequestConfig getRequestConfig(URL url);
+}
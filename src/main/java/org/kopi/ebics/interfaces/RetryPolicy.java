@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.interfaces;
+
+import java.io.IOException;
+
+/**
+ * The retries of the HTTP requests sent to the banks.
+ *
+ * @author hachani
+ */
+public interface RetryPolicy {
+
+    /**
+     * Sends a request to the given bank, retrying it if it is retryable
+     * and the wait before the retry ends before the given deadline.
+     *
+     * @param bank      the ebics bank
+     * @param retryable whether the request may safely be sent again
+     * @param deadline  the deadline in milliseconds since the epoch, 0 for no deadline
+     * @param request   the request
+     * @return the HTTP code of the last attempt
+     * @throws IOException the last attempt failed, or the bank is unavailable
+     */
+    int send(EbicsBank bank, boolean retryable, long deadline, Request request) throws IOException;
+
+    /**
+     * A request sent to a bank.
+     */
+    @FunctionalInterface
+    interface Request {
+
+        /**
+         * Sends the request.
+         *
+         * @return the HTTP code
+         * @throws IOException communication error
+         */
+        int send() throws IOException;
+    }
+}
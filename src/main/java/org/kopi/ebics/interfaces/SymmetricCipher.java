@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.interfaces;
+
+import java.io.OutputStream;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.kopi.ebics.exception.EbicsException;
+
+/**
+ * The symmetric encryption of the order data and of the signatures:
+ * AES in CBC mode with a zero initialization vector and ISO 10126 padding,
+ * as required by the E002 encryption version.
+ *
+ * <p>The implementations only differ in the security provider doing the
+ * work, their outputs are interchangeable. The one used by the transfers
+ * is chosen by the client configuration.
+ *
+ * @author hachani
+ * @see org.kopi.ebics.interfaces.Configuration#getSymmetricCipher() getSymmetricCipher()
+ */
+public interface SymmetricCipher {
+
+    /**
+     * Encrypts the given input.
+     *
+     * @param input   the input to encrypt
+     * @param keySpec the transaction key
+     * @return the encrypted input
+     * @throws EbicsException the encryption fails
+     */
+    byte[] encrypt(byte[] input, SecretKeySpec keySpec) throws EbicsException;
+
+    /**
+     * Returns a stream that encrypts everything written to it into the
+     * given output. Closing the stream writes the final padded block and
+     * closes the output.
+     *
+     * @param output  the output receiving the encrypted data
+     * @param keySpec the transaction key
+     * @return the encrypting stream
+     * @throws EbicsException the cipher cannot be initialized
+     */
+    OutputStream encrypt(OutputStream output, SecretKeySpec keySpec) throws EbicsException;
+
+    /**
+     * Decrypts the given input.
+     *
+     * @param input   the input to decrypt
+     * @param keySpec the transaction key
+     * @return the decrypted input
+     * @throws EbicsException the decryption fails or the padding is wrong
+     */
+    byte[] decrypt(byte[] input, SecretKeySpec keySpec) throws EbicsException;
+
+    /**
+     * Returns a stream that decrypts everything written to it into the
+     * given output. Closing the stream removes the padding of the last
+     * block and closes the output.
+     *
+     * @param output  the output receiving the decrypted data
+     * @param keySpec the transaction key
+     * @return the decrypting stream
+     * @throws EbicsException the cipher cannot be initialized
+     */
+    OutputStream decrypt(OutputStream output, SecretKeySpec keySpec) throws EbicsException;
+}
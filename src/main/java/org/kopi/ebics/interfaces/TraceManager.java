@@ -43,10 +43,72 @@ public interface TraceManager {
      */
     void trace(EbicsRootElement element) throws EbicsException;
 
+    /**
+     * Saves the <code>EbicsRootElement</code> in the given traces
+     * directory. This lets concurrent sessions keep their traces
+     * apart without changing the shared trace directory.
+     *
+     * <p>The default implementation traces the element like
+     * {@link #trace(EbicsRootElement)} without traces directory. Otherwise it
+     * sets the traces directory with {@link #setTraceDirectory(String)} before,
+     * as the client did before the sessions had their own directory, the
+     * directory of the manager being then left to the given one. The manager
+     * is locked meanwhile, so that the sessions do not trace to each other's
+     * directory.
+     *
+     * @param element  the element to trace
+     * @param traceDir the trace directory, null for the default one
+     * @throws EbicsException cannot trace the ebics element
+     */
+    default void trace(EbicsRootElement element, String traceDir) throws EbicsException {
+        if (traceDir == null) {
+            trace(element);
+            return;
+        }
+
+        synchronized (this) {
+            setTraceDirectory(traceDir);
+            trace(element);
+        }
+    }
+
+    /**
+     * Saves the <code>EbicsRootElement</code> of a transaction in the given
+     * traces directory. The transaction is named by the caller when it starts,
+     * before the bank gives it an ID, and its traces may be kept apart from
+     * the ones of the other transactions until {@link #endTransaction} is called.
+     *
+     * <p>The default implementation traces the element like
+     * {@link #trace(EbicsRootElement, String)}.
+     *
+     * @param element     the element to trace
+     * @param traceDir    the trace directory, null for the default one
+     * @param transaction the name of the transaction
+     * @throws EbicsException cannot trace the ebics element
+     */
+    default void trace(EbicsRootElement element, String traceDir, String transaction) throws EbicsException {
+        trace(element, traceDir);
+    }
+
+    /**
+     * Tells that a transaction traced with
+     * {@link #trace(EbicsRootElement, String, String)} has ended,
+     * so that its traces may be completed. It does nothing by default.
+     *
+     * @param traceDir    the trace directory, null for the default one
+     * @param transaction the name of the transaction
+     */
+    default void endTransaction(String traceDir, String transaction) {
+    }
+
     /**
      * Removes an <code>EbicsRootElement</code> from trace
      * directory.
      *
+     * <p>A trace manager writing the traces to an append-only log may only
+     * drop the traces of the element that are not written yet: the ones
+     * already written then stay in the log.
+     *
      * @param element the element to ve removed.
      */
     void remove(EbicsRootElement element);
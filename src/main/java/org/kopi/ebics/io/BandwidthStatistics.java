@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+package org.kopi.ebics.io;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.kopi.ebics.interfaces.EbicsBank;
+
+
+/**
+ * The upload bandwidth measured for each bank by the earlier transfers,
+ * read by the {@link CompressionPolicy} of the next uploads.
+ *
+ * <p>Every sent upload segment request is recorded with its size and the
+ * time from sending it to receiving the bank response. The measure is thus
+ * the throughput of whole segment requests, not of the link alone: it
+ * includes the bank latency and the time the bank takes to process the
+ * segment, and underestimates the link bandwidth on slow responding banks.
+ * The bandwidth of a bank is an exponentially weighted moving average of
+ * these measures, so that it follows the changes of the link without
+ * jumping on a single slow request.
+ *
+ * @author hachani
+ */
+public final class BandwidthStatistics {
+
+    /**
+     * The weight of the latest measure in the average.
+     */
+    private static final double WEIGHT = 0.25;
+
+    private static final Map<String, Double> bandwidths = new ConcurrentHashMap<>();
+
+    private BandwidthStatistics() {
+    }
+
+    /**
+     * Records a segment request sent to the given bank.
+     *
+     * @param bank  the ebics bank
+     * @param bytes the request size
+     * @param nanos the time from sending the request to receiving the response
+     */
+    public static void record(EbicsBank bank, long bytes, long nanos) {
+        double measure;
+
+        if (nanos <= 0) {
+            return;
+        }
+
+        measure = bytes * 1e9 / nanos;
+        bandwidths.merge(bank.getHostId(), measure, (average, latest) -> average + WEIGHT * (latest - average));
+    }
+
+    /**
+     * Returns the bandwidth measured for the given bank.
+     *
+     * @param bank the ebics bank
+     * @return the bandwidth in bytes per second, 0 if no transfer was measured
+     */
+    public static double getBandwidth(EbicsBank bank) {
+        return bandwidths.getOrDefault(bank.getHostId(), 0.0);
+    }
+}
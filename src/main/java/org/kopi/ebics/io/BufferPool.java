@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Pooled byte arrays and zlib codecs for the transfer pipelines.
+ *
+ * <p>Every segment of a transfer goes through stream buffers, compression
+ * blocks and a native <code>Deflater</code> or <code>Inflater</code>. Allocating
+ * them for each segment makes the garbage collector, and the finalization of
+ * the native codecs, a noticeable part of a large transfer. They are therefore
+ * borrowed from this pool and released when the pipeline is done with them.
+ *
+ * <p>The arrays are pooled by size classes, the powers of two from 4KB to 2MB,
+ * which cover the stream buffers, the compression blocks and the 1MB segments.
+ * An array is rounded up to its size class when it is acquired, so it may be
+ * longer than asked for. Each class keeps a bounded number of idle arrays, at
+ * most 8MB of them by default, and an array released to a full class is left to
+ * the garbage collector. Larger arrays are not pooled. The idle arrays are held
+ * in array backed queues, so that releasing one does not allocate either. The
+ * pool thus holds up to 80MB once a few large transfers are done; an application
+ * that cannot spare it lowers the cap with {@link #setMaxClassBytes(int)}.
+ *
+ * <p>An array or a codec must not be used any more once released, and must be
+ * released at most once. One that is never released, on a failure for instance,
+ * is simply garbage collected. A codec whose operation failed is ended rather
+ * than released, since its state is then unknown. The pool does not track the
+ * arrays it hands out: it takes any array whose length is a size class, so the
+ * caller releasing an array must not keep any other reference to it.
+ *
+ * @author hachani
+ */
+public final class BufferPool {
+
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 21;
+    private static final int MAX_CLASS_ARRAYS = 64;
+
+    /**
+     * The default maximum length of the idle arrays kept in one size class.
+     */
+    public static final int DEFAULT_MAX_CLASS_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * The maximum idle codecs kept for one kind and level.
+     */
+    private static final int MAX_CODECS = 32;
+
+    private static volatile List<BlockingQueue<byte[]>> buffers = createClasses(DEFAULT_MAX_CLASS_BYTES);
+    private static final Map<Integer, BlockingQueue<Deflater>> deflaters = new ConcurrentHashMap<>();
+    private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(MAX_CODECS);
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Sets the maximum length of the idle arrays kept in one size class,
+     * {@link #DEFAULT_MAX_CLASS_BYTES} by default. The arrays already idle
+     * are left to the garbage collector, and zero disables the array pooling.
+     *
+     * @param maxClassBytes the maximum idle bytes per size class
+     */
+    public static void setMaxClassBytes(int maxClassBytes) {
+        if (maxClassBytes < 0) {
+            throw new IllegalArgumentException("Negative pool size: " + maxClassBytes);
+        }
+
+        buffers = createClasses(maxClassBytes);
+    }
+
+    /**
+     * Acquires an array of at least the given length.
+     *
+     * @param length the minimum length
+     * @return a pooled or a new array, its content is undefined
+     */
+    public static byte[] acquire(int length) {
+        int shift = sizeClass(length);
+        byte[] buffer;
+
+        if (shift > MAX_SHIFT) {
+            misses.increment();
+            return new byte[length];
+        }
+
+        buffer = buffers.get(shift - MIN_SHIFT).poll();
+        if (buffer == null) {
+            misses.increment();
+            return new byte[1 << shift];
+        }
+
+        hits.increment();
+        return buffer;
+    }
+
+    /**
+     * Releases an array to the pool. Arrays whose length is not
+     * a size class are ignored.
+     *
+     * <p>The array need not come from {@link #acquire(int)}, but it is handed
+     * out again to the next caller of its size class: the caller must not use
+     * it any more, nor release it twice.
+     *
+     * @param buffer the array, may be null
+     */
+    public static void release(byte[] buffer) {
+        int shift;
+
+        if (buffer == null || Integer.bitCount(buffer.length) != 1) {
+            return;
+        }
+
+        shift = Integer.numberOfTrailingZeros(buffer.length);
+        if (shift < MIN_SHIFT || shift > MAX_SHIFT) {
+            return;
+        }
+        if (!buffers.get(shift - MIN_SHIFT).offer(buffer)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Acquires a compressor of the given level.
+     *
+     * <p>The compressors are pooled per level rather than set to the level
+     * when acquired: a compressor whose level is changed spends its next
+     * <code>deflate</code> call applying the level, without any output,
+     * which ends the loops flushing until the output buffer is not full.
+     *
+     * @param level  the compression level, from 0 to 9
+     * @param nowrap whether the compressor writes raw deflate data instead of a zlib stream
+     * @return a pooled or a new compressor
+     */
+    public static Deflater acquireDeflater(int level, boolean nowrap) {
+        Deflater compressor = deflaters(level, nowrap).poll();
+
+        if (compressor == null) {
+            misses.increment();
+            return new Deflater(level, nowrap);
+        }
+
+        hits.increment();
+        return compressor;
+    }
+
+    /**
+     * Resets a compressor and releases it to the pool,
+     * or ends it if the pool is full.
+     *
+     * @param compressor the compressor
+     * @param level      the level the compressor was acquired with
+     * @param nowrap     whether the compressor was acquired for raw deflate data
+     */
+    public static void release(Deflater compressor, int level, boolean nowrap) {
+        compressor.reset();
+        if (!deflaters(level, nowrap).offer(compressor)) {
+            dropped.increment();
+            compressor.end();
+        }
+    }
+
+    /**
+     * Acquires a decompressor of zlib streams.
+     *
+     * @return a pooled or a new decompressor
+     */
+    public static Inflater acquireInflater() {
+        Inflater decompressor = inflaters.poll();
+
+        if (decompressor == null) {
+            misses.increment();
+            return new Inflater();
+        }
+
+        hits.increment();
+        return decompressor;
+    }
+
+    /**
+     * Resets a decompressor and releases it to the pool,
+     * or ends it if the pool is full.
+     *
+     * @param decompressor the decompressor
+     */
+    public static void release(Inflater decompressor) {
+        decompressor.reset();
+        if (!inflaters.offer(decompressor)) {
+            dropped.increment();
+            decompressor.end();
+        }
+    }
+
+    /**
+     * Returns the number of arrays and codecs taken from the pool.
+     *
+     * @return the pool hits
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of arrays and codecs that had to be
+     * created because the pool had none to offer.
+     *
+     * @return the pool misses
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of released arrays and codecs
+     * discarded because the pool was full.
+     *
+     * @return the dropped arrays and codecs
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the total length of the idle arrays held by the pool.
+     *
+     * @return the pooled bytes
+     */
+    public static long getPooledBytes() {
+        List<BlockingQueue<byte[]>> classes = buffers;
+        long total = 0;
+
+        for (int i = 0; i < classes.size(); i++) {
+            total += (long) classes.get(i).size() << (i + MIN_SHIFT);
+        }
+
+        return total;
+    }
+
+    private static BlockingQueue<Deflater> deflaters(int level, boolean nowrap) {
+        return deflaters.computeIfAbsent(level << 1 | (nowrap ? 1 : 0), key -> new ArrayBlockingQueue<>(MAX_CODECS));
+    }
+
+    /**
+     * Returns the size class of the given length, as a power of two.
+     */
+    private static int sizeClass(int length) {
+        if (length <= 1 << MIN_SHIFT) {
+            return MIN_SHIFT;
+        }
+
+        return 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+
+    private static List<BlockingQueue<byte[]>> createClasses(int maxClassBytes) {
+        List<BlockingQueue<byte[]>> classes = new ArrayList<>(MAX_SHIFT - MIN_SHIFT + 1);
+
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+            int capacity = Math.min(MAX_CLASS_ARRAYS, maxClassBytes >> shift);
+
+            classes.add(capacity > 0 ? new ArrayBlockingQueue<>(capacity) : new SynchronousQueue<>());
+        }
+
+        return List.copyOf(classes);
+    }
+}
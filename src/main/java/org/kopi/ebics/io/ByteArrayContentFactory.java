@@ -38,6 +38,8 @@ public class ByteArrayContentFactory implements ContentFactory {
     private static final long serialVersionUID = 4708928447888655116L;
 
     private final byte[] content;
+    private final int offset;
+    private final int length;
 
 
     /**
@@ -47,11 +49,25 @@ public class ByteArrayContentFactory implements ContentFactory {
      * @param content the byte array content
      */
     public ByteArrayContentFactory(byte[] content) {
+        this(content, 0, content.length);
+    }
+
+    /**
+     * Constructs a new <code>ByteArrayContentFactory</code> delivering
+     * a portion of the given byte array without copying it.
+     *
+     * @param content the byte array content
+     * @param offset  the offset of the portion
+     * @param length  the length of the portion
+     */
+    public ByteArrayContentFactory(byte[] content, int offset, int length) {
         this.content = content;
+        this.offset = offset;
+        this.length = length;
     }
 
     @Override
     public InputStream getContent() throws IOException {
-        return new ByteArrayInputStream(content);
+        return new ByteArrayInputStream(content, offset, length);
     }
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+package org.kopi.ebics.io;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Chooses the compression level of an upload from a sample of its order data.
+ *
+ * <p>The sample is compressed with a few levels, measuring the ratio and the
+ * throughput of each one. The estimated transfer time of a level is the time
+ * spent compressing the data plus the time spent sending the compressed and
+ * base64 coded data at the bandwidth measured for the bank by the earlier
+ * transfers. The level with the smallest estimate is chosen: dense data and
+ * fast links favour the fast levels, slow links the best compression.
+ *
+ * <p>Without a bandwidth measure, or for order data smaller than the sample,
+ * the default level is kept. The decisions are logged and counted per level.
+ *
+ * @author hachani
+ */
+public class CompressionPolicy {
+
+    /**
+     * The size of the sampled order data, two blocks of the parallel compression.
+     */
+    public static final int SAMPLE_SIZE = 256 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressionPolicy.class);
+
+    private static final int[] LEVELS = {1, 6, Deflater.BEST_COMPRESSION};
+    private static final double BASE64_EXPANSION = 4.0 / 3;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Map<Integer, LongAdder> decisions = new ConcurrentHashMap<>();
+    private static final LongAdder samplingTime = new LongAdder();
+
+    private final String bankId;
+    private final double bandwidth;
+    private final int defaultLevel;
+    private final int threads;
+
+    /**
+     * Constructs a new <code>CompressionPolicy</code>.
+     *
+     * @param bankId       the bank host ID, for the logs
+     * @param bandwidth    the bandwidth of the bank in bytes per second, 0 if unknown
+     * @param defaultLevel the level kept when no choice can be made
+     * @param threads      the number of threads compressing the order data
+     */
+    public CompressionPolicy(String bankId, double bandwidth, int defaultLevel, int threads) {
+        this.bankId = bankId;
+        this.bandwidth = bandwidth;
+        this.defaultLevel = defaultLevel;
+        this.threads = Math.max(1, Math.min(threads, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the compression level minimizing the estimated transfer
+     * time of order data starting with the given sample.
+     *
+     * @param sample the first bytes of the order data, shorter than
+     *               {@link #SAMPLE_SIZE} only if the order data is
+     * @return the compression level
+     */
+    public int chooseLevel(byte[] sample) {
+        Measure[] measures;
+        long start;
+
+        if (bandwidth <= 0 || sample.length < SAMPLE_SIZE) {
+            return decided(defaultLevel);
+        }
+
+        start = System.nanoTime();
+        measures = new Measure[LEVELS.length];
+        for (int i = 0; i < LEVELS.length; i++) {
+            long begin = System.nanoTime();
+            int size = compressedSize(sample, LEVELS[i]);
+
+            measures[i] = new Measure(LEVELS[i], size, System.nanoTime() - begin);
+        }
+        samplingTime.add(System.nanoTime() - start);
+
+        return decided(chooseLevel(sample.length, measures));
+    }
+
+    /**
+     * Returns the level of the measure with the smallest estimated
+     * transfer time.
+     *
+     * @param sampleSize the size of the compressed sample
+     * @param measures   the compression of the sample with each level
+     * @return the compression level
+     */
+    int chooseLevel(int sampleSize, Measure... measures) {
+        StringBuilder estimates;
+        double best;
+        int level;
+
+        estimates = new StringBuilder();
+        best = Double.MAX_VALUE;
+        level = defaultLevel;
+        for (Measure measure : measures) {
+            double ratio = (double) measure.compressedSize() / sampleSize;
+            double compression = measure.time() / 1e9 / threads;
+            double estimate = compression + sampleSize * ratio * BASE64_EXPANSION / bandwidth;
+
+            estimates.append(String.format(" level %d: ratio %.3f, %.1f ms/MB;",
+                    measure.level(), ratio, estimate * 1000 * (1 << 20) / sampleSize));
+            if (estimate < best) {
+                best = estimate;
+                level = measure.level();
+            }
+        }
+        logger.info("Compression level {} chosen for bank {} at {} KB/s:{}",
+                level, bankId, Math.round(bandwidth / 1024), estimates);
+
+        return level;
+    }
+
+    /**
+     * Returns the number of uploads compressed with the given level.
+     *
+     * @param level the compression level
+     * @return the decisions for the level
+     */
+    public static long getDecisions(int level) {
+        LongAdder count = decisions.get(level);
+
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * Returns the total time spent compressing the samples.
+     *
+     * @return the sampling time in nanoseconds
+     */
+    public static long getSamplingTime() {
+        return samplingTime.sum();
+    }
+
+    private static int decided(int level) {
+        decisions.computeIfAbsent(level, l -> new LongAdder()).increment();
+        return level;
+    }
+
+    private static int compressedSize(byte[] sample, int level) {
+        Deflater compressor = BufferPool.acquireDeflater(level, true);
+        byte[] buffer = BufferPool.acquire(BUFFER_SIZE);
+        int size = 0;
+
+        try {
+            compressor.setInput(sample);
+            compressor.finish();
+            while (!compressor.finished()) {
+                size += compressor.deflate(buffer);
+            }
+        } catch (RuntimeException e) {
+            compressor.end();
+            throw e;
+        }
+        BufferPool.release(compressor, level, true);
+        BufferPool.release(buffer);
+
+        return size;
+    }
+
+    /**
+     * The compression of the sample with a level.
+     *
+     * @param level          the compression level
+     * @param compressedSize the compressed sample size
+     * @param time           the compression time in nanoseconds
+     */
+    record Measure(int level, int compressedSize, long time) {
+    }
+}
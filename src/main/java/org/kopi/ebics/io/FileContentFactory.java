@@ -19,17 +19,22 @@
 
 package org.kopi.ebics.io;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import org.kopi.ebics.interfaces.ContentFactory;
 
 
 /**
  * File content factory that delivers the file content
- * as a <code>FileInputStream</code>. This object is
+ * as a stream read from the file channel. This object is
  * serializable in a way to recover interrupted file transfers.
  *
  * @author hachani
@@ -39,6 +44,8 @@ public class FileContentFactory implements ContentFactory {
     private static final long serialVersionUID = -7041705645994170039L;
 
     private final File input;
+    private final long offset;
+    private final int length;
 
 
     /**
@@ -48,11 +55,104 @@ public class FileContentFactory implements ContentFactory {
      * @param input the input file
      */
     public FileContentFactory(File input) {
+        this(input, 0, -1);
+    }
+
+    /**
+     * Constructs a new <code>FileContentFactory</code> delivering
+     * a portion of the given input file.
+     *
+     * @param input  the input file
+     * @param offset the offset of the portion in the file
+     * @param length the length of the portion
+     */
+    public FileContentFactory(File input, long offset, int length) {
         this.input = input;
+        this.offset = offset;
+        this.length = length;
     }
 
+    /**
+     * Constructs a new <code>FileContentFactory</code> with
+     * a given input path
+     *
+     * @param input the input path
+     */
+    public FileContentFactory(Path input) {
+        this(input.toFile());
+    }
+
+    /**
+     * Returns the file content or the portion of it. The content is
+     * read from a <code>FileChannel</code> as it is consumed, a portion
+     * is therefore never copied as a whole in memory.
+     */
     @Override
     public InputStream getContent() throws IOException {
-        return new FileInputStream(input);
+        FileChannel channel;
+
+        if (length < 0) {
+            return Files.newInputStream(input.toPath());
+        }
+
+        channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+        return new PortionInputStream(channel, offset, offset + length);
+    }
+
+    /**
+     * A stream reading a portion of a file channel with positional reads.
+     */
+    private static final class PortionInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        PortionInputStream(FileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read;
+
+            if (position >= end) {
+                return -1;
+            }
+
+            read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of " + channel);
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
     }
 }
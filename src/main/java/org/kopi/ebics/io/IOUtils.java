@@ -19,11 +19,12 @@
 
 package org.kopi.ebics.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.ContentFactory;
@@ -37,6 +38,8 @@ import org.kopi.ebics.interfaces.ContentFactory;
  */
 public class IOUtils {
 
+    private static final int BUFFER_SIZE = 8192;
+
     private IOUtils() {
         throw new IllegalStateException("Utility class");
     }
@@ -130,9 +133,7 @@ public class IOUtils {
      */
     public static byte[] getFileContent(File file) throws EbicsException {
         try {
-            try (FileInputStream input = new FileInputStream(file)) {
-                return inputStreamToBytes(input);
-            }
+            return Files.readAllBytes(file.toPath());
         } catch (IOException e) {
             throw new EbicsException(e.getMessage(), e);
         }
@@ -147,20 +148,58 @@ public class IOUtils {
      */
     public static byte[] getFactoryContent(ContentFactory content) throws EbicsException {
         try (InputStream in = content.getContent()) {
-            return inputStreamToBytes(in);
+            return in.readAllBytes();
         } catch (IOException e) {
             throw new EbicsException(e.getMessage(), e);
         }
     }
 
-    private static byte[] inputStreamToBytes(InputStream in) throws IOException {
+    /**
+     * Copies the given input to the given output through a pooled buffer.
+     * Neither stream is closed.
+     *
+     * @param input  the input stream
+     * @param output the output stream
+     * @return the number of bytes copied
+     * @throws IOException the input cannot be read or the output written
+     */
+    public static long copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = BufferPool.acquire(BUFFER_SIZE);
+        long count = 0;
         int len;
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        while ((len = in.read(buffer)) != -1) {
-            out.write(buffer, 0, len);
+
+        try {
+            while ((len = input.read(buffer)) != -1) {
+                output.write(buffer, 0, len);
+                count += len;
+            }
+        } finally {
+            BufferPool.release(buffer);
         }
-        out.close();
-        return out.toByteArray();
+
+        return count;
+    }
+
+    /**
+     * Returns a stream writing to the given output that flushes the output
+     * instead of closing it. The encoders that must be closed to complete
+     * their output may then write to a stream that is still in use.
+     *
+     * @param output the output stream
+     * @return the non closing output stream
+     */
+    public static OutputStream nonClosing(OutputStream output) {
+        return new FilterOutputStream(output) {
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
     }
 }
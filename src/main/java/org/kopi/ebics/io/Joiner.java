@@ -20,12 +20,17 @@
 package org.kopi.ebics.io;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 
+import javax.crypto.spec.SecretKeySpec;
+
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.interfaces.SymmetricCipher;
+import org.kopi.ebics.utils.BouncyCastleCipher;
 import org.kopi.ebics.utils.Utils;
 
 
@@ -33,12 +38,23 @@ import org.kopi.ebics.utils.Utils;
  * A simple mean to join downloaded segments from the
  * bank ebics server.
  *
+ * <p>A joiner either buffers the segments in memory until
+ * {@link #writeTo(OutputStream, byte[])} is called, or, when it is
+ * created with an output stream, decrypts and uncompresses every segment
+ * as soon as it is appended. In the streaming mode the memory usage
+ * does not depend on the size of the download and the joiner must be
+ * closed to complete the output.
+ *
  * @author Hachani
  */
-public class Joiner {
+public class Joiner implements Closeable {
 
     private final EbicsUser user;
     private final ByteArrayOutputStream buffer;
+    private final byte[] transactionKey;
+    private final OutputStream output;
+    private final SymmetricCipher cipher;
+    private OutputStream pipeline;
 
     /**
      * Constructs a new <code>Joiner</code> object.
@@ -48,18 +64,104 @@ public class Joiner {
     public Joiner(EbicsUser user) {
         this.user = user;
         buffer = new ByteArrayOutputStream();
+        transactionKey = null;
+        output = null;
+        cipher = null;
+    }
+
+    /**
+     * Constructs a new streaming <code>Joiner</code> object writing
+     * the decrypted and uncompressed order data to the given output.
+     *
+     * @param user           the ebics user.
+     * @param transactionKey the encrypted transaction key
+     * @param output         the output stream, closed by {@link #close()}
+     */
+    public Joiner(EbicsUser user, byte[] transactionKey, OutputStream output) {
+        this(user, transactionKey, output, new BouncyCastleCipher());
     }
 
+    /**
+     * Constructs a new streaming <code>Joiner</code> object decrypting
+     * the order data with the given symmetric cipher.
+     *
+     * @param user           the ebics user.
+     * @param transactionKey the encrypted transaction key
+     * @param output         the output stream, closed by {@link #close()}
+     * @param cipher         the symmetric cipher, null for the BouncyCastle one
+     */
+    public Joiner(EbicsUser user, byte[] transactionKey, OutputStream output, SymmetricCipher cipher) {
+        this.user = user;
+        this.transactionKey = transactionKey;
+        this.output = output;
+        this.cipher = cipher == null ? new BouncyCastleCipher() : cipher;
+        buffer = null;
+    }
 
     public void append(byte[] data) throws EbicsException {
         try {
-            buffer.write(data);
-            buffer.flush();
+            target().write(data);
         } catch (IOException e) {
             throw new EbicsException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Returns a stream appending the data written to it, so that a
+     * segment can be decoded straight into the joiner. Closing the
+     * stream does not close the joiner.
+     *
+     * @return the stream appending to the joiner
+     */
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    target().write(b, off, len);
+                } catch (EbicsException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the stream the segments are appended to.
+     */
+    private OutputStream target() throws EbicsException {
+        return output != null ? pipeline() : buffer;
+    }
+
+    /**
+     * Starts the decryption and decompression pipeline on the first segment.
+     * The transaction key is decrypted only once. When the user cannot
+     * decrypt the transaction key alone, the order data is buffered and
+     * decrypted as a whole on close.
+     */
+    private OutputStream pipeline() throws EbicsException {
+        if (pipeline == null && !user.canDecryptTransactionKey()) {
+            pipeline = new BufferedPipeline();
+        } else if (pipeline == null) {
+            try {
+                SecretKeySpec keySpec;
+
+                keySpec = new SecretKeySpec(user.decryptTransactionKey(transactionKey), "AES");
+                pipeline = cipher.decrypt(Utils.unzip(output), keySpec);
+            } catch (GeneralSecurityException | IOException e) {
+                throw new EbicsException(e.getMessage(), e);
+            }
+        }
+
+        return pipeline;
+    }
+
     /**
      * Writes the joined part to an output stream.
      *
@@ -69,6 +171,10 @@ public class Joiner {
      */
     public void writeTo(OutputStream output, byte[] transactionKey)
             throws EbicsException {
+        if (buffer == null) {
+            throw new IllegalStateException("streaming joiner writes to its own output");
+        }
+
         try {
             byte[] decrypted;
 
@@ -79,4 +185,37 @@ public class Joiner {
             throw new EbicsException(e.getMessage(), e);
         }
     }
+
+    /**
+     * Completes the streamed output: the last block is decrypted, the
+     * decompression is finished and the output is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (output == null) {
+            return;
+        }
+
+        if (pipeline != null) {
+            pipeline.close();
+        } else {
+            output.close();
+        }
+    }
+
+    /**
+     * The order data of a user that cannot decrypt the transaction key
+     * alone, decrypted with {@link EbicsUser#decrypt(byte[], byte[])} on close.
+     */
+    private final class BufferedPipeline extends ByteArrayOutputStream {
+
+        @Override
+        public void close() throws IOException {
+            try (output) {
+                output.write(Utils.unzip(user.decrypt(toByteArray(), transactionKey)));
+            } catch (GeneralSecurityException | EbicsException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
 }
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+package org.kopi.ebics.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+
+/**
+ * An output stream compressing the data written to it into a single
+ * zlib stream (RFC 1950), with the blocks of the input deflated in
+ * parallel on a pool of workers.
+ *
+ * <p>The compression follows pigz: the input is cut in blocks of 128KB,
+ * each block is deflated on its own, primed with the last 32KB of the
+ * previous block as dictionary, and ends with a sync flush so that the
+ * raw deflate outputs of the blocks can be concatenated. The last block
+ * is finished instead. The zlib header and the Adler-32 checksum of the
+ * whole input surround the concatenated blocks, so any zlib inflater
+ * reads the result as one stream.
+ *
+ * <p>The blocks are written in order to the underlying output. At most
+ * twice as many blocks as workers are compressed or waiting to be written
+ * at a time, which bounds the memory used whatever the input size. The
+ * pool of workers is given by the caller, which owns it and shuts it down;
+ * the stream only submits blocks to it. The input blocks, their outputs
+ * and the compressors are taken from the {@link BufferPool} and released
+ * once the block is written.
+ *
+ * @author hachani
+ */
+public class ParallelDeflaterOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService pool;
+    private final int maxPending;
+    private final Queue<Pending> pending;
+    private final Adler32 checksum;
+    private byte[] block;
+    private int count;
+    private byte[] previous;
+    private byte[] written;
+    private boolean closed;
+
+    /**
+     * Constructs a new <code>ParallelDeflaterOutputStream</code> compressing
+     * the blocks on the common <code>ForkJoinPool</code>.
+     *
+     * @param out     the output receiving the zlib stream
+     * @param level   the compression level, from 0 to 9
+     * @param threads the number of blocks compressed at a time
+     */
+    public ParallelDeflaterOutputStream(OutputStream out, int level, int threads) {
+        this(out, level, threads, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a new <code>ParallelDeflaterOutputStream</code> compressing
+     * the blocks on the given pool, which should have as many workers as
+     * the given threads.
+     *
+     * @param out     the output receiving the zlib stream
+     * @param level   the compression level, from 0 to 9
+     * @param threads the number of workers of the pool
+     * @param pool    the workers compressing the blocks
+     */
+    public ParallelDeflaterOutputStream(OutputStream out, int level, int threads, ExecutorService pool) {
+        this.out = out;
+        this.level = level;
+        this.pool = pool;
+        maxPending = 2 * threads;
+        pending = new ArrayDeque<>();
+        checksum = new Adler32();
+        block = BufferPool.acquire(BLOCK_SIZE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        checksum.update(b, off, len);
+        while (len > 0) {
+            int n;
+
+            if (count == BLOCK_SIZE) {
+                submit(false);
+            }
+            n = Math.min(len, BLOCK_SIZE - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compresses the remaining input, writes the checksum
+     * and closes the underlying output.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writeBlock();
+            }
+            writeInt((int) checksum.getValue());
+            BufferPool.release(written);
+            written = null;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Submits the current block to the pool and starts a new one.
+     * The header is written with the first block.
+     *
+     * @param last whether the block ends the stream
+     */
+    private void submit(boolean last) throws IOException {
+        byte[] input = block;
+        int length = count;
+        byte[] dictionary = previous;
+
+        if (previous == null) {
+            writeHeader();
+        }
+        pending.add(new Pending(pool.submit(() -> deflate(input, length, dictionary, level, last)), input));
+        previous = input;
+        block = last ? null : BufferPool.acquire(BLOCK_SIZE);
+        count = 0;
+        while (pending.size() > maxPending) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the oldest pending block. The input of the block written
+     * before is released then, as it was the dictionary of this one.
+     */
+    private void writeBlock() throws IOException {
+        Pending next = pending.remove();
+        Output output;
+
+        try {
+            output = next.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+        out.write(output.data, 0, output.length);
+        BufferPool.release(output.data);
+        BufferPool.release(written);
+        written = next.input;
+    }
+
+    /**
+     * Writes the zlib header: deflate with a 32KB window and the level flag
+     * derived from the compression level the way zlib does.
+     */
+    private void writeHeader() throws IOException {
+        int cmf = 0x78;
+        int flevel;
+        int flg;
+
+        if (level >= 0 && level < 2) {
+            flevel = 0;
+        } else if (level >= 2 && level < 6) {
+            flevel = 1;
+        } else if (level == 6 || level == Deflater.DEFAULT_COMPRESSION) {
+            flevel = 2;
+        } else {
+            flevel = 3;
+        }
+        flg = flevel << 6;
+        flg += 31 - (cmf * 256 + flg) % 31;
+        out.write(cmf);
+        out.write(flg);
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Deflates a block into raw deflate data, ending with a sync flush
+     * or, for the last block, with the final block marker.
+     */
+    private static Output deflate(byte[] input, int length, byte[] dictionary, int level, boolean last) {
+        Deflater compressor = BufferPool.acquireDeflater(level, true);
+        byte[] output = BufferPool.acquire(length / 2 + 64);
+        int count = 0;
+
+        try {
+            if (dictionary != null) {
+                compressor.setDictionary(dictionary, BLOCK_SIZE - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            }
+            compressor.setInput(input, 0, length);
+            if (last) {
+                compressor.finish();
+                while (!compressor.finished()) {
+                    if (count == output.length) {
+                        output = grow(output);
+                    }
+                    count += compressor.deflate(output, count, output.length - count);
+                }
+            } else {
+                do {
+                    if (count == output.length) {
+                        output = grow(output);
+                    }
+                    count += compressor.deflate(output, count, output.length - count, Deflater.SYNC_FLUSH);
+                } while (count == output.length);
+            }
+        } catch (RuntimeException e) {
+            compressor.end();
+            throw e;
+        }
+        BufferPool.release(compressor, level, true);
+
+        return new Output(output, count);
+    }
+
+    private static byte[] grow(byte[] output) {
+        byte[] larger = BufferPool.acquire(2 * output.length);
+
+        System.arraycopy(output, 0, larger, 0, output.length);
+        BufferPool.release(output);
+        return larger;
+    }
+
+    /**
+     * A submitted block: its compression and its input.
+     */
+    private record Pending(Future<Output> task, byte[] input) {
+    }
+
+    /**
+     * The compressed data of a block, at the start of a pooled array.
+     */
+    private record Output(byte[] data, int length) {
+    }
+}
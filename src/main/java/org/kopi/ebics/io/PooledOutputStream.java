@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+package org.kopi.ebics.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/**
+ * A byte array output stream whose array is borrowed from the
+ * {@link BufferPool} and grown by its size classes. Closing the
+ * stream releases the array, which must then not be used any more.
+ *
+ * @author hachani
+ */
+public class PooledOutputStream extends OutputStream {
+
+    private static final int INITIAL_SIZE = 8192;
+
+    private byte[] buffer;
+    private int count;
+
+    /**
+     * Constructs a new <code>PooledOutputStream</code>.
+     */
+    public PooledOutputStream() {
+        buffer = BufferPool.acquire(INITIAL_SIZE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * Writes the bytes written so far to the given output.
+     *
+     * @param out the output stream
+     * @throws IOException the output cannot be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        ensureOpen();
+        out.write(buffer, 0, count);
+    }
+
+    /**
+     * Returns a copy of the bytes written so far.
+     *
+     * @return the written bytes
+     */
+    public byte[] toByteArray() throws IOException {
+        ensureOpen();
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return the written length
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Releases the array to the pool.
+     */
+    @Override
+    public void close() {
+        BufferPool.release(buffer);
+        buffer = null;
+    }
+
+    private void ensureCapacity(int capacity) throws IOException {
+        ensureOpen();
+        if (buffer.length < capacity) {
+            byte[] larger = BufferPool.acquire(Math.max(capacity, 2 * buffer.length));
+
+            System.arraycopy(buffer, 0, larger, 0, count);
+            BufferPool.release(buffer);
+            buffer = larger;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+package org.kopi.ebics.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.ContentFactory;
+
+
+/**
+ * An on-disk journal of a transfer transaction, from which an
+ * interrupted download or upload is resumed.
+ *
+ * <p>The journal directory holds the transaction ID, the encrypted
+ * transaction key and the number of segments of the transaction, then
+ * every segment as it is received, still encrypted and compressed.
+ * Each file is written to a temporary file first and moved in place,
+ * so a crash never leaves a partial segment behind. After a crash or a
+ * network error the download goes on with the segment following the
+ * last journaled one, in the same transaction.
+ *
+ * <p>Once all the segments are journaled they are joined to the output
+ * and the journal is deleted.
+ *
+ * <p>An upload journals its encrypted order data once the transaction is
+ * opened, then the last segment acknowledged by the bank. The order data
+ * is the spool file of the splitter, moved into the journal rather than
+ * copied, and its segments are read back at the offsets of the journaled
+ * segment size. An upload interrupted by a crash goes on with the following
+ * segment, in the same transaction, with the order data the bank has started
+ * to receive. The plain transaction key is never journaled: the journaled
+ * segments are already encrypted, and the bank holds the key of the transaction.
+ *
+ * @author hachani
+ */
+public class SegmentJournal {
+
+    private static final String TRANSACTION_FILE = "transaction.properties";
+    private static final String ACKNOWLEDGED_FILE = "acknowledged";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String ORDER_DATA_FILE = "order-data";
+
+    private final Path directory;
+    private byte[] transactionId;
+    private byte[] transactionKey;
+    private int numSegments;
+    private int segmentSize;
+    private long orderDataLength;
+    private int acknowledged;
+
+    /**
+     * Constructs a new <code>SegmentJournal</code> in the given directory,
+     * loading the transaction journaled in it, if any.
+     *
+     * @param directory the journal directory
+     * @throws EbicsException the journaled transaction cannot be read
+     */
+    public SegmentJournal(Path directory) throws EbicsException {
+        Path transaction = directory.resolve(TRANSACTION_FILE);
+
+        this.directory = directory;
+        if (Files.exists(transaction)) {
+            Properties properties = new Properties();
+
+            try (InputStream in = Files.newInputStream(transaction)) {
+                properties.load(in);
+                transactionId = Hex.decodeHex(properties.getProperty("transaction.id").toCharArray());
+                transactionKey = Hex.decodeHex(properties.getProperty("transaction.key").toCharArray());
+                numSegments = Integer.parseInt(properties.getProperty("segments"));
+                segmentSize = Integer.parseInt(properties.getProperty("segment.size", "0"));
+                orderDataLength = Long.parseLong(properties.getProperty("order.data.length", "0"));
+                if (Files.exists(directory.resolve(ACKNOWLEDGED_FILE))) {
+                    acknowledged = Integer.parseInt(Files.readString(directory.resolve(ACKNOWLEDGED_FILE),
+                            StandardCharsets.US_ASCII).trim());
+                }
+            } catch (IOException | DecoderException | RuntimeException e) {
+                throw new EbicsException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Tells if a transaction is journaled.
+     *
+     * @return true if a download can be resumed from this journal
+     */
+    public boolean isStarted() {
+        return transactionId != null;
+    }
+
+    /**
+     * Journals a new transaction, dropping any previous one.
+     *
+     * @param transactionId  the transaction ID
+     * @param transactionKey the encrypted transaction key
+     * @param numSegments    the number of segments
+     * @throws IOException the journal cannot be written
+     */
+    public void start(byte[] transactionId, byte[] transactionKey, int numSegments) throws IOException {
+        Properties properties = new Properties();
+
+        delete();
+        Files.createDirectories(directory);
+        properties.setProperty("transaction.id", Hex.encodeHexString(transactionId));
+        properties.setProperty("transaction.key", Hex.encodeHexString(transactionKey));
+        properties.setProperty("segments", Integer.toString(numSegments));
+        write(directory.resolve(TRANSACTION_FILE), out -> properties.store(out, null));
+        this.transactionId = transactionId;
+        this.transactionKey = transactionKey;
+        this.numSegments = numSegments;
+    }
+
+    /**
+     * Journals a new upload transaction, dropping any previous one. The
+     * encrypted order data is moved into the journal, which is a mere rename
+     * when it lies on the same file system.
+     *
+     * @param transactionId  the transaction ID
+     * @param transactionKey the encrypted transaction key
+     * @param numSegments    the number of segments
+     * @param segmentSize    the size of every segment but the last one
+     * @param orderData      the file holding the encrypted order data
+     * @throws IOException the journal cannot be written
+     */
+    public void start(byte[] transactionId,
+                      byte[] transactionKey,
+                      int numSegments,
+                      int segmentSize,
+                      Path orderData)
+            throws IOException {
+        Properties properties = new Properties();
+
+        try {
+            delete();
+            Files.createDirectories(directory);
+            move(orderData, orderData());
+        } catch (IOException e) {
+            Files.deleteIfExists(orderData);
+            throw e;
+        }
+        orderDataLength = Files.size(orderData());
+        properties.setProperty("transaction.id", Hex.encodeHexString(transactionId));
+        properties.setProperty("transaction.key", Hex.encodeHexString(transactionKey));
+        properties.setProperty("segments", Integer.toString(numSegments));
+        properties.setProperty("segment.size", Integer.toString(segmentSize));
+        properties.setProperty("order.data.length", Long.toString(orderDataLength));
+        write(directory.resolve(TRANSACTION_FILE), out -> properties.store(out, null));
+        this.transactionId = transactionId;
+        this.transactionKey = transactionKey;
+        this.numSegments = numSegments;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Journals a received segment.
+     *
+     * @param segmentNumber the segment number
+     * @param orderData     the encrypted order data of the segment
+     * @throws IOException the segment cannot be written
+     */
+    public void write(int segmentNumber, byte[] orderData) throws IOException {
+        write(segment(segmentNumber), out -> out.write(orderData));
+    }
+
+    /**
+     * Returns a journaled segment.
+     *
+     * @param segmentNumber the segment number
+     * @return the encrypted order data of the segment
+     */
+    public ContentFactory getSegment(int segmentNumber) {
+        long offset;
+        int length;
+
+        if (segmentSize == 0) {
+            return new FileContentFactory(segment(segmentNumber));
+        }
+
+        offset = (long) segmentSize * (segmentNumber - 1);
+        length = (int) Math.min(segmentSize, orderDataLength - offset);
+        return new FileContentFactory(orderData().toFile(), offset, length);
+    }
+
+    /**
+     * Journals the last segment of an upload acknowledged by the bank.
+     *
+     * @param segmentNumber the acknowledged segment number
+     * @throws IOException the journal cannot be written
+     */
+    public void acknowledge(int segmentNumber) throws IOException {
+        write(directory.resolve(ACKNOWLEDGED_FILE),
+                out -> out.write(Integer.toString(segmentNumber).getBytes(StandardCharsets.US_ASCII)));
+        acknowledged = segmentNumber;
+    }
+
+    /**
+     * Returns the last segment of an upload acknowledged by the bank.
+     *
+     * @return the acknowledged segment number, 0 if none is acknowledged
+     */
+    public int getAcknowledged() {
+        return acknowledged;
+    }
+
+    /**
+     * Returns the number of the last segment journaled without gap
+     * from the first one.
+     *
+     * @return the last segment number, 0 if none is journaled
+     */
+    public int getLastSegment() {
+        int last = 0;
+
+        if (segmentSize > 0) {
+            return Files.exists(orderData()) ? numSegments : 0;
+        }
+
+        while (last < numSegments && Files.exists(segment(last + 1))) {
+            last++;
+        }
+
+        return last;
+    }
+
+    /**
+     * Tells if all the segments of the transaction are journaled.
+     *
+     * @return true if the download is complete
+     */
+    public boolean isComplete() {
+        return isStarted() && getLastSegment() == numSegments;
+    }
+
+    /**
+     * Appends the journaled segments to the given joiner in their order.
+     *
+     * @param joiner the joiner
+     * @throws IOException    a segment cannot be read
+     * @throws EbicsException a segment cannot be joined
+     */
+    public void joinTo(Joiner joiner) throws IOException, EbicsException {
+        for (int i = 1; i <= numSegments; i++) {
+            joiner.append(Files.readAllBytes(segment(i)));
+        }
+    }
+
+    /**
+     * Deletes the journal.
+     *
+     * @throws IOException the journal cannot be deleted
+     */
+    public void delete() throws IOException {
+        if (Files.exists(directory)) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+        transactionId = null;
+        transactionKey = null;
+        numSegments = 0;
+        segmentSize = 0;
+        orderDataLength = 0;
+        acknowledged = 0;
+    }
+
+    /**
+     * Returns the journaled transaction ID.
+     *
+     * @return the transaction ID, null if no transaction is journaled
+     */
+    public byte[] getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Returns the journaled encrypted transaction key.
+     *
+     * @return the transaction key, null if no transaction is journaled
+     */
+    public byte[] getTransactionKey() {
+        return transactionKey;
+    }
+
+    /**
+     * Returns the number of segments of the journaled transaction.
+     *
+     * @return the number of segments
+     */
+    public int getNumSegments() {
+        return numSegments;
+    }
+
+    private Path segment(int segmentNumber) {
+        return directory.resolve(SEGMENT_PREFIX + segmentNumber);
+    }
+
+    private Path orderData() {
+        return directory.resolve(ORDER_DATA_FILE);
+    }
+
+    /**
+     * Writes a file through a temporary file moved in place.
+     */
+    private static void write(Path file, Writer writer) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            writer.write(out);
+        }
+        move(temporary, file);
+    }
+
+    /**
+     * Moves a file in place, atomically if the file system supports it.
+     */
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+
+        void write(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+package org.kopi.ebics.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.Signature;
+import java.security.SignatureException;
+
+
+/**
+ * An output stream computing the electronic signature of the order data
+ * written to it.
+ *
+ * <p>The carriage returns, line feeds and CTRL-Z characters are not signed,
+ * as required by the EBICS specification. They are skipped in place: the runs
+ * of data between them are passed to the signature without being copied, so
+ * the order data can be signed in the same pass that compresses and encrypts it.
+ *
+ * @author hachani
+ */
+public class SignatureOutputStream extends OutputStream {
+
+    private final Signature signature;
+
+    /**
+     * Constructs a new <code>SignatureOutputStream</code>.
+     *
+     * @param signature the signature engine, initialized for signing
+     */
+    public SignatureOutputStream(Signature signature) {
+        this.signature = signature;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!isIgnored((byte) b)) {
+            update(new byte[]{(byte) b}, 0, 1);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        writeSigned(b, off, len, this::update);
+    }
+
+    /**
+     * Returns the given data without the characters that are not signed.
+     *
+     * @param data the data
+     * @return the signed characters of the data
+     */
+    public static byte[] removeIgnored(byte[] data) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length);
+
+        try {
+            writeSigned(data, 0, data.length, output::write);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns the signature of the data written so far.
+     *
+     * @return the signature
+     * @throws SignatureException the signature cannot be computed
+     */
+    public byte[] sign() throws SignatureException {
+        return signature.sign();
+    }
+
+    private void update(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+
+        try {
+            signature.update(b, off, len);
+        } catch (SignatureException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Passes the runs of data between the ignored characters to the given output.
+     */
+    private static void writeSigned(byte[] b, int off, int len, Output output) throws IOException {
+        int start = off;
+
+        for (int i = off; i < off + len; i++) {
+            if (isIgnored(b[i])) {
+                output.write(b, start, i - start);
+                start = i + 1;
+            }
+        }
+        output.write(b, start, off + len - start);
+    }
+
+    /**
+     * EBICS Specification 2.4.2 - 7.1 Process description: white-space characters
+     * such as carriage returns and line feeds are not signed, nor is the CTRL-Z / EOF.
+     */
+    private static boolean isIgnored(byte b) {
+        return b == '\r' || b == '\n' || b == 0x1A;
+    }
+
+    @FunctionalInterface
+    private interface Output {
+
+        void write(byte[] b, int off, int len) throws IOException;
+    }
+}
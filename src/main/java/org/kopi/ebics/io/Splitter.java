@@ -19,10 +19,25 @@
 
 package org.kopi.ebics.io;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
 import javax.crypto.spec.SecretKeySpec;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.interfaces.SymmetricCipher;
+import org.kopi.ebics.utils.BouncyCastleCipher;
 import org.kopi.ebics.utils.Utils;
 
 
@@ -31,20 +46,45 @@ import org.kopi.ebics.utils.Utils;
  * 1MB portions. this i useful to handle
  * big file uploading.
  *
+ * <p>The input is streamed through the compression and the encryption
+ * and never held twice in memory. When the splitter is created from a
+ * <code>ContentFactory</code> or a <code>Path</code>, the encrypted
+ * content is spooled to a temporary file and only one segment at a time
+ * is read back, so the heap usage does not depend on the input size.
+ * The temporary file is removed by {@link #close()}, or as soon as
+ * the input cannot be read.
+ *
  * @author Hachani
  */
-public class Splitter {
+public class Splitter implements Closeable {
 
     /**
-     * The maximum size of a segment to be put in a request. base64 encoding adds
-     * 33% to that, and we need to stay below 1 MB. This is where 700kB comes from,
-     * to make sure we stay below that.
+     * The maximum size of a base64 coded segment, 1 MB as the EBICS
+     * specification requires.
      */
-    private static final int SEGMENT_SIZE = 700000;
-    private byte[] input;
+    public static final int MAX_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * The room kept in a segment request for its envelope: the header, the
+     * authentication signature and the XML around the order data. A transfer
+     * request signed with a 4096 bits key takes about 3 KB.
+     */
+    public static final int ENVELOPE_SIZE = 16 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+    private final ContentFactory input;
+    private final boolean spooled;
     private byte[] content;
+    private File spool;
+    private Path spoolDirectory;
+    private long contentLength;
     private int segmentSize;
     private int numSegments;
+    private int maxSegmentSize = MAX_SEGMENT_SIZE;
+    private int compressionLevel = Deflater.BEST_COMPRESSION;
+    private int compressionThreads = 1;
+    private ExecutorService compressionPool;
+    private CompressionPolicy compressionPolicy;
+    private SymmetricCipher cipher = new BouncyCastleCipher();
 
     /**
      * Constructs a new <code>FileSplitter</code> with a given file.
@@ -52,7 +92,94 @@ public class Splitter {
      * @param input the input byte array
      */
     public Splitter(byte[] input) {
+        this.input = new ByteArrayContentFactory(input);
+        this.spooled = false;
+    }
+
+    /**
+     * Constructs a new <code>Splitter</code> reading its input from
+     * a content factory. The encrypted content is spooled to disk.
+     *
+     * @param input the input content factory
+     */
+    public Splitter(ContentFactory input) {
         this.input = input;
+        this.spooled = true;
+    }
+
+    /**
+     * Constructs a new <code>Splitter</code> reading its input from
+     * a file. The encrypted content is spooled to disk.
+     *
+     * @param input the input file
+     */
+    public Splitter(Path input) {
+        this(new FileContentFactory(input));
+    }
+
+    /**
+     * Sets how the order data is compressed, the best compression
+     * on a single thread by default.
+     *
+     * @param level   the compression level, from 0 to 9
+     * @param threads the number of threads compressing the order data
+     */
+    public void setCompression(int level, int threads) {
+        setCompression(level, threads, null);
+    }
+
+    /**
+     * Sets how the order data is compressed, with more than one
+     * thread on the given pool.
+     *
+     * @param level   the compression level, from 0 to 9
+     * @param threads the number of threads compressing the order data
+     * @param pool    the workers compressing the order data, null for the common pool
+     */
+    public void setCompression(int level, int threads, ExecutorService pool) {
+        compressionLevel = level;
+        compressionThreads = threads;
+        compressionPool = pool;
+    }
+
+    /**
+     * Sets the maximum size of a segment request, for the banks
+     * announcing a limit lower than {@link #MAX_SEGMENT_SIZE}.
+     *
+     * @param maxSegmentSize the maximum segment request size
+     */
+    public void setMaxSegmentSize(int maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * Sets the policy choosing the compression level from a sample
+     * of the input, instead of the level set by {@link #setCompression}.
+     *
+     * @param policy the compression policy, null for the fixed level
+     */
+    public void setCompressionPolicy(CompressionPolicy policy) {
+        compressionPolicy = policy;
+    }
+
+    /**
+     * Sets the directory the encrypted content is spooled to,
+     * the default temporary directory by default.
+     *
+     * @param spoolDirectory the spool directory, null for the default one
+     */
+    public void setSpoolDirectory(Path spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    /**
+     * Sets the symmetric cipher encrypting the order data,
+     * the BouncyCastle one by default.
+     *
+     * @param cipher the symmetric cipher, null for the BouncyCastle one
+     */
+    public void setSymmetricCipher(SymmetricCipher cipher) {
+        this.cipher = cipher == null ? new BouncyCastleCipher() : cipher;
     }
 
     /**
@@ -80,17 +207,108 @@ public class Splitter {
      */
     public final void readInput(boolean isCompressionEnabled, SecretKeySpec keySpec)
             throws EbicsException {
+        readInput(isCompressionEnabled, keySpec, null);
+    }
+
+    /**
+     * Reads the input stream and splits it to segments like
+     * {@link #readInput(boolean, SecretKeySpec)} does, copying the
+     * input read to the given stream on the way. The order data can
+     * thus be signed in the same pass that compresses and encrypts it.
+     *
+     * @param isCompressionEnabled enable compression?
+     * @param keySpec              the secret key spec
+     * @param tap                  the stream receiving the raw input, may be null
+     * @throws EbicsException
+     */
+    public final void readInput(boolean isCompressionEnabled, SecretKeySpec keySpec, OutputStream tap)
+            throws EbicsException {
         try {
-            if (isCompressionEnabled) {
-                input = Utils.zip(input);
+            close();
+            if (spooled) {
+                spool = createSpool().toFile();
+                try (OutputStream sink = Files.newOutputStream(spool.toPath())) {
+                    encode(sink, isCompressionEnabled, keySpec, tap);
+                }
+                contentLength = spool.length();
+            } else {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+                encode(buffer, isCompressionEnabled, keySpec, tap);
+                content = buffer.toByteArray();
+                contentLength = content.length;
             }
-            content = Utils.encrypt(input, keySpec);
             segmentation();
         } catch (Exception e) {
+            try {
+                close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
             throw new EbicsException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Creates an empty spool file in the spool directory.
+     */
+    private Path createSpool() throws IOException {
+        return spoolDirectory == null
+                ? Files.createTempFile("ebics-upload", ".tmp")
+                : Files.createTempFile(spoolDirectory, "ebics-upload", ".tmp");
+    }
+
+    /**
+     * Compresses and encrypts the input to the given sink,
+     * copying the raw input to the tap on the way.
+     */
+    private void encode(OutputStream sink, boolean isCompressionEnabled, SecretKeySpec keySpec, OutputStream tap)
+            throws IOException, EbicsException {
+        try (InputStream in = input.getContent()) {
+            byte[] sample = new byte[0];
+            int level = compressionLevel;
+
+            if (isCompressionEnabled && compressionPolicy != null) {
+                sample = in.readNBytes(CompressionPolicy.SAMPLE_SIZE);
+                level = compressionPolicy.chooseLevel(sample);
+            }
+            try (OutputStream out = pipeline(sink, isCompressionEnabled, keySpec, level, compressionThreads)) {
+                byte[] chunk = BufferPool.acquire(BUFFER_SIZE);
+                int len;
+
+                try {
+                    if (tap != null) {
+                        tap.write(sample);
+                    }
+                    out.write(sample);
+                    while ((len = in.read(chunk)) != -1) {
+                        if (tap != null) {
+                            tap.write(chunk, 0, len);
+                        }
+                        out.write(chunk, 0, len);
+                    }
+                } finally {
+                    BufferPool.release(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the compression and encryption stream chain writing
+     * to the given sink.
+     */
+    private OutputStream pipeline(OutputStream sink,
+                                  boolean isCompressionEnabled,
+                                  SecretKeySpec keySpec,
+                                  int level,
+                                  int threads)
+            throws EbicsException {
+        OutputStream encrypted = cipher.encrypt(sink, keySpec);
+
+        return isCompressionEnabled ? Utils.zip(encrypted, level, threads, compressionPool) : encrypted;
+    }
+
     /**
      * Slits the input into 1MB portions.
      *
@@ -99,16 +317,20 @@ public class Splitter {
      * <p>In Version H003 of the EBICS standard, order data that requires more than 1 MB of storage
      * space in compressed, encrypted and base64-coded form MUST be segmented before
      * transmission, irrespective of the transfer direction (upload/download).
+     *
+     * <p>The segments are spread evenly and their size is a multiple of three, so that
+     * the base64 encoded segments can be concatenated to the base64 form of the whole content.
+     * The whole segment request must stay below the maximum size, so the room of its
+     * envelope is kept aside. Every three bytes are coded as four characters, so the
+     * largest segment holds three bytes for every four characters of the room left.
      */
     private void segmentation() {
+        int rawSegmentSize = Math.max(3, (maxSegmentSize - ENVELOPE_SIZE) / 4 * 3);
+        long evenSize;
 
-        numSegments = content.length / SEGMENT_SIZE;
-
-        if (content.length % SEGMENT_SIZE != 0) {
-            numSegments++;
-        }
-
-        segmentSize = content.length / numSegments;
+        numSegments = (int) ((contentLength + rawSegmentSize - 1) / rawSegmentSize);
+        evenSize = (contentLength + numSegments - 1) / numSegments;
+        segmentSize = (int) ((evenSize + 2) / 3 * 3);
     }
 
 
@@ -120,26 +342,35 @@ public class Splitter {
      * @return content of a data segment
      */
     public ContentFactory getContent(int segmentNumber) {
-        byte[] segment;
-        int offset;
-
-        offset = segmentSize * (segmentNumber - 1);
-        if (content.length < segmentSize + offset) {
-            segment = new byte[content.length - offset];
-        } else {
-            segment = new byte[segmentSize];
+        long offset;
+        int length;
+
+        offset = (long) segmentSize * (segmentNumber - 1);
+        length = (int) Math.min(segmentSize, contentLength - offset);
+
+        if (spooled) {
+            return new FileContentFactory(spool, offset, length);
         }
 
-        System.arraycopy(content, offset, segment, 0, segment.length);
-        return new ByteArrayContentFactory(segment);
+        return new ByteArrayContentFactory(content, (int) offset, length);
     }
 
     /**
      * Returns the hole content.
      *
+     * <p>When the content is spooled to disk, it is read into memory.
+     *
      * @return the input content.
      */
     public byte[] getContent() {
+        if (spooled) {
+            try {
+                return Files.readAllBytes(spool.toPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
         return content;
     }
 
@@ -157,7 +388,55 @@ public class Splitter {
      *
      * @return the size of each segment.
      */
-    int getSegmentSize() {
+    public int getSegmentSize() {
         return segmentSize;
     }
+
+    /**
+     * Returns the SHA-256 digest of the input, streamed from the input
+     * without compressing nor encrypting it.
+     *
+     * @return the digest of the input
+     * @throws IOException the input cannot be read
+     */
+    public byte[] digestInput() throws IOException {
+        try (InputStream in = input.getContent()) {
+            return DigestUtils.sha256(in);
+        }
+    }
+
+    /**
+     * Hands the encrypted content over to the caller as a file, which
+     * is no longer removed by {@link #close()}. A spooled content is
+     * handed over as it is, without being copied, and its segments can
+     * then only be read from the returned file, at the offsets of
+     * {@link #getSegmentSize()}.
+     *
+     * @return the file holding the encrypted content
+     * @throws IOException the content cannot be written to a file
+     */
+    public Path detachContent() throws IOException {
+        Path detached;
+
+        if (spooled) {
+            detached = spool.toPath();
+            spool = null;
+            return detached;
+        }
+
+        detached = createSpool();
+        Files.write(detached, content);
+        return detached;
+    }
+
+    /**
+     * Removes the spooled content, if any.
+     */
+    @Override
+    public void close() throws IOException {
+        if (spool != null) {
+            Files.deleteIfExists(spool.toPath());
+            spool = null;
+        }
+    }
 }
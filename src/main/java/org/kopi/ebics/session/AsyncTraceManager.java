@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+package org.kopi.ebics.session;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.kopi.ebics.interfaces.TraceManager;
+import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.io.FileCache;
+import org.kopi.ebics.io.IOUtils;
+import org.kopi.ebics.xml.DefaultResponseElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The <code>AsyncTraceManager</code> traces the ebics elements
+ * in the background, away from the transfers.
+ *
+ * <p>Tracing a request serializes it on the calling thread, so that the
+ * request is neither shared with nor kept alive by the writer; the upload
+ * segment requests hold no order data by then. Tracing a response queues
+ * the raw body it was read from, which the writer copies to the log
+ * without parsing the response again.
+ *
+ * <p>A single writer thread appends the queued entries in batches to the
+ * trace logs, optionally gzip compressed. The elements traced for a
+ * transaction go to a log of their own, closed when the transaction ends;
+ * the other ones go to one log per trace directory. Every log is an XML
+ * document whose <code>traces</code> root holds the traced elements, each
+ * one preceded by an XML comment holding its time and its element name.
+ *
+ * <p>The logs are append-only: removing an element drops its queued
+ * entries, but the entries already written stay in the log.
+ *
+ * <p>The queue is bounded. When it is full, tracing either waits for the
+ * writer or drops the element, according to the configured policy.
+ *
+ * <p>The {@link DefaultConfiguration} uses this manager instead of the
+ * {@link DefaultTraceManager} when the <code>trace.async</code> property
+ * is true. The manager reads the following configuration properties:
+ * <ul>
+ *   <li><code>trace.queue.size</code> the maximum queued elements, 256 by default
+ *   <li><code>trace.queue.policy</code> <code>block</code> to wait when the queue
+ *       is full or <code>drop</code> to drop the element, <code>block</code> by default
+ *   <li><code>trace.compress</code> whether the trace logs are gzip compressed,
+ *       false by default
+ * </ul>
+ */
+public class AsyncTraceManager implements TraceManager, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncTraceManager.class);
+
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+    private static final int BATCH_SIZE = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DECLARATION_SIZE = 256;
+    private static final byte[] LOG_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<traces>\n"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LOG_END = "</traces>\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * What to do with an element traced while the queue is full.
+     */
+    public enum Policy {
+        /**
+         * Waits until the writer frees a place in the queue.
+         */
+        BLOCK,
+        /**
+         * Drops the element.
+         */
+        DROP
+    }
+
+    private final BlockingQueue<Entry> queue;
+    private final Policy policy;
+    private final boolean compress;
+    private final FileCache cache;
+    private final ThreadFactory threads;
+    private final LongAdder dropped;
+    private final Map<Log, OutputStream> logs;
+    private volatile File traceDir;
+    private volatile Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new <code>AsyncTraceManager</code> reading its
+     * settings from the given configuration.
+     *
+     * @param conf the client configuration
+     */
+    public AsyncTraceManager(Configuration conf) {
+        this(getInt(conf, "trace.queue.size", DEFAULT_QUEUE_SIZE),
+                "drop".equalsIgnoreCase(getString(conf, "trace.queue.policy")) ? Policy.DROP : Policy.BLOCK,
+                Boolean.parseBoolean(getString(conf, "trace.compress")));
+    }
+
+    /**
+     * Constructs a new <code>AsyncTraceManager</code> with trace option enabled.
+     *
+     * @param queueSize the maximum queued elements
+     * @param policy    what to do when the queue is full
+     * @param compress  whether the trace logs are gzip compressed
+     */
+    public AsyncTraceManager(int queueSize, Policy policy, boolean compress) {
+        this(queueSize, policy, compress, task -> {
+            Thread thread = new Thread(task, "ebics-trace-writer");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Constructs a new <code>AsyncTraceManager</code> whose writer
+     * thread is created by the given factory.
+     *
+     * @param queueSize the maximum queued elements
+     * @param policy    what to do when the queue is full
+     * @param compress  whether the trace logs are gzip compressed
+     * @param threads   the factory of the writer thread
+     */
+    AsyncTraceManager(int queueSize, Policy policy, boolean compress, ThreadFactory threads) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.policy = policy;
+        this.compress = compress;
+        this.threads = threads;
+        cache = new FileCache(true);
+        dropped = new LongAdder();
+        logs = new HashMap<>();
+    }
+
+    @Override
+    public void trace(EbicsRootElement element) throws EbicsException {
+        enqueue(element, new Log(traceDir, null));
+    }
+
+    @Override
+    public void trace(EbicsRootElement element, String traceDir) throws EbicsException {
+        enqueue(element, new Log(new File(traceDir), null));
+    }
+
+    @Override
+    public void trace(EbicsRootElement element, String traceDir, String transaction) throws EbicsException {
+        enqueue(element, new Log(getTraceDir(traceDir), transaction));
+    }
+
+    /**
+     * Closes the log of the given transaction once its queued elements
+     * are written. The end is queued even with the {@link Policy#DROP}
+     * policy, so that the log is not left open.
+     */
+    @Override
+    public void endTransaction(String traceDir, String transaction) {
+        if (closed || writer == null) {
+            return;
+        }
+
+        try {
+            queue.put(new Entry(null, null, new Log(getTraceDir(traceDir), transaction), 0, null));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops the queued entries of the given element. The entries
+     * already written to the append-only trace logs are kept.
+     */
+    @Override
+    public void remove(EbicsRootElement element) {
+        String name = element.getName();
+
+        queue.removeIf(entry -> entry.sync == null && name.equals(entry.name));
+    }
+
+    /**
+     * Writes the queued elements, closes the trace logs and deletes
+     * them if the trace option is enabled. The next traced elements
+     * are written to new logs.
+     */
+    @Override
+    public void clear() throws IOException {
+        sync(true);
+        cache.clear();
+    }
+
+    /**
+     * Waits until the elements queued so far are written and flushed.
+     *
+     * @throws IOException the wait is interrupted
+     */
+    public void flush() throws IOException {
+        sync(false);
+    }
+
+    /**
+     * Writes the queued elements, closes the trace logs and stops the writer.
+     * The elements traced afterwards are ignored.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        sync(true);
+        closed = true;
+        if (writer != null) {
+            writer.interrupt();
+        }
+    }
+
+    @Override
+    public void setTraceDirectory(String traceDir) {
+        this.traceDir = new File(traceDir);
+    }
+
+    @Override
+    public void setTraceEnabled(boolean enabled) {
+        cache.setTraceEnabled(enabled);
+    }
+
+    /**
+     * Returns the number of elements dropped because the queue was full.
+     *
+     * @return the dropped elements
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private File getTraceDir(String traceDir) {
+        return traceDir == null ? this.traceDir : new File(traceDir);
+    }
+
+    private void enqueue(EbicsRootElement element, Log log) throws EbicsException {
+        Entry entry;
+
+        if (closed) {
+            return;
+        }
+
+        try {
+            entry = new Entry(element.getName(), getContent(element), log, System.currentTimeMillis(), null);
+        } catch (RuntimeException e) {
+            logger.warn("Cannot trace {}: {}", element.getName(), e.getMessage());
+            return;
+        }
+        startWriter();
+        if (policy == Policy.DROP) {
+            if (!queue.offer(entry)) {
+                dropped.increment();
+            }
+            return;
+        }
+
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EbicsException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the raw body of a response, or the serialized request.
+     */
+    private static ContentFactory getContent(EbicsRootElement element) {
+        if (element instanceof DefaultResponseElement<?> response && response.getContentFactory() != null) {
+            return response.getContentFactory();
+        }
+
+        return new ByteArrayContentFactory(element.toByteArray());
+    }
+
+    /**
+     * Queues a marker and waits until the writer reaches it.
+     *
+     * @param closeLogs whether the writer closes the trace logs
+     */
+    private void sync(boolean closeLogs) throws IOException {
+        Entry marker;
+
+        if (closed || writer == null) {
+            return;
+        }
+
+        marker = new Entry(null, null, null, 0, new Sync(closeLogs));
+        try {
+            queue.put(marker);
+            marker.sync.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    private synchronized void startWriter() {
+        if (writer == null) {
+            Thread thread = threads.newThread(this::write);
+
+            thread.start();
+            writer = thread;
+        }
+    }
+
+    /**
+     * The writer loop: takes the queued entries by batches, appends
+     * them to their trace logs and flushes the logs after each batch.
+     */
+    private void write() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            for (Entry entry : batch) {
+                if (entry.isEnd()) {
+                    closeLog(entry.log);
+                } else if (entry.sync == null) {
+                    append(entry);
+                } else {
+                    flushLogs(entry.sync.closeLogs);
+                    entry.sync.done.countDown();
+                }
+            }
+            flushLogs(false);
+            batch.clear();
+        }
+        flushLogs(true);
+    }
+
+    private void append(Entry entry) {
+        try {
+            OutputStream log = getLog(entry.log);
+
+            log.write(("<!-- " + Instant.ofEpochMilli(entry.time) + " " + entry.name + " -->\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = entry.content.getContent()) {
+                copyDocument(in, log);
+            }
+            log.write('\n');
+        } catch (IOException e) {
+            logger.warn("Cannot trace {}: {}", entry.name, e.getMessage());
+        }
+    }
+
+    /**
+     * Copies a traced document to the log, without its XML declaration
+     * since the log has one of its own.
+     */
+    private static void copyDocument(InputStream in, OutputStream log) throws IOException {
+        byte[] head = in.readNBytes(DECLARATION_SIZE);
+        String text = new String(head, StandardCharsets.ISO_8859_1);
+        int start = 0;
+
+        if (text.startsWith("<?xml")) {
+            int end = text.indexOf("?>");
+
+            if (end >= 0) {
+                start = end + 2;
+                while (start < head.length && Character.isWhitespace(text.charAt(start))) {
+                    start++;
+                }
+            }
+        }
+        log.write(head, start, head.length - start);
+        IOUtils.copy(in, log);
+    }
+
+    private OutputStream getLog(Log key) throws IOException {
+        OutputStream log = logs.get(key);
+
+        if (log == null) {
+            File file;
+
+            if (key.traceDir != null) {
+                key.traceDir.mkdirs();
+            }
+            file = new File(key.traceDir, "traces-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date())
+                    + (key.transaction == null ? "" : "-" + key.transaction.replaceAll("[^A-Za-z0-9._-]", "_"))
+                    + (compress ? ".log.gz" : ".log"));
+            log = new FileOutputStream(file, true);
+            log = compress ? new GZIPOutputStream(log, BUFFER_SIZE, true) : new BufferedOutputStream(log, BUFFER_SIZE);
+            cache.add(file);
+            logs.put(key, log);
+            log.write(LOG_START);
+        }
+
+        return log;
+    }
+
+    /**
+     * Ends the document of the given log and closes it.
+     */
+    private void closeLog(Log key) {
+        OutputStream log = logs.remove(key);
+
+        if (log != null) {
+            closeLog(log);
+        }
+    }
+
+    private static void closeLog(OutputStream log) {
+        try (log) {
+            log.write(LOG_END);
+        } catch (IOException e) {
+            logger.warn("Cannot write the trace log: {}", e.getMessage());
+        }
+    }
+
+    private void flushLogs(boolean closeLogs) {
+        for (OutputStream log : logs.values()) {
+            try {
+                if (closeLogs) {
+                    closeLog(log);
+                } else {
+                    log.flush();
+                }
+            } catch (IOException e) {
+                logger.warn("Cannot write the trace log: {}", e.getMessage());
+            }
+        }
+        if (closeLogs) {
+            logs.clear();
+        }
+    }
+
+    private static String getString(Configuration conf, String key) {
+        String value = conf.getProperty(key);
+
+        return value == null ? null : value.trim();
+    }
+
+    private static int getInt(Configuration conf, String key, int defaultValue) {
+        String value = getString(conf, key);
+
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * The name and the content of a queued element, the end of a
+     * transaction log, or a marker the callers of {@link #flush()}
+     * and {@link #clear()} wait on.
+     */
+    private record Entry(String name, ContentFactory content, Log log, long time, Sync sync) {
+
+        boolean isEnd() {
+            return content == null && sync == null;
+        }
+    }
+
+    /**
+     * A trace log: the one of a trace directory, or the one of a
+     * transaction when it is not null.
+     */
+    private record Log(File traceDir, String transaction) {
+    }
+
+    private record Sync(boolean closeLogs, CountDownLatch done) {
+
+        Sync(boolean closeLogs) {
+            this(closeLogs, new CountDownLatch(1));
+        }
+    }
+}
@@ -19,47 +19,76 @@
 
 package org.kopi.ebics.session;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.util.Locale;
 import java.util.MissingResourceException;
 import java.util.Properties;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
 
+import org.kopi.ebics.client.HttpClientPool;
+import org.kopi.ebics.client.HttpRetryPolicy;
 import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsBank;
 import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.interfaces.HttpClientProvider;
 import org.kopi.ebics.interfaces.LetterManager;
+import org.kopi.ebics.interfaces.RetryPolicy;
 import org.kopi.ebics.interfaces.SerializationManager;
+import org.kopi.ebics.interfaces.SymmetricCipher;
 import org.kopi.ebics.interfaces.TraceManager;
 import org.kopi.ebics.io.IOUtils;
+import org.kopi.ebics.io.Splitter;
 import org.kopi.ebics.letter.DefaultLetterManager;
+import org.kopi.ebics.utils.BouncyCastleCipher;
+import org.kopi.ebics.utils.JceCipher;
 
 
 /**
- * A simple client application configuration.
+ * A simple client application configuration. It holds the HTTP clients
+ * and the compression workers of the application, closed with the
+ * configuration.
  *
  * @author hachani
  */
-public class DefaultConfiguration implements Configuration {
+public class DefaultConfiguration implements Configuration, Closeable {
 
     private static final String RESOURCE_DIR = "org.kopi.ebics.client.config";
+    private static final int DEFAULT_TIMEOUT = 300;
     private final String rootDir;
     private final ResourceBundle bundle;
     private final Properties properties;
     private final SerializationManager serializationManager;
     private final TraceManager traceManager;
+    private final HttpClientPool httpClientPool;
+    private final HttpRetryPolicy httpRetryPolicy;
+    private final SymmetricCipher symmetricCipher;
     private LetterManager letterManager;
+    private ForkJoinPool compressionPool;
 
     /**
      * Creates a new application configuration.
      *
-     * @param rootDir the root directory
+     * @param rootDir    the root directory
+     * @param properties the configuration properties, may be null
      */
     public DefaultConfiguration(String rootDir, Properties properties) {
         this.rootDir = rootDir;
         bundle = ResourceBundle.getBundle(RESOURCE_DIR);
-        this.properties = properties;
+        this.properties = properties == null ? new Properties() : properties;
         serializationManager = new DefaultSerializationManager();
-        traceManager = new DefaultTraceManager();
+        traceManager = Boolean.parseBoolean(getProperty("trace.async", "false"))
+                ? new AsyncTraceManager(this)
+                : new DefaultTraceManager();
+        httpClientPool = new HttpClientPool(this);
+        httpRetryPolicy = new HttpRetryPolicy(this);
+        symmetricCipher = "jce".equalsIgnoreCase(getProperty("cipher.provider", "bc"))
+                ? new JceCipher()
+                : new BouncyCastleCipher();
     }
 
     /**
@@ -76,6 +105,73 @@ public class DefaultConfiguration implements Configuration {
         }
     }
 
+    /**
+     * Returns the property of the given bank. A property prefixed with
+     * the bank host ID overrides the global one.
+     *
+     * @param bank the ebics bank
+     * @param key  the property key
+     * @return the property value, or null if it is not set
+     */
+    private String getBankProperty(EbicsBank bank, String key) {
+        String value = properties.getProperty(bank.getHostId() + "." + key);
+
+        if (value == null || value.trim().isEmpty()) {
+            value = properties.getProperty(key);
+        }
+
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    /**
+     * Returns a timeout of the given bank, set in seconds.
+     *
+     * @param bank the ebics bank
+     * @param key  the property key
+     * @return the timeout in milliseconds, 300 seconds if it is not set
+     */
+    private int getTimeout(EbicsBank bank, String key) {
+        return Math.max(1, getBankProperty(bank, key, DEFAULT_TIMEOUT)) * 1000;
+    }
+
+    /**
+     * Returns the integer property of the given bank.
+     *
+     * @param bank         the ebics bank
+     * @param key          the property key
+     * @param defaultValue the value if the property is not set
+     * @return the property value
+     */
+    private int getBankProperty(EbicsBank bank, String key, int defaultValue) {
+        String value = getBankProperty(bank, key);
+
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Returns the integer property of the given key.
+     *
+     * @param key          the property key
+     * @param defaultValue the value if the property is not set
+     * @return the property value
+     */
+    private int getProperty(String key, int defaultValue) {
+        return Integer.parseInt(getProperty(key, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Returns the trimmed property of the given key.
+     *
+     * @param key          the property key
+     * @param defaultValue the value if the property is not set
+     * @return the property value
+     */
+    private String getProperty(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
     @Override
     public String getRootDirectory() {
         return rootDir;
@@ -126,6 +222,11 @@ public class DefaultConfiguration implements Configuration {
         return getUserDirectory(user) + File.separator + getString("traces.dir.name");
     }
 
+    @Override
+    public String getJournalDirectory(EbicsUser user) {
+        return getUserDirectory(user) + File.separator + getString("journal.dir.name");
+    }
+
     @Override
     public String getSerializationDirectory() {
         return rootDir + File.separator + getString("serialization.dir.name");
@@ -166,6 +267,40 @@ public class DefaultConfiguration implements Configuration {
         return letterManager;
     }
 
+    @Override
+    public HttpClientProvider getHttpClientPool() {
+        return httpClientPool;
+    }
+
+    /**
+     * Closes the HTTP clients and their connections, shuts the
+     * compression workers down and closes the trace manager if
+     * it writes in the background.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (compressionPool != null) {
+                compressionPool.shutdown();
+                compressionPool = null;
+            }
+        }
+        if (traceManager instanceof Closeable closeable) {
+            closeable.close();
+        }
+        httpClientPool.close();
+    }
+
+    @Override
+    public RetryPolicy getHttpRetryPolicy() {
+        return httpRetryPolicy;
+    }
+
+    @Override
+    public SymmetricCipher getSymmetricCipher() {
+        return symmetricCipher;
+    }
+
     @Override
     public String getLettersDirectory(EbicsUser user) {
         return getUserDirectory(user) + File.separator + getString("letters.dir.name");
@@ -202,6 +337,103 @@ public class DefaultConfiguration implements Configuration {
         return true;
     }
 
+    @Override
+    public int getCompressionLevel() {
+        return Math.min(9, Math.max(0, getProperty("compression.level", Deflater.BEST_COMPRESSION)));
+    }
+
+    @Override
+    public int getCompressionThreads() {
+        return Math.max(1, getProperty("compression.threads", 1));
+    }
+
+    /**
+     * Returns a pool of as many workers as compression threads, created
+     * on the first parallel compression, or null with a single thread.
+     */
+    @Override
+    public synchronized ExecutorService getCompressionPool() {
+        int threads = getCompressionThreads();
+
+        if (threads > 1 && compressionPool == null) {
+            compressionPool = new ForkJoinPool(threads);
+        }
+
+        return threads > 1 ? compressionPool : null;
+    }
+
+    @Override
+    public boolean isCompressionAdaptive() {
+        return Boolean.parseBoolean(getProperty("compression.adaptive", "false"));
+    }
+
+    @Override
+    public int getDownloadWindow(EbicsBank bank) {
+        return Math.max(1, getBankProperty(bank, "download.window", 1));
+    }
+
+    @Override
+    public boolean isDownloadRecoveryEnabled(EbicsBank bank) {
+        return Boolean.parseBoolean(getBankProperty(bank, "download.recovery"));
+    }
+
+    @Override
+    public boolean isUploadRecoveryEnabled(EbicsBank bank) {
+        return Boolean.parseBoolean(getBankProperty(bank, "upload.recovery"));
+    }
+
+    @Override
+    public int getSegmentSize(EbicsBank bank) {
+        int size = getBankProperty(bank, "segment.size", Splitter.MAX_SEGMENT_SIZE);
+
+        return Math.min(Splitter.MAX_SEGMENT_SIZE, Math.max(Splitter.ENVELOPE_SIZE + 4, size));
+    }
+
+    @Override
+    public int getUploadLookAhead(EbicsBank bank) {
+        return Math.max(0, getBankProperty(bank, "upload.lookahead", 0));
+    }
+
+    @Override
+    public int getUploadRetries(EbicsBank bank) {
+        return Math.max(0, getBankProperty(bank, "upload.retries", 0));
+    }
+
+    @Override
+    public long getUploadRetryDelay(EbicsBank bank) {
+        return Math.max(0, getBankProperty(bank, "upload.retry.delay", 1000));
+    }
+
+    @Override
+    public int getConnectTimeout(EbicsBank bank) {
+        return getTimeout(bank, "timeout.connect");
+    }
+
+    @Override
+    public int getInitializationTimeout(EbicsBank bank) {
+        return getTimeout(bank, "timeout.initialization");
+    }
+
+    @Override
+    public int getSegmentTimeout(EbicsBank bank) {
+        return getTimeout(bank, "timeout.segment");
+    }
+
+    @Override
+    public int getReceiptTimeout(EbicsBank bank) {
+        return getTimeout(bank, "timeout.receipt");
+    }
+
+    @Override
+    public long getTransferDeadline(EbicsBank bank) {
+        return Math.max(0, getBankProperty(bank, "transfer.deadline", 0)) * 1000L;
+    }
+
+    @Override
+    public int getTransferConcurrency(EbicsBank bank) {
+        return Math.max(1, getBankProperty(bank, "transfer.concurrency", 4));
+    }
+
     @Override
     public int getRevision() {
         return 1;
@@ -39,12 +39,15 @@ import org.kopi.ebics.io.IOUtils;
  * not offer tracing support.
  * see {@link Configuration#isTraceEnabled() isTraceEnabled()}
  *
+ * <p>The elements are written on the caller thread, one file per element.
+ * The {@link AsyncTraceManager} writes them in the background instead.
+ *
  * @author hachani
  */
 public class DefaultTraceManager implements TraceManager {
 
     private final FileCache cache;
-    private File traceDir;
+    private volatile File traceDir;
 
     /**
      * Constructs a new <code>TraceManger</code> to manage transfer traces.
@@ -75,12 +78,19 @@ public class DefaultTraceManager implements TraceManager {
 
     @Override
     public void trace(EbicsRootElement element) throws EbicsException {
-        try {
-            FileOutputStream out;
-            File file;
+        trace(element, traceDir);
+    }
+
+    @Override
+    public void trace(EbicsRootElement element, String traceDir) throws EbicsException {
+        trace(element, new File(traceDir));
+    }
+
+    private void trace(EbicsRootElement element, File traceDir) throws EbicsException {
+        File file;
 
-            file = IOUtils.createFile(traceDir, element.getName());
-            out = new FileOutputStream(file);
+        file = IOUtils.createFile(traceDir, element.getName());
+        try (FileOutputStream out = new FileOutputStream(file)) {
             element.save(out);
             cache.add(file);
         } catch (IOException e) {
@@ -23,8 +23,11 @@ import java.security.interfaces.RSAPublicKey;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsRootElement;
 import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.interfaces.TraceManager;
 
 
 /**
@@ -38,6 +41,7 @@ public class EbicsSession {
     private final Configuration configuration;
     private final Map<String, String> parameters;
     private Product product;
+    private String traceDirectory;
 
     /**
      * Constructs a new ebics session
@@ -115,6 +119,72 @@ public class EbicsSession {
         this.product = product;
     }
 
+    /**
+     * Returns the directory of this session traces.
+     *
+     * @return the trace directory, or null to use the trace manager one.
+     */
+    public String getTraceDirectory() {
+        return traceDirectory;
+    }
+
+    /**
+     * Sets the directory where the requests and responses of this
+     * session are traced.
+     *
+     * @param traceDirectory the trace directory
+     */
+    public void setTraceDirectory(String traceDirectory) {
+        this.traceDirectory = traceDirectory;
+    }
+
+    /**
+     * Traces an element of this session, if tracing is enabled. The
+     * response bodies are only kept for the traces when it is.
+     *
+     * @param element the element to trace
+     * @throws EbicsException cannot trace the ebics element
+     * @see Configuration#isTraceEnabled()
+     */
+    public void trace(EbicsRootElement element) throws EbicsException {
+        if (!configuration.isTraceEnabled()) {
+            return;
+        }
+        if (traceDirectory == null) {
+            configuration.getTraceManager().trace(element);
+        } else {
+            configuration.getTraceManager().trace(element, traceDirectory);
+        }
+    }
+
+    /**
+     * Traces an element of a transaction of this session, if tracing is enabled.
+     *
+     * @param element     the element to trace
+     * @param transaction the name of the transaction, null if it has none
+     * @throws EbicsException cannot trace the ebics element
+     * @see TraceManager#trace(EbicsRootElement, String, String)
+     */
+    public void trace(EbicsRootElement element, String transaction) throws EbicsException {
+        if (transaction == null) {
+            trace(element);
+        } else if (configuration.isTraceEnabled()) {
+            configuration.getTraceManager().trace(element, traceDirectory, transaction);
+        }
+    }
+
+    /**
+     * Ends the traces of a transaction of this session, if tracing is enabled.
+     *
+     * @param transaction the name of the transaction
+     * @see TraceManager#endTransaction(String, String)
+     */
+    public void endTrace(String transaction) {
+        if (configuration.isTraceEnabled()) {
+            configuration.getTraceManager().endTransaction(traceDirectory, transaction);
+        }
+    }
+
     /**
      * Adds a session parameter to use it in the transfer process.
      *
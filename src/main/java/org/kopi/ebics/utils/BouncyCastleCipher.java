@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.utils;
+
+import java.io.OutputStream;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.SymmetricCipher;
+
+
+/**
+ * The symmetric cipher of BouncyCastle, the default one. The cipher pads
+ * the data itself with its <code>ISO10126Padding</code>.
+ *
+ * @author hachani
+ */
+public class BouncyCastleCipher implements SymmetricCipher {
+
+    @Override
+    public byte[] encrypt(byte[] input, SecretKeySpec keySpec) throws EbicsException {
+        return Utils.encrypt(input, keySpec);
+    }
+
+    @Override
+    public OutputStream encrypt(OutputStream output, SecretKeySpec keySpec) throws EbicsException {
+        return Utils.encrypt(output, keySpec);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] input, SecretKeySpec keySpec) throws EbicsException {
+        return Utils.decrypt(input, keySpec);
+    }
+
+    @Override
+    public OutputStream decrypt(OutputStream output, SecretKeySpec keySpec) throws EbicsException {
+        return Utils.decrypt(output, keySpec);
+    }
+}
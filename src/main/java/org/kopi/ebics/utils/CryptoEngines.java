@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+package org.kopi.ebics.utils;
+
+import java.lang.ref.WeakReference;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Cipher;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+
+/**
+ * Pooled crypto engines, of BouncyCastle unless another provider is asked for.
+ *
+ * <p>Looking up the provider and setting up a <code>Cipher</code>, <code>Signature</code>
+ * or <code>MessageDigest</code> is expensive compared to the small inputs of most EBICS
+ * operations. The engines are therefore pooled per provider and algorithm and reused. An
+ * engine remembers the key it was last initialized with, so it is not initialized again when
+ * it is borrowed for the same key, as is the case for the long lived user and bank keys. An
+ * idle engine already initialized for the key is borrowed before any other.
+ * This key is only weakly referenced: a pooled engine does not keep a key alive, and it is
+ * initialized again once its key is no longer used elsewhere.
+ *
+ * <p>The engines are pooled rather than kept per thread since the transfers run on
+ * virtual threads, that live for a single task.
+ *
+ * <p>Engines handed to streams, like the order data cipher streams, must not be taken
+ * from this pool since they outlive the call.
+ */
+public final class CryptoEngines {
+
+    /**
+     * The maximum idle engines kept for one algorithm.
+     */
+    private static final int MAX_POOLED = 32;
+
+    private static final Map<String, BlockingQueue<Engine<Cipher>>> ciphers = new ConcurrentHashMap<>();
+    private static final Map<String, BlockingQueue<Engine<Signature>>> signatures = new ConcurrentHashMap<>();
+    private static final Map<String, BlockingQueue<Engine<MessageDigest>>> digests = new ConcurrentHashMap<>();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder initTime = new LongAdder();
+
+    private CryptoEngines() {
+    }
+
+    /**
+     * An operation performed with a borrowed engine.
+     *
+     * @param <E> the engine type
+     * @param <R> the operation result type
+     */
+    @FunctionalInterface
+    public interface Operation<E, R> {
+
+        /**
+         * Performs the operation.
+         *
+         * @param engine the initialized engine
+         * @return the operation result
+         * @throws GeneralSecurityException the operation fails
+         */
+        R apply(E engine) throws GeneralSecurityException;
+    }
+
+    /**
+     * Performs an operation with a pooled cipher.
+     *
+     * @param transformation the cipher transformation
+     * @param mode           the cipher mode
+     * @param key            the cipher key
+     * @param params         the algorithm parameters, may be null
+     * @param operation      the operation to perform
+     * @return the operation result
+     * @throws GeneralSecurityException the cipher cannot be created or the operation fails
+     */
+    public static <R> R withCipher(String transformation,
+                                   int mode,
+                                   Key key,
+                                   AlgorithmParameterSpec params,
+                                   Operation<Cipher, R> operation)
+            throws GeneralSecurityException {
+        return withCipher(transformation, BouncyCastleProvider.PROVIDER_NAME, mode, key, params, operation);
+    }
+
+    /**
+     * Performs an operation with a pooled cipher of the given provider.
+     *
+     * @param transformation the cipher transformation
+     * @param provider       the security provider name
+     * @param mode           the cipher mode
+     * @param key            the cipher key
+     * @param params         the algorithm parameters, may be null
+     * @param operation      the operation to perform
+     * @return the operation result
+     * @throws GeneralSecurityException the cipher cannot be created or the operation fails
+     */
+    public static <R> R withCipher(String transformation,
+                                   String provider,
+                                   int mode,
+                                   Key key,
+                                   AlgorithmParameterSpec params,
+                                   Operation<Cipher, R> operation)
+            throws GeneralSecurityException {
+        BlockingQueue<Engine<Cipher>> pool;
+        Engine<Cipher> engine;
+        R result;
+
+        pool = ciphers.computeIfAbsent(provider + ":" + transformation, t -> new LinkedBlockingQueue<>(MAX_POOLED));
+        engine = borrow(pool, key, mode, params, () -> Cipher.getInstance(transformation, provider));
+        initialize(engine, key, mode, params, cipher -> {
+            if (params == null) {
+                cipher.init(mode, key);
+            } else {
+                cipher.init(mode, key, params);
+            }
+        });
+
+        result = operation.apply(engine.engine);
+        pool.offer(engine);
+        return result;
+    }
+
+    /**
+     * Signs the given input with a pooled signature engine.
+     *
+     * @param algorithm the signature algorithm
+     * @param key       the private key
+     * @param input     the input to sign
+     * @return the signature
+     * @throws GeneralSecurityException the signature fails
+     */
+    public static byte[] sign(String algorithm, PrivateKey key, byte[] input) throws GeneralSecurityException {
+        BlockingQueue<Engine<Signature>> pool;
+        Engine<Signature> engine;
+        byte[] signature;
+
+        pool = signatures.computeIfAbsent(algorithm, a -> new LinkedBlockingQueue<>(MAX_POOLED));
+        engine = borrow(pool, key, 0, null, () -> Signature.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME));
+        initialize(engine, key, 0, null, signer -> signer.initSign(key));
+        engine.engine.update(input);
+        signature = engine.engine.sign();
+        pool.offer(engine);
+        return signature;
+    }
+
+    /**
+     * Digests the given input with a pooled message digest.
+     *
+     * @param algorithm the digest algorithm
+     * @param input     the input to digest
+     * @return the digest value
+     * @throws GeneralSecurityException the algorithm is not available
+     */
+    public static byte[] digest(String algorithm, byte[] input) throws GeneralSecurityException {
+        BlockingQueue<Engine<MessageDigest>> pool;
+        Engine<MessageDigest> engine;
+        byte[] digest;
+
+        pool = digests.computeIfAbsent(algorithm, a -> new LinkedBlockingQueue<>(MAX_POOLED));
+        engine = borrow(pool, null, 0, null, () -> MessageDigest.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME));
+        initialize(engine, null, 0, null, messageDigest -> {});
+
+        digest = engine.engine.digest(input);
+        pool.offer(engine);
+        return digest;
+    }
+
+    /**
+     * Takes an idle engine from the pool, preferably one initialized for
+     * the given key, mode and parameters, or creates one.
+     */
+    private static <E> Engine<E> borrow(BlockingQueue<Engine<E>> pool,
+                                        Key key,
+                                        int mode,
+                                        AlgorithmParameterSpec params,
+                                        Factory<E> factory)
+            throws GeneralSecurityException {
+        Engine<E> engine;
+
+        for (Engine<E> idle : pool) {
+            if (idle.isInitialized(key, mode, params) && pool.remove(idle)) {
+                return idle;
+            }
+        }
+        engine = pool.poll();
+        if (engine == null) {
+            long start = System.nanoTime();
+
+            engine = new Engine<>(factory.create());
+            initTime.add(System.nanoTime() - start);
+        }
+
+        return engine;
+    }
+
+    /**
+     * Initializes the engine unless it already is for the given key, mode and parameters.
+     * A new engine is never initialized, so its first use is always a miss.
+     */
+    private static <E> void initialize(Engine<E> engine,
+                                       Key key,
+                                       int mode,
+                                       AlgorithmParameterSpec params,
+                                       Initializer<E> initializer)
+            throws GeneralSecurityException {
+        if (engine.isInitialized(key, mode, params)) {
+            hits.increment();
+        } else {
+            long start = System.nanoTime();
+
+            misses.increment();
+            initializer.init(engine.engine);
+            engine.initialized(key, mode, params);
+            initTime.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the number of times a pooled engine was reused
+     * without being initialized again.
+     *
+     * @return the cache hits
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of times a new engine was used, or
+     * a pooled one had to be initialized with another key.
+     *
+     * @return the cache misses
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the total time spent creating and initializing engines.
+     *
+     * @return the initialization time in nanoseconds
+     */
+    public static long getInitTime() {
+        return initTime.sum();
+    }
+
+    @FunctionalInterface
+    private interface Factory<E> {
+
+        E create() throws GeneralSecurityException;
+    }
+
+    @FunctionalInterface
+    private interface Initializer<E> {
+
+        void init(E engine) throws GeneralSecurityException;
+    }
+
+    /**
+     * A pooled engine and the key it was last initialized with.
+     * An engine whose operation failed is not returned to the pool,
+     * since its state is then unknown.
+     *
+     * <p>The key is weakly referenced, so that the pool does not keep the
+     * keys of the users and transactions it served. An engine without a key,
+     * like a message digest, is initialized once when it is created.
+     */
+    private static final class Engine<E> {
+
+        private final E engine;
+        private boolean initialized;
+        private WeakReference<Key> key;
+        private int mode;
+        private AlgorithmParameterSpec params;
+
+        Engine(E engine) {
+            this.engine = engine;
+        }
+
+        boolean isInitialized(Key key, int mode, AlgorithmParameterSpec params) {
+            return initialized
+                   && (key == null ? this.key == null : this.key != null && this.key.get() == key)
+                   && this.mode == mode
+                   && this.params == params;
+        }
+
+        void initialized(Key key, int mode, AlgorithmParameterSpec params) {
+            this.initialized = true;
+            this.key = key == null ? null : new WeakReference<>(key);
+            this.mode = mode;
+            this.params = params;
+        }
+    }
+}
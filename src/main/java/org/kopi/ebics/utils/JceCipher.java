@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.SymmetricCipher;
+import org.kopi.ebics.io.BufferPool;
+
+
+/**
+ * The symmetric cipher of the JDK: the <code>SunJCE</code> AES in CBC mode
+ * without padding, the ISO 10126 padding being done here.
+ *
+ * <p>The JVM compiles the <code>SunJCE</code> AES to the AES instructions of
+ * the processor, where BouncyCastle runs its own Java implementation. This
+ * cipher is therefore much faster on large order data.
+ *
+ * <p>The output is the one of the {@link BouncyCastleCipher}: all the
+ * blocks but the last are the same, and the last block only differs by the
+ * random bytes of the padding. Each cipher decrypts what the other encrypts.
+ *
+ * @author hachani
+ */
+public class JceCipher implements SymmetricCipher {
+
+    private static final String PROVIDER = "SunJCE";
+    private static final String TRANSFORMATION = "AES/CBC/NoPadding";
+    private static final int BLOCK_SIZE = 16;
+    private static final int BUFFER_SIZE = 8192;
+    private static final IvParameterSpec ZERO_IV = new IvParameterSpec(new byte[BLOCK_SIZE]);
+
+    @Override
+    public byte[] encrypt(byte[] input, SecretKeySpec keySpec) throws EbicsException {
+        int length = input.length - input.length % BLOCK_SIZE;
+        byte[] last = padding(input.length);
+        byte[] output = new byte[length + BLOCK_SIZE];
+
+        System.arraycopy(input, length, last, 0, input.length - length);
+        try {
+            CryptoEngines.withCipher(TRANSFORMATION, PROVIDER, Cipher.ENCRYPT_MODE, aesKey(keySpec), ZERO_IV, cipher -> {
+                cipher.update(input, 0, length, output, 0);
+                return cipher.doFinal(last, 0, BLOCK_SIZE, output, length);
+            });
+        } catch (GeneralSecurityException e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
+
+        return output;
+    }
+
+    @Override
+    public OutputStream encrypt(OutputStream output, SecretKeySpec keySpec) throws EbicsException {
+        return new FilterOutputStream(new CipherOutputStream(output, createCipher(Cipher.ENCRYPT_MODE, keySpec))) {
+
+            private long count;
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                count += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                byte[] padding;
+
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+                padding = padding(count);
+                out.write(padding, (int) (count % BLOCK_SIZE), BLOCK_SIZE - (int) (count % BLOCK_SIZE));
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * Decrypts the last block first, with the previous block as initialization
+     * vector, so that the output is allocated once with its unpadded length.
+     */
+    @Override
+    public byte[] decrypt(byte[] input, SecretKeySpec keySpec) throws EbicsException {
+        int length = input.length;
+        SecretKeySpec key;
+        byte[] last;
+        byte[] output;
+        int padding;
+
+        if (length == 0 || length % BLOCK_SIZE != 0) {
+            throw new EbicsException("The encrypted data is not a multiple of the block size");
+        }
+
+        key = aesKey(keySpec);
+        try {
+            last = CryptoEngines.withCipher(TRANSFORMATION,
+                    PROVIDER,
+                    Cipher.DECRYPT_MODE,
+                    key,
+                    length == BLOCK_SIZE ? ZERO_IV : new IvParameterSpec(input, length - 2 * BLOCK_SIZE, BLOCK_SIZE),
+                    cipher -> cipher.doFinal(input, length - BLOCK_SIZE, BLOCK_SIZE));
+            padding = paddingLength(last, BLOCK_SIZE);
+            output = new byte[length - padding];
+            CryptoEngines.withCipher(TRANSFORMATION, PROVIDER, Cipher.DECRYPT_MODE, key, ZERO_IV,
+                    cipher -> cipher.doFinal(input, 0, length - BLOCK_SIZE, output, 0));
+        } catch (GeneralSecurityException | IOException e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
+        System.arraycopy(last, 0, output, length - BLOCK_SIZE, BLOCK_SIZE - padding);
+
+        return output;
+    }
+
+    @Override
+    public OutputStream decrypt(OutputStream output, SecretKeySpec keySpec) throws EbicsException {
+        return new DecryptingOutputStream(output, createCipher(Cipher.DECRYPT_MODE, keySpec));
+    }
+
+    /**
+     * Returns a padding block for data of the given length: random bytes
+     * ending with the number of padding bytes, from 1 to the block size.
+     * The padding bytes are the last ones of the block.
+     */
+    private static byte[] padding(long length) {
+        byte[] block = new byte[BLOCK_SIZE];
+
+        Utils.secureRandom.nextBytes(block);
+        block[BLOCK_SIZE - 1] = (byte) (BLOCK_SIZE - length % BLOCK_SIZE);
+        return block;
+    }
+
+    /**
+     * Returns the number of padding bytes ending the given decrypted data.
+     */
+    private static int paddingLength(byte[] data, int length) throws IOException {
+        int padding = length == 0 ? 0 : data[length - 1] & 0xff;
+
+        if (padding < 1 || padding > BLOCK_SIZE) {
+            throw new IOException("pad block corrupted");
+        }
+
+        return padding;
+    }
+
+    /**
+     * The AES key of a transaction key. The transaction keys are created
+     * as <code>AES</code> keys, which <code>SunJCE</code> requires. A key of
+     * another algorithm is converted on each call, and the pooled engine is
+     * then initialized again since it is only reused for the same key instance.
+     */
+    private static SecretKeySpec aesKey(SecretKeySpec keySpec) {
+        if ("AES".equalsIgnoreCase(keySpec.getAlgorithm())) {
+            return keySpec;
+        }
+
+        return new SecretKeySpec(keySpec.getEncoded(), "AES");
+    }
+
+    /**
+     * Creates a cipher for a stream, which outlives the call
+     * and is therefore not taken from the pooled engines.
+     */
+    private static Cipher createCipher(int mode, SecretKeySpec keySpec) throws EbicsException {
+        Cipher cipher;
+
+        try {
+            cipher = Cipher.getInstance(TRANSFORMATION, PROVIDER);
+            cipher.init(mode, aesKey(keySpec), ZERO_IV);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A stream decrypting the data written to it. The last decrypted block
+     * is held back until the stream is closed, since it ends with the padding.
+     */
+    private static final class DecryptingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final Cipher cipher;
+        private byte[] buffer;
+        private int held;
+        private boolean closed;
+
+        DecryptingOutputStream(OutputStream out, Cipher cipher) {
+            this.out = out;
+            this.cipher = cipher;
+            buffer = BufferPool.acquire(BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int count;
+
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+
+            ensureCapacity(held + cipher.getOutputSize(len));
+            try {
+                count = held + cipher.update(b, off, len, buffer, held);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            if (count > BLOCK_SIZE) {
+                out.write(buffer, 0, count - BLOCK_SIZE);
+                System.arraycopy(buffer, count - BLOCK_SIZE, buffer, 0, BLOCK_SIZE);
+                held = BLOCK_SIZE;
+            } else {
+                held = count;
+            }
+        }
+
+        /**
+         * Decrypts the remaining input, which must end a block,
+         * removes the padding and closes the underlying output.
+         */
+        @Override
+        public void close() throws IOException {
+            int count;
+
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            try {
+                ensureCapacity(held + cipher.getOutputSize(0));
+                count = held + cipher.doFinal(buffer, held);
+                out.write(buffer, 0, count - paddingLength(buffer, count));
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                BufferPool.release(buffer);
+                buffer = null;
+                out.close();
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (buffer.length < capacity) {
+                byte[] larger = BufferPool.acquire(capacity);
+
+                System.arraycopy(buffer, 0, larger, 0, held);
+                BufferPool.release(buffer);
+                buffer = larger;
+            }
+        }
+    }
+}
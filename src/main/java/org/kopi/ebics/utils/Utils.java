@@ -22,30 +22,38 @@ package org.kopi.ebics.utils;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.c14n.InvalidCanonicalizerException;
 import org.apache.xml.security.utils.IgnoreAllErrorHandler;
-import org.apache.xpath.XPathAPI;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.HttpStatusException;
+import org.kopi.ebics.io.BufferPool;
+import org.kopi.ebics.io.ParallelDeflaterOutputStream;
 import org.kopi.ebics.messages.Messages;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.traversal.NodeIterator;
 
 
 /**
@@ -57,10 +65,28 @@ public final class Utils {
 
     public static final SecureRandom secureRandom = new SecureRandom();
 
+    /**
+     * Buffer size used by the streaming compression and encryption.
+     */
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    /**
+     * The order data cipher and its zero initialization vector.
+     */
+    private static final String SYMMETRIC_CIPHER = "AES/CBC/ISO10126Padding";
+    private static final IvParameterSpec ZERO_IV = new IvParameterSpec(new byte[16]);
+
     static {
         org.apache.xml.security.Init.init();
     }
 
+    /**
+     * Document builders and canonicalizers are not thread safe but are
+     * expensive to create, so each thread keeps its own.
+     */
+    private static final ThreadLocal<DocumentBuilder> documentBuilder = ThreadLocal.withInitial(Utils::newDocumentBuilder);
+    private static final ThreadLocal<Canonicalizer> canonicalizer = ThreadLocal.withInitial(Utils::newCanonicalizer);
+
     private Utils() {
     }
 
@@ -86,8 +112,8 @@ public final class Utils {
         byte[] buffer;
 
         output = new ByteArrayOutputStream(toZip.length);
-        buffer = new byte[1024];
-        compressor = new Deflater(Deflater.BEST_COMPRESSION);
+        buffer = BufferPool.acquire(STREAM_BUFFER_SIZE);
+        compressor = BufferPool.acquireDeflater(Deflater.BEST_COMPRESSION, false);
         compressor.setInput(toZip);
         compressor.finish();
 
@@ -101,11 +127,85 @@ public final class Utils {
         } catch (IOException e) {
             throw new EbicsException(e.getMessage(), e);
         }
-        compressor.end();
+        BufferPool.release(compressor, Deflater.BEST_COMPRESSION, false);
+        BufferPool.release(buffer);
 
         return output.toByteArray();
     }
 
+    /**
+     * Returns a stream that compresses everything written to it into
+     * the given output, using the same algorithm and level as
+     * {@link #zip(byte[]) zip(byte[])}.
+     *
+     * <p>Closing the returned stream finishes the compression, releases
+     * the native compressor to the {@link BufferPool} and closes the
+     * underlying output.
+     *
+     * @param output the output receiving the compressed data
+     * @return the compressing stream
+     */
+    public static OutputStream zip(OutputStream output) {
+        return zip(output, Deflater.BEST_COMPRESSION, 1);
+    }
+
+    /**
+     * Returns a stream that compresses everything written to it into
+     * the given output with the given level. With more than one thread
+     * the input is compressed by blocks in parallel, still producing a
+     * single zlib stream.
+     *
+     * @param output  the output receiving the compressed data
+     * @param level   the compression level, from 0 to 9
+     * @param threads the number of threads compressing the data
+     * @return the compressing stream
+     * @see ParallelDeflaterOutputStream
+     */
+    public static OutputStream zip(OutputStream output, int level, int threads) {
+        return zip(output, level, threads, null);
+    }
+
+    /**
+     * Returns a stream that compresses everything written to it into
+     * the given output with the given level. With more than one thread
+     * the input is compressed by blocks in parallel on the given pool.
+     *
+     * @param output  the output receiving the compressed data
+     * @param level   the compression level, from 0 to 9
+     * @param threads the number of threads compressing the data
+     * @param pool    the workers compressing the blocks, null for the common pool
+     * @return the compressing stream
+     * @see ParallelDeflaterOutputStream
+     */
+    public static OutputStream zip(OutputStream output, int level, int threads, ExecutorService pool) {
+        if (threads > 1) {
+            return pool == null
+                    ? new ParallelDeflaterOutputStream(output, level, threads)
+                    : new ParallelDeflaterOutputStream(output, level, threads, pool);
+        }
+
+        return new DeflaterOutputStream(output, BufferPool.acquireDeflater(level, false), STREAM_BUFFER_SIZE) {
+
+            private boolean released;
+
+            @Override
+            public void close() throws IOException {
+                if (released) {
+                    return;
+                }
+
+                released = true;
+                try {
+                    super.close();
+                } catch (IOException | RuntimeException e) {
+                    def.end();
+                    throw e;
+                }
+                BufferPool.release(def, level, false);
+            }
+        };
+    }
+
     /**
      * Generates a random nonce.
      *
@@ -150,10 +250,10 @@ public final class Utils {
         ByteArrayOutputStream output;
         byte[] buf;
 
-        decompressor = new Inflater();
+        decompressor = BufferPool.acquireInflater();
         output = new ByteArrayOutputStream(zip.length);
         decompressor.setInput(zip);
-        buf = new byte[1024];
+        buf = BufferPool.acquire(STREAM_BUFFER_SIZE);
 
         while (!decompressor.finished()) {
             int count;
@@ -161,6 +261,7 @@ public final class Utils {
             try {
                 count = decompressor.inflate(buf);
             } catch (DataFormatException e) {
+                decompressor.end();
                 throw new EbicsException(e.getMessage(), e);
             }
             output.write(buf, 0, count);
@@ -172,11 +273,51 @@ public final class Utils {
             throw new EbicsException(e.getMessage(), e);
         }
 
-        decompressor.end();
+        BufferPool.release(decompressor);
+        BufferPool.release(buf);
 
         return output.toByteArray();
     }
 
+    /**
+     * Returns a stream that uncompresses everything written to it into
+     * the given output. This is the streaming form of {@link #unzip(byte[]) unzip(byte[])}.
+     *
+     * <p>Closing the returned stream releases the native decompressor to the
+     * {@link BufferPool} and closes the underlying output. It fails if the written data does not
+     * end with a complete compressed block.
+     *
+     * @param output the output receiving the uncompressed data
+     * @return the uncompressing stream
+     */
+    public static OutputStream unzip(OutputStream output) {
+        return new InflaterOutputStream(output, BufferPool.acquireInflater(), STREAM_BUFFER_SIZE) {
+
+            private boolean released;
+
+            @Override
+            public void close() throws IOException {
+                if (released) {
+                    return;
+                }
+
+                released = true;
+                try {
+                    finish();
+                    if (!inf.finished()) {
+                        throw new IOException("Unexpected end of ZLIB input stream");
+                    }
+                    super.close();
+                } catch (IOException | RuntimeException e) {
+                    inf.end();
+                    out.close();
+                    throw e;
+                }
+                BufferPool.release(inf);
+            }
+        };
+    }
+
     /**
      * Canonizes an input with inclusive c14n without comments algorithm.
      *
@@ -189,43 +330,106 @@ public final class Utils {
      * need to be signed.
      *
      * <p>Thus, All the Elements with the attribute authenticate = true and their
-     * sub elements are considered for the canonization process. This is performed
-     * via the {@link XPathAPI#selectNodeIterator(Node, String) selectNodeIterator(Node, String)}.
+     * sub elements are considered for the canonization process.
      *
      * @param input the byte array XML input.
      * @return the canonized form of the given XML
      * @throws EbicsException
      */
     public static byte[] canonize(byte[] input) throws EbicsException {
-        DocumentBuilderFactory factory;
-        DocumentBuilder builder;
-        Document document;
-        NodeIterator iter;
+        return canonize(parse(input));
+    }
+
+    /**
+     * Canonizes the authenticated elements of an already parsed XML document.
+     * The elements are visited in document order, like the
+     * <code>//*[@authenticate='true']</code> XPath expression would select them.
+     *
+     * @param document the parsed XML document.
+     * @return the canonized form of the authenticated elements
+     * @throws EbicsException
+     * @see #canonize(byte[])
+     */
+    public static byte[] canonize(Document document) throws EbicsException {
         ByteArrayOutputStream output;
-        Node node;
 
+        output = new ByteArrayOutputStream();
+        canonize(document.getDocumentElement(), output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Canonizes a single subtree with inclusive c14n without comments algorithm.
+     *
+     * @param node the subtree root
+     * @return the canonized subtree
+     * @throws EbicsException
+     */
+    public static byte[] canonizeSubtree(Node node) throws EbicsException {
         try {
-            factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            factory.setValidating(true);
-            builder = factory.newDocumentBuilder();
-            builder.setErrorHandler(new IgnoreAllErrorHandler());
-            document = builder.parse(new ByteArrayInputStream(input));
-            iter = XPathAPI.selectNodeIterator(document, "//*[@authenticate='true']");
-            output = new ByteArrayOutputStream();
-            while ((node = iter.nextNode()) != null) {
-                Canonicalizer canonicalizer;
-
-                canonicalizer = Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS);
-                output.write(canonicalizer.canonicalizeSubtree(node));
-            }
+            return canonicalizer.get().canonicalizeSubtree(node);
+        } catch (Exception e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses an XML input with the namespace aware document builder of the
+     * current thread.
+     *
+     * @param input the byte array XML input.
+     * @return the parsed document
+     * @throws EbicsException
+     */
+    public static Document parse(byte[] input) throws EbicsException {
+        DocumentBuilder builder;
 
-            return output.toByteArray();
+        try {
+            builder = documentBuilder.get();
+            builder.reset();
+            builder.setErrorHandler(new IgnoreAllErrorHandler());
+            return builder.parse(new ByteArrayInputStream(input));
         } catch (Exception e) {
             throw new EbicsException(e.getMessage(), e);
         }
     }
 
+    private static void canonize(Element element, OutputStream output) throws EbicsException {
+        if ("true".equals(element.getAttribute("authenticate"))) {
+            try {
+                output.write(canonizeSubtree(element));
+            } catch (IOException e) {
+                throw new EbicsException(e.getMessage(), e);
+            }
+        }
+
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                canonize((Element) child, output);
+            }
+        }
+    }
+
+    private static DocumentBuilder newDocumentBuilder() {
+        DocumentBuilderFactory factory;
+
+        try {
+            factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            return factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static Canonicalizer newCanonicalizer() {
+        try {
+            return Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS);
+        } catch (InvalidCanonicalizerException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
     /**
      * Encrypts an input with a given key spec.
      *
@@ -260,6 +464,26 @@ public final class Utils {
         return encryptOrDecrypt(Cipher.ENCRYPT_MODE, input, keySpec);
     }
 
+    /**
+     * Returns a stream that encrypts everything written to it into the
+     * given output. The produced bytes are the same as the ones returned by
+     * {@link #encrypt(byte[], SecretKeySpec) encrypt(byte[], SecretKeySpec)}
+     * for the whole written content.
+     *
+     * <p>Closing the returned stream writes the final padded block and
+     * closes the underlying output. A failure of the cipher is thrown by
+     * the write or the close that caused it.
+     *
+     * @param output  the output receiving the encrypted data
+     * @param keySpec the key spec
+     * @return the encrypting stream
+     * @throws EbicsException
+     */
+    public static OutputStream encrypt(OutputStream output, SecretKeySpec keySpec)
+            throws EbicsException {
+        return new CipherStream(output, createCipher(Cipher.ENCRYPT_MODE, keySpec));
+    }
+
     /**
      * Decrypts the given input according to key spec.
      *
@@ -273,6 +497,26 @@ public final class Utils {
         return encryptOrDecrypt(Cipher.DECRYPT_MODE, input, keySpec);
     }
 
+    /**
+     * Returns a stream that decrypts everything written to it into the
+     * given output. This is the streaming form of
+     * {@link #decrypt(byte[], SecretKeySpec) decrypt(byte[], SecretKeySpec)}.
+     *
+     * <p>Closing the returned stream removes the padding of the last block
+     * and closes the underlying output. A truncated or corrupt input makes
+     * the close throw an <code>IOException</code>, where the JDK
+     * <code>CipherOutputStream</code> would drop the failure silently.
+     *
+     * @param output  the output receiving the decrypted data
+     * @param keySpec the key spec
+     * @return the decrypting stream
+     * @throws EbicsException
+     */
+    public static OutputStream decrypt(OutputStream output, SecretKeySpec keySpec)
+            throws EbicsException {
+        return new CipherStream(output, createCipher(Cipher.DECRYPT_MODE, keySpec));
+    }
+
     /**
      * Encrypts or decrypts the given input according to key spec.
      *
@@ -284,14 +528,28 @@ public final class Utils {
      */
     private static byte[] encryptOrDecrypt(int mode, byte[] input, SecretKeySpec keySpec)
             throws EbicsException {
-        IvParameterSpec iv;
+        try {
+            return CryptoEngines.withCipher(SYMMETRIC_CIPHER, mode, keySpec, ZERO_IV, cipher -> cipher.doFinal(input));
+        } catch (GeneralSecurityException e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates the symmetric cipher used for the order data.
+     *
+     * @param mode    the encryption-decryption mode.
+     * @param keySpec the key spec.
+     * @return the initialized cipher.
+     * @throws EbicsException
+     */
+    private static Cipher createCipher(int mode, SecretKeySpec keySpec) throws EbicsException {
         Cipher cipher;
 
-        iv = new IvParameterSpec(new byte[16]);
         try {
-            cipher = Cipher.getInstance("AES/CBC/ISO10126Padding", BouncyCastleProvider.PROVIDER_NAME);
-            cipher.init(mode, keySpec, iv);
-            return cipher.doFinal(input);
+            cipher = Cipher.getInstance(SYMMETRIC_CIPHER, BouncyCastleProvider.PROVIDER_NAME);
+            cipher.init(mode, keySpec, ZERO_IV);
+            return cipher;
         } catch (GeneralSecurityException e) {
             throw new EbicsException(e.getMessage(), e);
         }
@@ -320,7 +578,81 @@ public final class Utils {
     public static void checkHttpCode(int httpCode) throws EbicsException {
         if (httpCode != 200) {
             Messages messages = new Messages(Constants.APPLICATION_BUNDLE_NAME);
-            throw new EbicsException(messages.getString("http.code.error", httpCode));
+            throw new HttpStatusException(httpCode, messages.getString("http.code.error", httpCode));
+        }
+    }
+
+    /**
+     * A stream encrypting or decrypting the data written to it with the
+     * given cipher. Unlike <code>CipherOutputStream</code>, it reports the
+     * failures of the final block instead of ignoring them.
+     */
+    private static final class CipherStream extends OutputStream {
+
+        private final OutputStream out;
+        private final Cipher cipher;
+        private byte[] buffer;
+        private boolean closed;
+
+        CipherStream(OutputStream out, Cipher cipher) {
+            this.out = out;
+            this.cipher = cipher;
+            buffer = BufferPool.acquire(STREAM_BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int count;
+
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+
+            ensureCapacity(cipher.getOutputSize(len));
+            try {
+                count = cipher.update(b, off, len, buffer, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            out.write(buffer, 0, count);
+        }
+
+        /**
+         * Processes the last block and closes the underlying output,
+         * throwing when the block is not a valid one.
+         */
+        @Override
+        public void close() throws IOException {
+            int count;
+
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            try {
+                ensureCapacity(cipher.getOutputSize(0));
+                count = cipher.doFinal(buffer, 0);
+                out.write(buffer, 0, count);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                BufferPool.release(buffer);
+                buffer = null;
+                out.close();
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (buffer.length < capacity) {
+                BufferPool.release(buffer);
+                buffer = BufferPool.acquire(capacity);
+            }
         }
     }
 }
@@ -28,9 +28,9 @@ import java.io.PrintStream;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.namespace.QName;
 
@@ -56,7 +56,8 @@ public abstract class DefaultEbicsRootElement<T extends XmlObject> implements Eb
 
     private static final long serialVersionUID = -3928957097145095177L;
 
-    private static final Map<String, String> suggestedPrefixes = new HashMap<>();
+    // the element may be serialized by a trace writer while it is sent
+    private final Map<String, String> suggestedPrefixes = new ConcurrentHashMap<>();
     protected T document;
     protected EbicsSession session;
 
@@ -67,11 +68,6 @@ public abstract class DefaultEbicsRootElement<T extends XmlObject> implements Eb
      */
     protected DefaultEbicsRootElement(EbicsSession session) {
         this.session = session;
-        //is this really necessary ?
-        if (!suggestedPrefixes.isEmpty()) {
-            LOGGER.debug("Is this really wanted behaviour to be in this clear method?");
-            suggestedPrefixes.clear();
-        }
     }
 
     /**
@@ -87,7 +83,7 @@ public abstract class DefaultEbicsRootElement<T extends XmlObject> implements Eb
      * @param uri    the namespace URI
      * @param prefix the namespace URI prefix
      */
-    protected static void setSaveSuggestedPrefixes(String uri, String prefix) {
+    protected void setSaveSuggestedPrefixes(String uri, String prefix) {
         LOGGER.debug("Setting suggested prefixes {} for {}", prefix, uri);
         suggestedPrefixes.put(uri, prefix);
     }
@@ -114,6 +110,8 @@ public abstract class DefaultEbicsRootElement<T extends XmlObject> implements Eb
 
     /**
      * Prints a pretty XML document using jdom framework.
+     * This is meant for traces only; the requests are sent
+     * in the form written by {@link #writeTo(OutputStream)}.
      *
      * @return the pretty XML document.
      * @throws EbicsException pretty print fails
@@ -165,14 +163,50 @@ public abstract class DefaultEbicsRootElement<T extends XmlObject> implements Eb
         return new String(toByteArray());
     }
 
-    @Override
-    public byte[] toByteArray() {
+    /**
+     * Prepares the document before it is serialized, for example by
+     * setting the suggested prefixes of its namespaces.
+     */
+    protected void beforeSave() {
+        // nothing to prepare by default
+    }
+
+    /**
+     * Returns the options used to serialize the document.
+     *
+     * @return the save options.
+     */
+    private XmlOptions getSaveOptions() {
         XmlOptions options;
 
         options = new XmlOptions();
         options.setSavePrettyPrint();
         options.setSaveSuggestedPrefixes(suggestedPrefixes);
-        return document.xmlText(options).getBytes();
+        return options;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        beforeSave();
+        return document.xmlText(getSaveOptions()).getBytes();
+    }
+
+    /**
+     * Writes the element to the given output in a single XMLBeans pass.
+     * This is the wire form of the element: it is laid out exactly like
+     * {@link #toByteArray()}, from which the digests are computed, and it is
+     * preceded by the XML declaration.
+     *
+     * @param out the output stream
+     * @throws EbicsException the element cannot be written
+     */
+    public void writeTo(OutputStream out) throws EbicsException {
+        beforeSave();
+        try {
+            document.save(out, getSaveOptions());
+        } catch (IOException e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
     }
 
 
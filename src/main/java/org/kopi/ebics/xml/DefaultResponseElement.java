@@ -20,6 +20,8 @@
 package org.kopi.ebics.xml;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 
 import org.apache.xmlbeans.XmlException;
 import org.apache.xmlbeans.XmlObject;
@@ -43,6 +45,7 @@ public abstract class DefaultResponseElement<T extends XmlObject> extends Defaul
     protected ContentFactory factory;
     protected ReturnCode
             returnCode;
+    private transient DocumentFactory<T> documentFactory;
 
     /**
      * Constructs a new ebics response element.
@@ -61,13 +64,41 @@ public abstract class DefaultResponseElement<T extends XmlObject> extends Defaul
      * @throws EbicsException parse error
      */
     protected void parse(DocumentFactory<T> documentFactory) throws EbicsException {
-        try {
-            document = documentFactory.parse(factory.getContent());
+        try (InputStream in = factory.getContent()) {
+            document = documentFactory.parse(in);
         } catch (XmlException | IOException e) {
             throw new EbicsException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Defers the XMLBeans parsing of the content until the document is
+     * serialized, that is until the response is traced. The response
+     * fields are read with a {@link ResponseReader} instead.
+     *
+     * @param documentFactory the document factory
+     */
+    protected void parseLazily(DocumentFactory<T> documentFactory) {
+        this.documentFactory = documentFactory;
+    }
+
+    @Override
+    protected void beforeSave() {
+        if (document == null && documentFactory != null) {
+            try {
+                parse(documentFactory);
+            } catch (EbicsException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void print(PrintStream stream) {
+        beforeSave();
+        super.print(stream);
+    }
+
     /**
      * Reports the return code to the user.
      *
@@ -83,6 +114,15 @@ public abstract class DefaultResponseElement<T extends XmlObject> extends Defaul
         }
     }
 
+    /**
+     * Returns the content factory the response is read from.
+     *
+     * @return the raw response content
+     */
+    public ContentFactory getContentFactory() {
+        return factory;
+    }
+
     @Override
     public String getName() {
         return name + ".xml";
@@ -19,16 +19,23 @@
 
 package org.kopi.ebics.xml;
 
+import java.io.ByteArrayOutputStream;
+
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.exception.NoDownloadDataAvailableException;
 import org.kopi.ebics.exception.ReturnCode;
 import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.interfaces.EbicsOrderType;
+import org.kopi.ebics.schema.h005.EbicsResponseDocument;
 
 /**
  * The <code>DInitializationResponseElement</code> is the response element
  * for ebics downloads initializations.
  *
+ * <p>Like the {@link DownloadTransferResponseElement}, the response is
+ * read with a {@link ResponseReader} and the XMLBeans document is only
+ * built if the response is traced.
+ *
  * @author Hachani
  */
 public class DownloadInitializationResponseElement extends InitializationResponseElement {
@@ -55,8 +62,7 @@ public class DownloadInitializationResponseElement extends InitializationRespons
     }
 
     @Override
-    protected void processBodyReturnCode() throws EbicsException {
-        String bodyRetCode = response.getBody().getReturnCode().getStringValue();
+    protected void processBodyReturnCode(String bodyRetCode) throws EbicsException {
         returnCode = ReturnCode.toReturnCode(bodyRetCode, "");
         if (returnCode.equals(ReturnCode.EBICS_NO_DOWNLOAD_DATA_AVAILABLE)) {
             throw new NoDownloadDataAvailableException();
@@ -67,12 +73,22 @@ public class DownloadInitializationResponseElement extends InitializationRespons
 
     @Override
     public void build() throws EbicsException {
-        super.build();
-        numSegments = (int) response.getHeader().getStatic().getNumSegments();
-        segmentNumber = (int) response.getHeader().getMutable().getSegmentNumber().getLongValue();
-        lastSegment = response.getHeader().getMutable().getSegmentNumber().getLastSegment();
-        transactionKey = response.getBody().getDataTransfer().getDataEncryptionInfo().getTransactionKey();
-        orderData = response.getBody().getDataTransfer().getOrderData().getByteArrayValue();
+        ResponseReader reader;
+        ByteArrayOutputStream output;
+
+        reader = new ResponseReader(factory);
+        output = new ByteArrayOutputStream();
+        reader.read(output);
+        parseLazily(EbicsResponseDocument.Factory);
+        returnCode = ReturnCode.toReturnCode(reader.getReturnCode(), reader.getReportText());
+        checkReturnCode(returnCode);
+        processBodyReturnCode(reader.getBodyReturnCode());
+        transactionId = reader.getTransactionId();
+        numSegments = reader.getNumSegments();
+        segmentNumber = reader.getSegmentNumber();
+        lastSegment = reader.isLastSegment();
+        transactionKey = reader.getTransactionKey();
+        orderData = output.toByteArray();
     }
 
     /**
@@ -19,20 +19,37 @@
 
 package org.kopi.ebics.xml;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.ReturnCode;
 import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.interfaces.EbicsOrderType;
+import org.kopi.ebics.io.PooledOutputStream;
+import org.kopi.ebics.schema.h005.EbicsResponseDocument;
 
 /**
  * The <code>DTransferResponseElement</code> is the response element
  * for all ebics downloads transfers.
  *
+ * <p>The response is read with a {@link ResponseReader}: the order data
+ * is decoded while the response is parsed and the XMLBeans document is
+ * only built if the response is traced. The order data is either kept
+ * or written to an output stream, like the one of a joiner.
+ *
+ * <p>The body return code follows the order data in the response, so the
+ * order data is decoded into a pooled buffer and only written to the output
+ * once the header and body return codes are checked: an error response
+ * never writes to the output.
+ *
  * @author Hachani
  */
 public class DownloadTransferResponseElement extends TransferResponseElement {
 
     private static final long serialVersionUID = -3317833033395561745L;
 
+    private final transient OutputStream output;
     private byte[] orderData;
 
     /**
@@ -45,21 +62,68 @@ public class DownloadTransferResponseElement extends TransferResponseElement {
     public DownloadTransferResponseElement(ContentFactory factory,
                                            EbicsOrderType orderType,
                                            String name) {
+        this(factory, orderType, name, null);
+    }
+
+    /**
+     * Constructs a new <code>DTransferResponseElement</code> object
+     * decoding the order data to the given output, which is not closed.
+     * The order data is then not kept.
+     *
+     * @param factory   the content factory
+     * @param orderType the order type
+     * @param name      the element name.
+     * @param output    the output of the decoded order data
+     */
+    public DownloadTransferResponseElement(ContentFactory factory,
+                                           EbicsOrderType orderType,
+                                           String name,
+                                           OutputStream output) {
         super(factory, name);
+        this.output = output;
     }
 
 
     @Override
     public void build() throws EbicsException {
-        super.build();
+        ResponseReader reader;
+        PooledOutputStream buffer;
 
-        orderData = response.getBody().getDataTransfer().getOrderData().getByteArrayValue();
+        reader = new ResponseReader(factory);
+        buffer = new PooledOutputStream();
+        try {
+            reader.read(buffer);
+            parseLazily(EbicsResponseDocument.Factory);
+            processReturnCode(reader.getReturnCode(), reader.getReportText(), reader.getSegmentNumber());
+            processBodyReturnCode(reader.getBodyReturnCode());
+            if (output == null) {
+                orderData = buffer.toByteArray();
+            } else {
+                buffer.writeTo(output);
+            }
+        } catch (IOException e) {
+            throw new EbicsException(e.getMessage(), e);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    /**
+     * Checks the return code of the response body, if any.
+     *
+     * @param code the body return code
+     * @throws EbicsException the request fails
+     */
+    private void processBodyReturnCode(String code) throws EbicsException {
+        if (code != null) {
+            checkReturnCode(ReturnCode.toReturnCode(code, ""));
+        }
     }
 
     /**
      * Returns the order data.
      *
-     * @return the order data.
+     * @return the order data, or null if it was decoded to an output.
      */
     public byte[] getOrderData() {
         return orderData;
@@ -19,6 +19,8 @@
 
 package org.kopi.ebics.xml;
 
+import java.io.OutputStream;
+
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.session.EbicsSession;
 import org.kopi.ebics.session.OrderType;
@@ -66,11 +68,18 @@ public class HIARequestElement extends DefaultEbicsRootElement {
 
     @Override
     public byte[] toByteArray() {
-        setSaveSuggestedPrefixes("http://www.ebics.org/H003", "");
+        unsecuredRequest.setSaveSuggestedPrefixes("http://www.ebics.org/H003", "");
 
         return unsecuredRequest.toByteArray();
     }
 
+    @Override
+    public void writeTo(OutputStream out) throws EbicsException {
+        unsecuredRequest.setSaveSuggestedPrefixes("http://www.ebics.org/H003", "");
+
+        unsecuredRequest.writeTo(out);
+    }
+
     @Override
     public void validate() throws EbicsException {
         unsecuredRequest.validate();
@@ -19,6 +19,8 @@
 
 package org.kopi.ebics.xml;
 
+import java.io.OutputStream;
+
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.session.EbicsSession;
 
@@ -51,15 +53,13 @@ public class HPBRequestElement extends DefaultEbicsRootElement {
     @Override
     public void build() throws EbicsException {
         SignedInfo signedInfo;
-        byte[] signature;
 
         noPubKeyDigestsRequest = new NoPubKeyDigestsRequestElement(session);
         noPubKeyDigestsRequest.build();
-        signedInfo = new SignedInfo(session.getUser(), noPubKeyDigestsRequest.getDigest());
+        signedInfo = new SignedInfo(session.getUser());
         signedInfo.build();
         noPubKeyDigestsRequest.setAuthSignature(signedInfo.getSignatureType());
-        signature = signedInfo.sign(noPubKeyDigestsRequest.toByteArray());
-        noPubKeyDigestsRequest.setSignatureValue(signature);
+        signedInfo.sign(noPubKeyDigestsRequest, noPubKeyDigestsRequest.getAuthSignature());
     }
 
 
@@ -68,6 +68,11 @@ public class HPBRequestElement extends DefaultEbicsRootElement {
         return noPubKeyDigestsRequest.toByteArray();
     }
 
+    @Override
+    public void writeTo(OutputStream out) throws EbicsException {
+        noPubKeyDigestsRequest.writeTo(out);
+    }
+
     @Override
     public void validate() throws EbicsException {
         noPubKeyDigestsRequest.validate();
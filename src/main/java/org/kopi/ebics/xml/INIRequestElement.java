@@ -19,6 +19,8 @@
 
 package org.kopi.ebics.xml;
 
+import java.io.OutputStream;
+
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.session.EbicsSession;
 import org.kopi.ebics.session.OrderType;
@@ -65,11 +67,18 @@ public class INIRequestElement extends DefaultEbicsRootElement {
 
     @Override
     public byte[] toByteArray() {
-        setSaveSuggestedPrefixes("urn:org:ebics:H005", "");
+        unsecuredRequest.setSaveSuggestedPrefixes("urn:org:ebics:H005", "");
 
         return unsecuredRequest.toByteArray();
     }
 
+    @Override
+    public void writeTo(OutputStream out) throws EbicsException {
+        unsecuredRequest.setSaveSuggestedPrefixes("urn:org:ebics:H005", "");
+
+        unsecuredRequest.writeTo(out);
+    }
+
     @Override
     public void validate() throws EbicsException {
         unsecuredRequest.validate();
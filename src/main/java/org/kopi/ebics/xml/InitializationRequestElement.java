@@ -19,20 +19,17 @@
 
 package org.kopi.ebics.xml;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.EbicsOrderType;
 import org.kopi.ebics.schema.h005.EbicsRequestDocument;
 import org.kopi.ebics.session.EbicsSession;
+import org.kopi.ebics.utils.CryptoEngines;
 import org.kopi.ebics.utils.Utils;
 
 
@@ -65,7 +62,7 @@ public abstract class InitializationRequestElement extends DefaultEbicsRootEleme
         this.type = type;
         this.name = name;
         nonce = Utils.generateNonce();
-        keySpec = new SecretKeySpec(nonce, "EAS");
+        keySpec = new SecretKeySpec(nonce, "AES");
     }
 
     @Override
@@ -73,10 +70,10 @@ public abstract class InitializationRequestElement extends DefaultEbicsRootEleme
         SignedInfo signedInfo;
 
         buildInitialization();
-        signedInfo = new SignedInfo(session.getUser(), getDigest());
+        signedInfo = new SignedInfo(session.getUser());
         signedInfo.build();
         ((EbicsRequestDocument) document).getEbicsRequest().setAuthSignature(signedInfo.getSignatureType());
-        ((EbicsRequestDocument) document).getEbicsRequest().getAuthSignature().setSignatureValue(EbicsXmlFactory.createSignatureValueType(signedInfo.sign(toByteArray())));
+        signedInfo.sign(this, ((EbicsRequestDocument) document).getEbicsRequest().getAuthSignature());
     }
 
     @Override
@@ -85,10 +82,8 @@ public abstract class InitializationRequestElement extends DefaultEbicsRootEleme
     }
 
     @Override
-    public byte[] toByteArray() {
+    protected void beforeSave() {
         setSaveSuggestedPrefixes("urn:org:ebics:H005", "");
-
-        return super.toByteArray();
     }
 
 
@@ -97,15 +92,12 @@ public abstract class InitializationRequestElement extends DefaultEbicsRootEleme
      *
      * @return the digest value.
      * @throws EbicsException Failed to retrieve the digest value.
+     * @deprecated the digest is computed while the request is signed by
+     * {@link SignedInfo#sign(DefaultEbicsRootElement, org.kopi.ebics.schema.xmldsig.SignatureType) sign}.
      */
+    @Deprecated
     public byte[] getDigest() throws EbicsException {
-        addNamespaceDecl("ds", "http://www.w3.org/2000/09/xmldsig#");
-
-        try {
-            return MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(toByteArray()));
-        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-            throw new EbicsException(e.getMessage(), e);
-        }
+        return SignedInfo.digest(this);
     }
 
     /**
@@ -143,10 +135,11 @@ public abstract class InitializationRequestElement extends DefaultEbicsRootEleme
      */
     protected byte[] generateTransactionKey() throws EbicsException {
         try {
-            Cipher cipher = Cipher.getInstance("RSA/NONE/PKCS1Padding", BouncyCastleProvider.PROVIDER_NAME);
-            cipher.init(Cipher.ENCRYPT_MODE, session.getBankE002Key());
-
-            return cipher.doFinal(nonce);
+            return CryptoEngines.withCipher("RSA/NONE/PKCS1Padding",
+                    Cipher.ENCRYPT_MODE,
+                    session.getBankE002Key(),
+                    null,
+                    cipher -> cipher.doFinal(nonce));
         } catch (Exception e) {
             throw new EbicsException(e.getMessage(), e);
         }
@@ -38,7 +38,7 @@ public class InitializationResponseElement extends DefaultResponseElement<EbicsR
 
     private final EbicsOrderType orderType;
     protected EbicsResponse response;
-    private byte[] transactionId;
+    protected byte[] transactionId;
 
     /**
      * Constructs a new <code>InitializationResponseElement</code> element.
@@ -62,12 +62,11 @@ public class InitializationResponseElement extends DefaultResponseElement<EbicsR
         String text = response.getHeader().getMutable().getReportText();
         returnCode = ReturnCode.toReturnCode(code, text);
         checkReturnCode(returnCode);
-        processBodyReturnCode();
+        processBodyReturnCode(response.getBody().getReturnCode().getStringValue());
         transactionId = response.getHeader().getStatic().getTransactionID();
     }
 
-    protected void processBodyReturnCode() throws EbicsException {
-        String bodyRetCode = response.getBody().getReturnCode().getStringValue();
+    protected void processBodyReturnCode(String bodyRetCode) throws EbicsException {
         ReturnCode returnCode = ReturnCode.toReturnCode(bodyRetCode, "");
         checkReturnCode(returnCode);
     }
@@ -19,9 +19,6 @@
 
 package org.kopi.ebics.xml;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.util.Calendar;
 
 import org.kopi.ebics.exception.EbicsException;
@@ -62,15 +59,12 @@ public class NoPubKeyDigestsRequestElement extends DefaultEbicsRootElement {
      *
      * @return the digest value.
      * @throws EbicsException Failed to retrieve the digest value.
+     * @deprecated the digest is computed while the request is signed by
+     * {@link SignedInfo#sign(DefaultEbicsRootElement, org.kopi.ebics.schema.xmldsig.SignatureType) sign}.
      */
+    @Deprecated
     public byte[] getDigest() throws EbicsException {
-        addNamespaceDecl("ds", "http://www.w3.org/2000/09/xmldsig#");
-
-        try {
-            return MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(toByteArray()));
-        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-            throw new EbicsException(e.getMessage(), e);
-        }
+        return SignedInfo.digest(this);
     }
 
     /**
@@ -82,6 +76,15 @@ public class NoPubKeyDigestsRequestElement extends DefaultEbicsRootElement {
         ((EbicsNoPubKeyDigestsRequestDocument) document).getEbicsNoPubKeyDigestsRequest().setAuthSignature(authSignature);
     }
 
+    /**
+     * Returns the authentication signature of the <code>NoPubKeyDigestsRequestElement</code>
+     *
+     * @return the authentication signature.
+     */
+    public SignatureType getAuthSignature() {
+        return ((EbicsNoPubKeyDigestsRequestDocument) document).getEbicsNoPubKeyDigestsRequest().getAuthSignature();
+    }
+
     /**
      * Sets the signature value of the request.
      *
@@ -120,11 +123,9 @@ public class NoPubKeyDigestsRequestElement extends DefaultEbicsRootElement {
     }
 
     @Override
-    public byte[] toByteArray() {
+    protected void beforeSave() {
         setSaveSuggestedPrefixes("http://www.w3.org/2000/09/xmldsig#", "ds");
         setSaveSuggestedPrefixes("urn:org:ebics:H005", "");
-
-        return super.toByteArray();
     }
 
 
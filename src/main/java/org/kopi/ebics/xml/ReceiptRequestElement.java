@@ -19,9 +19,6 @@
 
 package org.kopi.ebics.xml;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.schema.h005.EbicsRequestDocument;
@@ -32,7 +29,6 @@ import org.kopi.ebics.schema.h005.EbicsRequestDocument.EbicsRequest.Header;
 import org.kopi.ebics.schema.h005.MutableHeaderType;
 import org.kopi.ebics.schema.h005.StaticHeaderType;
 import org.kopi.ebics.session.EbicsSession;
-import org.kopi.ebics.utils.Utils;
 
 
 /**
@@ -79,18 +75,16 @@ public class ReceiptRequestElement extends DefaultEbicsRootElement {
         body = EbicsXmlFactory.createEbicsRequestBody(transferReceipt);
         request = EbicsXmlFactory.createEbicsRequest(header, body);
         document = EbicsXmlFactory.createEbicsRequestDocument(request);
-        signedInfo = new SignedInfo(session.getUser(), getDigest());
+        signedInfo = new SignedInfo(session.getUser());
         signedInfo.build();
         ((EbicsRequestDocument) document).getEbicsRequest().setAuthSignature(signedInfo.getSignatureType());
-        ((EbicsRequestDocument) document).getEbicsRequest().getAuthSignature().setSignatureValue(EbicsXmlFactory.createSignatureValueType(signedInfo.sign(toByteArray())));
+        signedInfo.sign(this, ((EbicsRequestDocument) document).getEbicsRequest().getAuthSignature());
     }
 
 
     @Override
-    public byte[] toByteArray() {
+    protected void beforeSave() {
         setSaveSuggestedPrefixes("urn:org:ebics:H005", "");
-
-        return super.toByteArray();
     }
 
     @Override
@@ -103,14 +97,11 @@ public class ReceiptRequestElement extends DefaultEbicsRootElement {
      *
      * @return the digest value.
      * @throws EbicsException Failed to retrieve the digest value.
+     * @deprecated the digest is computed while the request is signed by
+     * {@link SignedInfo#sign(DefaultEbicsRootElement, org.kopi.ebics.schema.xmldsig.SignatureType) sign}.
      */
+    @Deprecated
     public byte[] getDigest() throws EbicsException {
-        addNamespaceDecl("ds", "http://www.w3.org/2000/09/xmldsig#");
-
-        try {
-            return MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(toByteArray()));
-        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-            throw new EbicsException(e.getMessage(), e);
-        }
+        return SignedInfo.digest(this);
     }
 }
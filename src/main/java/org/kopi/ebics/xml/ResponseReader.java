@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * $Id$
+ */
+
+
+package org.kopi.ebics.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.codec.binary.Hex;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.io.IOUtils;
+
+
+/**
+ * The <code>ResponseReader</code> reads the fields of an ebics transfer
+ * response with a StAX parser, without building its XMLBeans document.
+ *
+ * <p>Only the fields the transfers need are kept: the header return code,
+ * report text, transaction ID, number of segments and segment number, the
+ * transaction key and the body return code. The base64 text of the order
+ * data is decoded as it is read and written to an output stream, so that
+ * the order data never exists as a string.
+ *
+ * @author hachani
+ */
+final class ResponseReader {
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private final ContentFactory factory;
+    private String returnCode;
+    private String reportText;
+    private String bodyReturnCode;
+    private byte[] transactionId;
+    private byte[] transactionKey;
+    private int numSegments;
+    private int segmentNumber;
+    private boolean lastSegment;
+
+    /**
+     * Constructs a new <code>ResponseReader</code> object.
+     *
+     * @param factory the content factory containing the response
+     */
+    ResponseReader(ContentFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Reads the response and decodes its order data, if any, to the
+     * given output. The output is not closed.
+     *
+     * @param orderData the output of the decoded order data
+     * @throws EbicsException the response cannot be read
+     */
+    void read(OutputStream orderData) throws EbicsException {
+        try (InputStream in = factory.getContent()) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+
+            try {
+                read(reader, orderData);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | IOException | DecoderException | NumberFormatException e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
+    }
+
+    private void read(XMLStreamReader reader, OutputStream orderData)
+            throws XMLStreamException, IOException, DecoderException {
+        Deque<String> path = new ArrayDeque<>();
+        StringBuilder text = new StringBuilder();
+        String name;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if ("OrderData".equals(reader.getLocalName()) && "DataTransfer".equals(path.peek())) {
+                        decode(reader, orderData);
+                        break;
+                    }
+                    if ("SegmentNumber".equals(reader.getLocalName()) && "mutable".equals(path.peek())) {
+                        lastSegment = Boolean.parseBoolean(reader.getAttributeValue(null, "lastSegment"));
+                    }
+                    path.push(reader.getLocalName());
+                    text.setLength(0);
+                    break;
+                case XMLStreamConstants.CHARACTERS,
+                     XMLStreamConstants.CDATA,
+                     XMLStreamConstants.SPACE:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    name = path.pop();
+                    setField(path.peek(), name, text.toString().trim());
+                    text.setLength(0);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Keeps the value of a field, recognized by its name and the name
+     * of its parent element.
+     */
+    private void setField(String parent, String name, String value) throws DecoderException {
+        if ("static".equals(parent)) {
+            if ("TransactionID".equals(name)) {
+                transactionId = Hex.decodeHex(value.toCharArray());
+            } else if ("NumSegments".equals(name)) {
+                numSegments = Integer.parseInt(value);
+            }
+        } else if ("mutable".equals(parent)) {
+            if ("SegmentNumber".equals(name)) {
+                segmentNumber = Integer.parseInt(value);
+            } else if ("ReturnCode".equals(name)) {
+                returnCode = value;
+            } else if ("ReportText".equals(name)) {
+                reportText = value;
+            }
+        } else if ("DataEncryptionInfo".equals(parent) && "TransactionKey".equals(name)) {
+            transactionKey = Base64.decodeBase64(value);
+        } else if ("body".equals(parent) && "ReturnCode".equals(name)) {
+            bodyReturnCode = value;
+        }
+    }
+
+    /**
+     * Decodes the base64 text of the current element to the given output,
+     * chunk by chunk, up to the end of the element.
+     */
+    private static void decode(XMLStreamReader reader, OutputStream output)
+            throws XMLStreamException, IOException {
+        byte[] buffer = new byte[0];
+        OutputStream decoder;
+        int event;
+
+        decoder = new Base64OutputStream(IOUtils.nonClosing(output), false);
+        while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                char[] chars = reader.getTextCharacters();
+                int start = reader.getTextStart();
+                int length = reader.getTextLength();
+
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                for (int i = 0; i < length; i++) {
+                    buffer[i] = (byte) chars[start + i];
+                }
+                decoder.write(buffer, 0, length);
+            }
+        }
+        decoder.close();
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Returns the return code of the response header.
+     *
+     * @return the header return code
+     */
+    String getReturnCode() {
+        return returnCode;
+    }
+
+    /**
+     * Returns the report text of the response header.
+     *
+     * @return the report text
+     */
+    String getReportText() {
+        return reportText;
+    }
+
+    /**
+     * Returns the return code of the response body.
+     *
+     * @return the body return code
+     */
+    String getBodyReturnCode() {
+        return bodyReturnCode;
+    }
+
+    /**
+     * Returns the transaction ID.
+     *
+     * @return the transaction ID, or null if the response has none
+     */
+    byte[] getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Returns the encrypted transaction key.
+     *
+     * @return the transaction key, or null if the response has none
+     */
+    byte[] getTransactionKey() {
+        return transactionKey;
+    }
+
+    /**
+     * Returns the total number of segments.
+     *
+     * @return the number of segments, 0 if the response has none
+     */
+    int getNumSegments() {
+        return numSegments;
+    }
+
+    /**
+     * Returns the segment number.
+     *
+     * @return the segment number, 0 if the response has none
+     */
+    int getSegmentNumber() {
+        return segmentNumber;
+    }
+
+    /**
+     * Checks if the response holds the last segment.
+     *
+     * @return True if it is the last segment
+     */
+    boolean isLastSegment() {
+        return lastSegment;
+    }
+}
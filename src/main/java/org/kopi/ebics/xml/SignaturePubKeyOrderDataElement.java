@@ -69,10 +69,8 @@ public class SignaturePubKeyOrderDataElement extends DefaultEbicsRootElement {
 
 
     @Override
-    public byte[] toByteArray() {
+    protected void beforeSave() {
         addNamespaceDecl("ds", "http://www.w3.org/2000/09/xmldsig#");
         setSaveSuggestedPrefixes("http://www.ebics.org/S002", "");
-
-        return super.toByteArray();
     }
 }
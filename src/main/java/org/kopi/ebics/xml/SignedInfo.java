@@ -19,14 +19,11 @@
 
 package org.kopi.ebics.xml;
 
-import java.io.ByteArrayInputStream;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.security.GeneralSecurityException;
 
+import org.apache.commons.codec.binary.Base64;
 import org.apache.xml.security.c14n.Canonicalizer;
 import org.apache.xml.security.transforms.TransformationException;
-import org.apache.xml.security.utils.IgnoreAllErrorHandler;
 import org.apache.xpath.XPathAPI;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.EbicsUser;
@@ -38,7 +35,10 @@ import org.kopi.ebics.schema.xmldsig.SignatureType;
 import org.kopi.ebics.schema.xmldsig.SignedInfoType;
 import org.kopi.ebics.schema.xmldsig.TransformType;
 import org.kopi.ebics.schema.xmldsig.TransformsType;
+import org.kopi.ebics.utils.CryptoEngines;
+import org.kopi.ebics.utils.Utils;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 
@@ -51,19 +51,34 @@ import org.w3c.dom.Node;
 public class SignedInfo extends DefaultEbicsRootElement {
 
     private static final long serialVersionUID = 4194924578678778580L;
-    private final byte[] digest;
+    private static final String XMLDSIG_NAMESPACE = "http://www.w3.org/2000/09/xmldsig#";
+    private byte[] digest;
     private final EbicsUser user;
 
     /**
      * Constructs a new <code>SignedInfo</code> element
      *
      * @param digest the digest value
+     * @deprecated the digest is computed by {@link #sign(DefaultEbicsRootElement, SignatureType) sign},
+     * use {@link #SignedInfo(EbicsUser)}.
      */
+    @Deprecated
     public SignedInfo(EbicsUser user, byte[] digest) {
         this.user = user;
         this.digest = digest;
     }
 
+    /**
+     * Constructs a new <code>SignedInfo</code> element whose digest value
+     * is computed later by {@link #sign(DefaultEbicsRootElement, SignatureType) sign}.
+     * Until then, the digest value is a zero filled SHA-256 placeholder.
+     *
+     * @param user the ebics user
+     */
+    public SignedInfo(EbicsUser user) {
+        this(user, new byte[32]);
+    }
+
     @Override
     public void build() throws EbicsException {
         CanonicalizationMethodType canonicalizationMethod;
@@ -98,7 +113,10 @@ public class SignedInfo extends DefaultEbicsRootElement {
      * Returns the digest value.
      *
      * @return the digest value.
+     * @deprecated the digest is set in the authentication signature by
+     * {@link #sign(DefaultEbicsRootElement, SignatureType) sign}.
      */
+    @Deprecated
     public byte[] getDigest() {
         return digest;
     }
@@ -133,35 +151,89 @@ public class SignedInfo extends DefaultEbicsRootElement {
      * @param toSign the input to sign
      * @return the signed input
      * @throws EbicsException signature fails.
+     * @deprecated the request is parsed again, use
+     * {@link #sign(DefaultEbicsRootElement, SignatureType) sign}.
      */
+    @Deprecated
     public byte[] sign(byte[] toSign) throws EbicsException {
         try {
-            DocumentBuilderFactory factory;
-            DocumentBuilder builder;
             Document document;
             Node node;
-            Canonicalizer canonicalizer;
-
-            factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            factory.setValidating(true);
-            builder = factory.newDocumentBuilder();
-            builder.setErrorHandler(new IgnoreAllErrorHandler());
-            document = builder.parse(new ByteArrayInputStream(toSign));
+
+            document = Utils.parse(toSign);
             node = XPathAPI.selectSingleNode(document, "//ds:SignedInfo");
-            canonicalizer = Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS);
-            return user.authenticate(canonicalizer.canonicalizeSubtree(node));
+            return user.authenticate(Utils.canonizeSubtree(node));
+        } catch (EbicsException e) {
+            throw e;
         } catch (Exception e) {
             throw new EbicsException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Computes the digest and signs the authentication signature of a request
+     * from a single serialization of the request.
+     *
+     * <p>The given authentication signature is the one of the request, built from
+     * this <code>SignedInfo</code>. The digest of the authenticated elements does not
+     * depend on the authentication signature, so the request is serialized and parsed
+     * once with the placeholder digest. The authenticated elements are canonized from
+     * that document, then the digest value is replaced in the same document before
+     * the SignedInfo element is canonized and signed.
+     *
+     * <p>The digest and signature values are finally set in the given
+     * authentication signature.
+     *
+     * @param request       the request to sign
+     * @param authSignature the authentication signature of the request
+     * @throws EbicsException signature fails.
+     */
+    public void sign(DefaultEbicsRootElement<?> request, SignatureType authSignature) throws EbicsException {
+        Document document;
+        Element signedInfo;
+
+        request.addNamespaceDecl("ds", XMLDSIG_NAMESPACE);
+        document = Utils.parse(request.toByteArray());
+        digest = digest(document);
+
+        signedInfo = (Element) document.getElementsByTagNameNS(XMLDSIG_NAMESPACE, "SignedInfo").item(0);
+        if (signedInfo == null) {
+            throw new EbicsException("The request has no SignedInfo element");
+        }
+        signedInfo.getElementsByTagNameNS(XMLDSIG_NAMESPACE, "DigestValue").item(0).setTextContent(Base64.encodeBase64String(digest));
+
+        authSignature.getSignedInfo().getReferenceArray(0).setDigestValue(digest);
+        try {
+            authSignature.setSignatureValue(EbicsXmlFactory.createSignatureValueType(user.authenticate(Utils.canonizeSubtree(signedInfo))));
+        } catch (GeneralSecurityException e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the digest value of the authenticated XML portions of a request.
+     *
+     * @param request the request
+     * @return the digest value.
+     * @throws EbicsException Failed to retrieve the digest value.
+     */
+    static byte[] digest(DefaultEbicsRootElement<?> request) throws EbicsException {
+        request.addNamespaceDecl("ds", XMLDSIG_NAMESPACE);
+        return digest(Utils.parse(request.toByteArray()));
+    }
+
+    private static byte[] digest(Document document) throws EbicsException {
+        try {
+            return CryptoEngines.digest("SHA-256", Utils.canonize(document));
+        } catch (GeneralSecurityException e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
+    }
+
     @Override
-    public byte[] toByteArray() {
+    protected void beforeSave() {
         addNamespaceDecl("", "urn:org:ebics:H005");
         setSaveSuggestedPrefixes("http://www.w3.org/2000/09/xmldsig#", "ds");
-
-        return super.toByteArray();
     }
 
     @Override
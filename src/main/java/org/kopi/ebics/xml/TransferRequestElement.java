@@ -19,15 +19,11 @@
 
 package org.kopi.ebics.xml;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.EbicsOrderType;
 import org.kopi.ebics.schema.h005.EbicsRequestDocument;
 import org.kopi.ebics.session.EbicsSession;
-import org.kopi.ebics.utils.Utils;
 
 
 /**
@@ -76,10 +72,10 @@ public abstract class TransferRequestElement extends DefaultEbicsRootElement {
         SignedInfo signedInfo;
 
         buildTransfer();
-        signedInfo = new SignedInfo(session.getUser(), getDigest());
+        signedInfo = new SignedInfo(session.getUser());
         signedInfo.build();
         ((EbicsRequestDocument) document).getEbicsRequest().setAuthSignature(signedInfo.getSignatureType());
-        ((EbicsRequestDocument) document).getEbicsRequest().getAuthSignature().setSignatureValue(EbicsXmlFactory.createSignatureValueType(signedInfo.sign(toByteArray())));
+        signedInfo.sign(this, ((EbicsRequestDocument) document).getEbicsRequest().getAuthSignature());
     }
 
     @Override
@@ -92,15 +88,12 @@ public abstract class TransferRequestElement extends DefaultEbicsRootElement {
      *
      * @return the digest value.
      * @throws EbicsException Failed to retrieve the digest value.
+     * @deprecated the digest is computed while the request is signed by
+     * {@link SignedInfo#sign(DefaultEbicsRootElement, org.kopi.ebics.schema.xmldsig.SignatureType) sign}.
      */
+    @Deprecated
     public byte[] getDigest() throws EbicsException {
-        addNamespaceDecl("ds", "http://www.w3.org/2000/09/xmldsig#");
-
-        try {
-            return MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(toByteArray()));
-        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-            throw new EbicsException(e.getMessage(), e);
-        }
+        return SignedInfo.digest(this);
     }
 
     /**
@@ -113,10 +106,8 @@ public abstract class TransferRequestElement extends DefaultEbicsRootElement {
     }
 
     @Override
-    public byte[] toByteArray() {
+    protected void beforeSave() {
         setSaveSuggestedPrefixes("urn:org:ebics:H005", "");
-
-        return super.toByteArray();
     }
 
     /**
@@ -20,6 +20,7 @@
 package org.kopi.ebics.xml;
 
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.RecoverySyncException;
 import org.kopi.ebics.exception.ReturnCode;
 import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.schema.h005.EbicsResponseDocument;
@@ -52,14 +53,29 @@ public class TransferResponseElement extends DefaultResponseElement<EbicsRespons
 
     @Override
     public void build() throws EbicsException {
-        String code;
-        String text;
-
         parse(EbicsResponseDocument.Factory);
         response = document.getEbicsResponse();
-        code = response.getHeader().getMutable().getReturnCode();
-        text = response.getHeader().getMutable().getReportText();
+        processReturnCode(response.getHeader().getMutable().getReturnCode(),
+                response.getHeader().getMutable().getReportText(),
+                response.getHeader().getMutable().isSetSegmentNumber()
+                        ? (int) response.getHeader().getMutable().getSegmentNumber().getLongValue()
+                        : 0);
+    }
+
+    /**
+     * Processes the return code of the response header.
+     *
+     * @param code          the return code
+     * @param text          the report text
+     * @param segmentNumber the segment number of the header, 0 if none
+     * @throws RecoverySyncException the bank expects another segment
+     * @throws EbicsException        the request fails
+     */
+    protected void processReturnCode(String code, String text, int segmentNumber) throws EbicsException {
         returnCode = ReturnCode.toReturnCode(code, text);
+        if (returnCode.equals(ReturnCode.EBICS_TX_RECOVERY_SYNC)) {
+            throw new RecoverySyncException(segmentNumber);
+        }
         report();
     }
 }
@@ -19,6 +19,10 @@
 
 package org.kopi.ebics.xml;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
@@ -26,7 +30,11 @@ import java.util.List;
 import org.kopi.ebics.client.UploadService;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.interfaces.EbicsBank;
 import org.kopi.ebics.interfaces.EbicsOrderType;
+import org.kopi.ebics.io.BandwidthStatistics;
+import org.kopi.ebics.io.CompressionPolicy;
+import org.kopi.ebics.io.SignatureOutputStream;
 import org.kopi.ebics.io.Splitter;
 import org.kopi.ebics.schema.h005.BTUParamsType;
 import org.kopi.ebics.schema.h005.DataDigestType;
@@ -58,13 +66,15 @@ import org.kopi.ebics.utils.Utils;
  *
  * @author Hachani
  */
-public class UploadInitializationRequestElement extends InitializationRequestElement {
+public class UploadInitializationRequestElement extends InitializationRequestElement
+        implements Closeable {
 
     private static final long serialVersionUID = -8083183483311283608L;
     public static final String HTTP_WWW_W_3_ORG_2001_04_XMLENC_SHA_256 = "http://www.w3.org/2001/04/xmlenc#sha256";
-    private final byte[] userData;
     private final Splitter splitter;
     private UserSignature userSignature;
+    private byte[] transactionKey;
+    private byte[] inputDigest;
     private final transient UploadService uploadService;
 
     /**
@@ -79,7 +89,24 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
                                               UploadService uploadService,
                                               byte[] userData) {
         super(session, orderType, generateName(orderType));
-        this.userData = userData;
+        this.uploadService = uploadService;
+        splitter = new Splitter(userData);
+    }
+
+    /**
+     * Constructs a new <code>UInitializationRequestElement</code> for uploads initializations
+     * reading the user data from a content factory. The encrypted order data is spooled
+     * to a temporary file which is removed when this element is closed.
+     *
+     * @param session   the current ebics session.
+     * @param orderType the upload order type
+     * @param userData  the user data to be uploaded
+     */
+    public UploadInitializationRequestElement(EbicsSession session,
+                                              EbicsOrderType orderType,
+                                              UploadService uploadService,
+                                              ContentFactory userData) {
+        super(session, orderType, generateName(orderType));
         this.uploadService = uploadService;
         splitter = new Splitter(userData);
     }
@@ -101,16 +128,35 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
         EncryptionPubKeyDigest encryptionPubKeyDigest;
         StaticHeaderOrderDetailsType.AdminOrderType adminOrderType;
         DataDigestType dataDigest;
+        SignatureOutputStream signer;
+
+        try {
+            signer = new SignatureOutputStream(session.getUser().createSignature());
+        } catch (GeneralSecurityException e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
+        splitter.setCompression(session.getConfiguration().getCompressionLevel(),
+                session.getConfiguration().getCompressionThreads(),
+                session.getConfiguration().getCompressionPool());
+        splitter.setMaxSegmentSize(session.getConfiguration().getSegmentSize(session.getUser().getPartner().getBank()));
+        splitter.setSymmetricCipher(session.getConfiguration().getSymmetricCipher());
+        if (session.getConfiguration().isCompressionAdaptive()) {
+            EbicsBank bank = session.getUser().getPartner().getBank();
+
+            splitter.setCompressionPolicy(new CompressionPolicy(bank.getHostId(),
+                    BandwidthStatistics.getBandwidth(bank),
+                    session.getConfiguration().getCompressionLevel(),
+                    session.getConfiguration().getCompressionThreads()));
+        }
+        splitter.readInput(session.getConfiguration().isCompressionEnabled(), keySpec, signer);
 
         userSignature = new UserSignature(session.getUser(),
                 generateName("UserSignature"),
                 session.getConfiguration().getSignatureVersion(),
-                userData);
+                signer);
         userSignature.build();
         userSignature.validate();
 
-        splitter.readInput(session.getConfiguration().isCompressionEnabled(), keySpec);
-
         mutable = EbicsXmlFactory.createMutableHeaderType("Initialisation", null);
         product = EbicsXmlFactory.createProduct(session.getProduct().getLanguage(),
                 session.getProduct().getName(), session.getProduct().getInstituteID());
@@ -167,9 +213,10 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
                 HTTP_WWW_W_3_ORG_2001_04_XMLENC_SHA_256,
                 decodeHex(session.getUser().getPartner().getBank().getE002Digest()));
         signatureData = EbicsXmlFactory.createSignatureData(true, Utils.encrypt(Utils.zip(userSignature.prettyPrint()), keySpec));
+        transactionKey = generateTransactionKey();
         dataEncryptionInfo = EbicsXmlFactory.createDataEncryptionInfo(true,
                 encryptionPubKeyDigest,
-                generateTransactionKey());
+                transactionKey);
         dataTransfer = EbicsXmlFactory.createDataTransferRequestType(dataEncryptionInfo, signatureData, dataDigest);
         body = EbicsXmlFactory.createEbicsRequestBody(dataTransfer);
         request = EbicsXmlFactory.createEbicsRequest(header, body);
@@ -178,10 +225,8 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
 
 
     @Override
-    public byte[] toByteArray() {
+    protected void beforeSave() {
         setSaveSuggestedPrefixes("urn:org:ebics:H005", "");
-
-        return super.toByteArray();
     }
 
     /**
@@ -211,4 +256,68 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
     public int getSegmentNumber() {
         return splitter.getSegmentNumber();
     }
+
+    /**
+     * Returns the size of every segment but the last one.
+     *
+     * @return the segment size
+     */
+    public int getSegmentSize() {
+        return splitter.getSegmentSize();
+    }
+
+    /**
+     * Returns the transaction key sent to the bank, encrypted with
+     * its encryption key.
+     *
+     * @return the encrypted transaction key
+     */
+    public byte[] getTransactionKey() {
+        return transactionKey;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the user data. The digest is streamed
+     * from the user data on the first call, without building the request,
+     * so that it can identify an upload before the user data is compressed,
+     * encrypted and signed.
+     *
+     * @return the digest of the user data
+     * @throws IOException the user data cannot be read
+     */
+    public byte[] getInputDigest() throws IOException {
+        if (inputDigest == null) {
+            inputDigest = splitter.digestInput();
+        }
+
+        return inputDigest;
+    }
+
+    /**
+     * Sets the directory the encrypted order data is spooled to.
+     *
+     * @param spoolDirectory the spool directory, null for the temporary directory
+     */
+    public void setSpoolDirectory(Path spoolDirectory) {
+        splitter.setSpoolDirectory(spoolDirectory);
+    }
+
+    /**
+     * Hands the encrypted order data over as a file, which is no longer
+     * removed when this element is closed.
+     *
+     * @return the file holding the encrypted order data
+     * @throws IOException the order data cannot be written to a file
+     */
+    public Path detachContent() throws IOException {
+        return splitter.detachContent();
+    }
+
+    /**
+     * Releases the segmented order data.
+     */
+    @Override
+    public void close() throws IOException {
+        splitter.close();
+    }
 }
@@ -19,12 +19,20 @@
 
 package org.kopi.ebics.xml;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64OutputStream;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.interfaces.EbicsOrderType;
 import org.kopi.ebics.io.IOUtils;
 import org.kopi.ebics.schema.h005.DataTransferRequestType;
 import org.kopi.ebics.schema.h005.DataTransferRequestType.OrderData;
+import org.kopi.ebics.schema.h005.EbicsRequestDocument;
 import org.kopi.ebics.schema.h005.EbicsRequestDocument.EbicsRequest;
 import org.kopi.ebics.schema.h005.EbicsRequestDocument.EbicsRequest.Body;
 import org.kopi.ebics.schema.h005.EbicsRequestDocument.EbicsRequest.Header;
@@ -32,11 +40,19 @@ import org.kopi.ebics.schema.h005.MutableHeaderType;
 import org.kopi.ebics.schema.h005.MutableHeaderType.SegmentNumber;
 import org.kopi.ebics.schema.h005.StaticHeaderType;
 import org.kopi.ebics.session.EbicsSession;
+import org.kopi.ebics.utils.Utils;
 
 /**
  * The <code>UTransferRequestElement</code> is the root element
  * for all ebics upload transfers.
  *
+ * <p>The XMLBeans document holds an empty order data. The order data
+ * is not authenticated, so the signature does not depend on it, and the
+ * segment is only base64 encoded when the request is written, as it is
+ * read from its content factory. The envelope is written with a random
+ * placeholder as order data, which the encoded segment then replaces.
+ * The traces of the request show the empty order data.
+ *
  * @author Hachani
  */
 public class UploadTransferRequestElement extends TransferRequestElement {
@@ -81,10 +97,73 @@ public class UploadTransferRequestElement extends TransferRequestElement {
         mutable = EbicsXmlFactory.createMutableHeaderType("Transfer", segmentNumber);
         xstatic = EbicsXmlFactory.createStaticHeaderType(session.getBankID(), transactionId);
         header = EbicsXmlFactory.createEbicsRequestHeader(true, mutable, xstatic);
-        orderData = EbicsXmlFactory.createEbicsRequestOrderData(IOUtils.getFactoryContent(content));
+        orderData = EbicsXmlFactory.createEbicsRequestOrderData(new byte[0]);
         dataTransfer = EbicsXmlFactory.createDataTransferRequestType(orderData);
         body = EbicsXmlFactory.createEbicsRequestBody(dataTransfer);
         request = EbicsXmlFactory.createEbicsRequest(header, body);
         document = EbicsXmlFactory.createEbicsRequestDocument(request);
     }
+
+    /**
+     * Writes the request, base64 encoding the segment into its order data
+     * while it is written. Only the small request envelope is serialized
+     * in memory.
+     *
+     * @param out the output stream
+     * @throws EbicsException the request cannot be written
+     */
+    @Override
+    public void writeTo(OutputStream out) throws EbicsException {
+        ByteArrayOutputStream envelope;
+        OrderData orderData;
+        byte[] placeholder;
+        byte[] bytes;
+        int start;
+
+        orderData = ((EbicsRequestDocument) document).getEbicsRequest().getBody().getDataTransfer().getOrderData();
+        placeholder = Utils.generateNonce();
+        envelope = new ByteArrayOutputStream();
+        orderData.setByteArrayValue(placeholder);
+        try {
+            super.writeTo(envelope);
+        } finally {
+            orderData.setByteArrayValue(new byte[0]);
+        }
+        bytes = envelope.toByteArray();
+        placeholder = Base64.encodeBase64(placeholder);
+        start = indexOf(bytes, placeholder);
+        if (start < 0) {
+            throw new EbicsException("No order data in the upload transfer request");
+        }
+
+        try (InputStream in = content.getContent()) {
+            OutputStream encoder;
+
+            out.write(bytes, 0, start);
+            encoder = new Base64OutputStream(IOUtils.nonClosing(out), true, 0, null);
+            IOUtils.copy(in, encoder);
+            encoder.close();
+            out.write(bytes, start + placeholder.length, bytes.length - start - placeholder.length);
+        } catch (IOException e) {
+            throw new EbicsException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the position of the given bytes in the data, or -1.
+     */
+    private static int indexOf(byte[] data, byte[] bytes) {
+        for (int i = 0; i <= data.length - bytes.length; i++) {
+            int j = 0;
+
+            while (j < bytes.length && data[i + j] == bytes[j]) {
+                j++;
+            }
+            if (j == bytes.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
 }
@@ -20,10 +20,14 @@
 package org.kopi.ebics.xml;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.GeneralSecurityException;
 
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.io.SignatureOutputStream;
 import org.kopi.ebics.schema.s002.OrderSignatureDataType;
 import org.kopi.ebics.schema.s002.UserSignatureDataSigBookType;
 
@@ -41,7 +45,8 @@ public class UserSignature extends DefaultEbicsRootElement {
     private static final long serialVersionUID = 2992372604876703738L;
     private final EbicsUser user;
     private final String signatureVersion;
-    private final byte[] toSign;
+    private final ContentFactory toSign;
+    private final transient SignatureOutputStream signer;
 
 
     private final String name;
@@ -58,8 +63,45 @@ public class UserSignature extends DefaultEbicsRootElement {
                          String name,
                          String signatureVersion,
                          byte[] toSign) {
+        this(user, name, signatureVersion, new ByteArrayContentFactory(toSign));
+    }
+
+    /**
+     * Constructs a new <code>UserSignature</code> element for
+     * an Ebics user and a data to sign. The data is streamed
+     * to the signature rather than loaded in memory.
+     *
+     * @param user             the ebics user
+     * @param signatureVersion the signature version
+     * @param toSign           the data to be signed
+     */
+    public UserSignature(EbicsUser user,
+                         String name,
+                         String signatureVersion,
+                         ContentFactory toSign) {
         this.user = user;
         this.toSign = toSign;
+        this.signer = null;
+        this.name = name;
+        this.signatureVersion = signatureVersion;
+    }
+
+    /**
+     * Constructs a new <code>UserSignature</code> element for
+     * an Ebics user and the data already written to the given
+     * signature stream.
+     *
+     * @param user             the ebics user
+     * @param signatureVersion the signature version
+     * @param signer           the stream the data to be signed was written to
+     */
+    public UserSignature(EbicsUser user,
+                         String name,
+                         String signatureVersion,
+                         SignatureOutputStream signer) {
+        this.user = user;
+        this.toSign = null;
+        this.signer = signer;
         this.name = name;
         this.signatureVersion = signatureVersion;
     }
@@ -71,7 +113,7 @@ public class UserSignature extends DefaultEbicsRootElement {
         byte[] signature;
 
         try {
-            signature = user.sign(toSign);
+            signature = signer != null ? signer.sign() : sign();
         } catch (IOException | GeneralSecurityException e) {
             throw new EbicsException(e.getMessage(), e);
         }
@@ -84,15 +126,19 @@ public class UserSignature extends DefaultEbicsRootElement {
         document = EbicsXmlFactory.createUserSignatureDataDocument(userSignatureData);
     }
 
+    private byte[] sign() throws IOException, GeneralSecurityException {
+        try (InputStream in = toSign.getContent()) {
+            return user.sign(in);
+        }
+    }
+
     @Override
     public String getName() {
         return name + ".xml";
     }
 
     @Override
-    public byte[] toByteArray() {
+    protected void beforeSave() {
         setSaveSuggestedPrefixes("http://www.ebics.org/S002", "");
-
-        return super.toByteArray();
     }
 }
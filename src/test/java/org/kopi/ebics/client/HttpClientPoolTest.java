@@ -0,0 +1,79 @@
+package org.kopi.ebics.client;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.interfaces.Configuration;
+import org.mockito.Mockito;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HttpClientPoolTest {
+
+    @Test
+    void testClientIsSharedPerBank() throws Exception {
+        try (HttpClientPool pool = new HttpClientPool(Mockito.mock(Configuration.class))) {
+            assertSame(pool.getClient(URI.create("https://bank.example/ebics").toURL()),
+                    pool.getClient(URI.create("https://bank.example/other").toURL()));
+            assertNotSame(pool.getClient(URI.create("https://bank.example/ebics").toURL()),
+                    pool.getClient(URI.create("https://other.example/ebics").toURL()));
+            assertEquals(8, pool.getStatistics().getMax());
+        }
+    }
+
+    @Test
+    void testClosedPool() throws Exception {
+        HttpClientPool pool = new HttpClientPool(Mockito.mock(Configuration.class));
+
+        pool.getClient(URI.create("https://bank.example/ebics").toURL());
+        pool.close();
+        assertEquals(0, pool.getStatistics().getMax());
+        assertThrows(IllegalStateException.class, () -> pool.getClient(URI.create("https://bank.example/ebics").toURL()));
+    }
+
+    @Test
+    void testCloseRacingNewClients() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (int round = 0; round < 50; round++) {
+                HttpClientPool pool = new HttpClientPool(Mockito.mock(Configuration.class));
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<>();
+
+                for (int i = 0; i < 4; i++) {
+                    URL url = URI.create("https://bank" + i + ".example/ebics").toURL();
+
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        try {
+                            pool.getClient(url);
+                        } catch (IllegalStateException e) {
+                            // closed before or while the client was created
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                pool.close();
+                for (Future<?> future : futures) {
+                    future.get(10, TimeUnit.SECONDS);
+                }
+                assertEquals(0, pool.getStatistics().getMax());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.kopi.ebics.client;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HttpRetryPolicyTest {
+
+    @Test
+    void testTransientFailuresAreRetried() throws Exception {
+        HttpRetryPolicy policy = policy(Map.of());
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertEquals(200, policy.send(bank("BANK"), true, () -> attempts.incrementAndGet() < 3 ? 503 : 200));
+        assertEquals(3, attempts.get());
+        assertEquals(2, policy.getRetries());
+    }
+
+    @Test
+    void testNotRetryableRequest() throws Exception {
+        HttpRetryPolicy policy = policy(Map.of());
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(ConnectException.class, () -> policy.send(bank("BANK"), false, () -> {
+            attempts.incrementAndGet();
+            throw new ConnectException("Connection refused");
+        }));
+        assertEquals(1, attempts.get());
+        assertEquals(0, policy.getRetries());
+    }
+
+    @Test
+    void testPermanentErrorIsNotRetried() throws Exception {
+        HttpRetryPolicy policy = policy(Map.of());
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertEquals(500, policy.send(bank("BANK"), true, () -> {
+            attempts.incrementAndGet();
+            return 500;
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void testRetryBudget() throws Exception {
+        HttpRetryPolicy policy = policy(Map.of("http.retry.budget", "2", "http.retry.max", "5"));
+
+        assertEquals(503, policy.send(bank("BANK"), true, () -> 503));
+        assertEquals(2, policy.getRetries());
+        assertEquals(503, policy.send(bank("BANK"), true, () -> 503));
+        assertEquals(2, policy.getRetries());
+        assertEquals(503, policy.send(bank("OTHER"), true, () -> 503));
+        assertEquals(4, policy.getRetries());
+    }
+
+    @Test
+    void testCircuitBreaker() throws Exception {
+        HttpRetryPolicy policy = policy(Map.of("http.circuit.failures", "3", "http.circuit.open", "60"));
+        EbicsBank bank = bank("BANK");
+
+        assertEquals(503, policy.send(bank, true, () -> 503));
+        assertThrows(IOException.class, () -> policy.send(bank, true, () -> 200));
+        assertEquals(1, policy.getRejected());
+        assertEquals(200, policy.send(bank("OTHER"), true, () -> 200));
+    }
+
+    @Test
+    void testSingleProbeOfAnOpenCircuit() throws Exception {
+        HttpRetryPolicy policy = policy(Map.of("http.circuit.failures", "1", "http.circuit.open", "0"));
+        EbicsBank bank = bank("BANK");
+        CountDownLatch probing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            assertEquals(503, policy.send(bank, false, () -> 503));
+            Future<Integer> probe = executor.submit(() -> policy.send(bank, false, () -> {
+                probing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return 200;
+            }));
+            probing.await();
+            assertThrows(IOException.class, () -> policy.send(bank, false, () -> 200));
+            assertEquals(1, policy.getRejected());
+            release.countDown();
+            assertEquals(200, probe.get().intValue());
+            assertEquals(200, policy.send(bank, false, () -> 200));
+            assertEquals(200, policy.send(bank, false, () -> 200));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static HttpRetryPolicy policy(Map<String, String> properties) {
+        Configuration conf = Mockito.mock(Configuration.class);
+        Map<String, String> settings = new HashMap<>(properties);
+
+        settings.put("http.retry.delay", "1");
+        Mockito.when(conf.getProperty(Mockito.anyString()))
+                .thenAnswer(invocation -> settings.get(invocation.<String>getArgument(0)));
+        return new HttpRetryPolicy(conf);
+    }
+
+    private static EbicsBank bank(String hostId) {
+        EbicsBank bank = Mockito.mock(EbicsBank.class);
+
+        Mockito.when(bank.getHostId()).thenReturn(hostId);
+        return bank;
+    }
+}
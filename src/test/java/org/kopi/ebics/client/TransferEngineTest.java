@@ -0,0 +1,116 @@
+package org.kopi.ebics.client;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.kopi.ebics.interfaces.EbicsPartner;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferEngineTest {
+
+    @Test
+    void testTransfersOfOneBankAreBounded() throws Exception {
+        EbicsClient client = Mockito.mock(EbicsClient.class);
+        User user = user("BANK");
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<CompletableFuture<Void>> transfers = new ArrayList<>();
+
+        Mockito.doAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            running.decrementAndGet();
+            return null;
+        }).when(client).sendFile(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+
+        try (TransferEngine engine = new TransferEngine(client, configuration(1))) {
+            for (int i = 0; i < 4; i++) {
+                transfers.add(engine.sendFile(new File("upload" + i), user, null, null, null));
+            }
+            CompletableFuture.allOf(transfers.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, maxRunning.get());
+        Mockito.verify(client, Mockito.times(4))
+            .sendFile(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void testBanksAreNotBoundedByEachOther() throws Exception {
+        EbicsClient client = Mockito.mock(EbicsClient.class);
+        User first = user("FIRST");
+        User second = user("SECOND");
+        CountDownLatch secondStarted = new CountDownLatch(1);
+
+        Mockito.doAnswer(invocation -> {
+            if (invocation.getArgument(1) == first) {
+                assertTrue(secondStarted.await(10, TimeUnit.SECONDS));
+            } else {
+                secondStarted.countDown();
+            }
+            return null;
+        }).when(client).sendFile(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+
+        try (TransferEngine engine = new TransferEngine(client, configuration(1))) {
+            CompletableFuture<Void> waiting = engine.sendFile(new File("first"), first, null, null, null);
+            CompletableFuture<Void> other = engine.sendFile(new File("second"), second, null, null, null);
+
+            other.get(10, TimeUnit.SECONDS);
+            waiting.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testFailureIsPropagated() throws Exception {
+        EbicsClient client = Mockito.mock(EbicsClient.class);
+        User user = user("BANK");
+        EbicsException failure = new EbicsException("download failed");
+        File file = new File("download");
+
+        Mockito.doThrow(failure).when(client).fetchFile(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(),
+            Mockito.any(), Mockito.anyBoolean(), Mockito.any(), Mockito.any());
+
+        try (TransferEngine engine = new TransferEngine(client, configuration(1))) {
+            CompletableFuture<File> failed = engine.fetchFile(file, user, null, null, null, false, null, null);
+            CompletableFuture<Void> next = engine.sendFile(file, user, null, null, null);
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+            assertSame(failure, e.getCause());
+            // the slot of the failed transfer is released for the next one
+            next.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static Configuration configuration(int concurrency) {
+        Configuration conf = Mockito.mock(Configuration.class);
+
+        Mockito.when(conf.getTransferConcurrency(Mockito.any())).thenReturn(concurrency);
+        return conf;
+    }
+
+    private static User user(String hostId) {
+        EbicsBank bank = Mockito.mock(EbicsBank.class);
+        EbicsPartner partner = Mockito.mock(EbicsPartner.class);
+        User user = Mockito.mock(User.class);
+
+        Mockito.when(bank.getHostId()).thenReturn(hostId);
+        Mockito.when(partner.getBank()).thenReturn(bank);
+        Mockito.when(user.getPartner()).thenReturn(partner);
+        return user;
+    }
+}
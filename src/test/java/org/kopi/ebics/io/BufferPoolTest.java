@@ -0,0 +1,94 @@
+package org.kopi.ebics.io;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.utils.BenchmarkData;
+import org.kopi.ebics.utils.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufferPoolTest {
+
+    @Test
+    void testSizeClasses() {
+        assertEquals(4096, BufferPool.acquire(1).length);
+        assertEquals(4096, BufferPool.acquire(4096).length);
+        assertEquals(8192, BufferPool.acquire(4097).length);
+        assertEquals(1024 * 1024, BufferPool.acquire(Splitter.MAX_SEGMENT_SIZE).length);
+        assertEquals(3 * 1024 * 1024, BufferPool.acquire(3 * 1024 * 1024).length);
+    }
+
+    @Test
+    void testReleasedArrayIsReused() {
+        byte[] buffer = BufferPool.acquire(512 * 1024);
+        long hits;
+
+        BufferPool.release(buffer);
+        assertTrue(BufferPool.getPooledBytes() >= buffer.length);
+        hits = BufferPool.getHits();
+
+        assertSame(buffer, BufferPool.acquire(512 * 1024));
+        assertTrue(BufferPool.getHits() > hits);
+    }
+
+    @Test
+    void testFullClassDropsTheArray() {
+        long dropped = BufferPool.getDropped();
+
+        for (int i = 0; i < 10; i++) {
+            BufferPool.release(new byte[2 * 1024 * 1024]);
+        }
+
+        assertTrue(BufferPool.getDropped() > dropped);
+    }
+
+    @Test
+    void testEmptyPoolKeepsNoArray() {
+        byte[] buffer = BufferPool.acquire(64 * 1024);
+
+        try {
+            BufferPool.setMaxClassBytes(0);
+            BufferPool.release(buffer);
+
+            assertEquals(0, BufferPool.getPooledBytes());
+            assertNotSame(buffer, BufferPool.acquire(64 * 1024));
+        } finally {
+            BufferPool.setMaxClassBytes(BufferPool.DEFAULT_MAX_CLASS_BYTES);
+        }
+    }
+
+    @Test
+    void testPooledDeflaterForgetsThePreviousStream() throws Exception {
+        byte[] data = BenchmarkData.orderData(200_000);
+        Deflater fresh = new Deflater(1);
+        byte[] expected = new byte[data.length];
+        int length;
+
+        fresh.setInput(data);
+        fresh.finish();
+        length = fresh.deflate(expected);
+        fresh.end();
+
+        zip(data, 1);
+        assertArrayEquals(Arrays.copyOf(expected, length), zip(data, 1));
+        assertArrayEquals(data, Utils.unzip(zip(data, 1)));
+    }
+
+    private static byte[] zip(byte[] data, int level) throws Exception {
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+
+        try (OutputStream out = Utils.zip(zipped, level, 1)) {
+            out.write(data);
+        }
+
+        return zipped.toByteArray();
+    }
+}
@@ -0,0 +1,64 @@
+package org.kopi.ebics.io;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.utils.BenchmarkData;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CompressionPolicyTest {
+
+    private static final int SAMPLE_SIZE = CompressionPolicy.SAMPLE_SIZE;
+    private static final CompressionPolicy.Measure[] MEASURES = {
+            new CompressionPolicy.Measure(1, 120 * 1024, 2_000_000),
+            new CompressionPolicy.Measure(6, 100 * 1024, 6_000_000),
+            new CompressionPolicy.Measure(9, 99 * 1024, 40_000_000)
+    };
+
+    @Test
+    void testUnknownBandwidthKeepsTheDefaultLevel() {
+        CompressionPolicy policy = new CompressionPolicy("BANK1", 0, 9, 1);
+        long decisions = CompressionPolicy.getDecisions(9);
+
+        assertEquals(9, policy.chooseLevel(BenchmarkData.orderData(SAMPLE_SIZE)));
+        assertEquals(decisions + 1, CompressionPolicy.getDecisions(9));
+    }
+
+    @Test
+    void testSmallOrderDataKeepsTheDefaultLevel() {
+        CompressionPolicy policy = new CompressionPolicy("BANK1", 1024, 6, 1);
+
+        assertEquals(6, policy.chooseLevel(BenchmarkData.orderData(1000)));
+    }
+
+    @Test
+    void testSlowLinkFavoursTheBestCompression() {
+        CompressionPolicy policy = new CompressionPolicy("BANK1", 1024, 6, 1);
+
+        assertEquals(9, policy.chooseLevel(SAMPLE_SIZE, MEASURES));
+    }
+
+    @Test
+    void testFastLinkFavoursTheFastestLevel() {
+        CompressionPolicy policy = new CompressionPolicy("BANK1", 1e12, 9, 1);
+
+        assertEquals(1, policy.chooseLevel(SAMPLE_SIZE, MEASURES));
+    }
+
+    @Test
+    void testBalancedLevel() {
+        CompressionPolicy policy = new CompressionPolicy("BANK1", 1024 * 1024, 9, 1);
+
+        assertEquals(6, policy.chooseLevel(SAMPLE_SIZE, MEASURES));
+    }
+
+    @Test
+    void testSmallGainIsNotWorthTheCompressionTime() {
+        CompressionPolicy policy = new CompressionPolicy("BANK1", 1024 * 1024, 1, 1);
+        CompressionPolicy.Measure[] measures = {
+                new CompressionPolicy.Measure(1, 120 * 1024, 2_000_000),
+                new CompressionPolicy.Measure(9, 110 * 1024, 40_000_000)
+        };
+
+        assertEquals(1, policy.chooseLevel(SAMPLE_SIZE, measures));
+    }
+}
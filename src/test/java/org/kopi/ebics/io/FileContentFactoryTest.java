@@ -0,0 +1,73 @@
+package org.kopi.ebics.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FileContentFactoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testWholeFile() throws IOException {
+        byte[] data = randomData(100000);
+        Path file = write(data);
+
+        assertArrayEquals(data, read(new FileContentFactory(file)));
+    }
+
+    @Test
+    void testPortions() throws IOException {
+        byte[] data = randomData(100000);
+        Path file = write(data);
+
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 30000),
+                read(new FileContentFactory(file.toFile(), 0, 30000)));
+        assertArrayEquals(Arrays.copyOfRange(data, 30000, 60000),
+                read(new FileContentFactory(file.toFile(), 30000, 30000)));
+        assertArrayEquals(Arrays.copyOfRange(data, 90000, 100000),
+                read(new FileContentFactory(file.toFile(), 90000, 10000)));
+    }
+
+    @Test
+    void testPortionSingleBytes() throws IOException {
+        byte[] data = randomData(1000);
+        Path file = write(data);
+
+        try (InputStream in = new FileContentFactory(file.toFile(), 998, 2).getContent()) {
+            assertEquals(data[998] & 0xFF, in.read());
+            assertEquals(data[999] & 0xFF, in.read());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    private Path write(byte[] data) throws IOException {
+        Path file = tempDir.resolve("content");
+
+        Files.write(file, data);
+        return file;
+    }
+
+    private static byte[] read(FileContentFactory factory) throws IOException {
+        try (InputStream in = factory.getContent()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+
+        new Random(0).nextBytes(data);
+        return data;
+    }
+}
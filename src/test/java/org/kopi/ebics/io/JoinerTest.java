@@ -0,0 +1,58 @@
+package org.kopi.ebics.io;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.utils.Utils;
+import org.mockito.Mockito;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class JoinerTest {
+
+    private static final int SEGMENT_SIZE = 699999;
+
+    @Test
+    void testStreamingJoinMatchesBufferedJoin() throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        byte[] key = new byte[16];
+        byte[] data = new byte[3 * 1000 * 1000];
+        Random random = new Random(0);
+        random.nextBytes(key);
+        random.nextBytes(data);
+        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        byte[] encrypted = Utils.encrypt(Utils.zip(data), keySpec);
+
+        EbicsUser user = Mockito.mock(EbicsUser.class);
+        Mockito.when(user.canDecryptTransactionKey()).thenReturn(true);
+        Mockito.when(user.decryptTransactionKey(Mockito.any())).thenReturn(key);
+        Mockito.when(user.decrypt(Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> Utils.decrypt(invocation.<byte[]>getArgument(0), keySpec));
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+        Joiner buffering = new Joiner(user);
+        try (Joiner streaming = new Joiner(user, new byte[0], streamed);
+             Joiner writing = new Joiner(user, new byte[0], written)) {
+            for (int offset = 0; offset < encrypted.length; offset += SEGMENT_SIZE) {
+                byte[] segment = Arrays.copyOfRange(encrypted, offset,
+                        Math.min(encrypted.length, offset + SEGMENT_SIZE));
+                streaming.append(segment);
+                writing.getOutputStream().write(segment);
+                buffering.append(segment);
+            }
+        }
+        buffering.writeTo(buffered, new byte[0]);
+
+        assertArrayEquals(data, streamed.toByteArray());
+        assertArrayEquals(data, written.toByteArray());
+        assertArrayEquals(data, buffered.toByteArray());
+        Mockito.verify(user, Mockito.times(2)).decryptTransactionKey(Mockito.any());
+    }
+}
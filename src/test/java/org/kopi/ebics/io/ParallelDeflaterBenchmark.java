@@ -0,0 +1,94 @@
+package org.kopi.ebics.io;
+
+import org.kopi.ebics.utils.BenchmarkData;
+import org.kopi.ebics.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the order data compression per number of threads.
+ * One thread is the sequential <code>DeflaterOutputStream</code>, more
+ * threads the block parallel {@link ParallelDeflaterOutputStream} on a
+ * <code>ForkJoinPool</code> of as many workers, as the client runs it.
+ *
+ * <p>The order data throughput is the score times the size, and the
+ * gain per core the score divided by the threads and by the score of
+ * one thread.
+ *
+ * <p>Run with <code>mvn -Pbenchmark verify -Dbenchmark=ParallelDeflaterBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class ParallelDeflaterBenchmark {
+
+    @Param({"104857600"})
+    public int size;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"6", "9"})
+    public int level;
+
+    private byte[] data;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        data = BenchmarkData.orderData(size);
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public long zip() throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+
+        try (OutputStream out = Utils.zip(counter, level, threads, pool)) {
+            out.write(data);
+        }
+
+        return counter.count;
+    }
+
+    /**
+     * Counts the compressed bytes without keeping them.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
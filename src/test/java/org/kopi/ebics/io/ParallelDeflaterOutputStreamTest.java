@@ -0,0 +1,105 @@
+package org.kopi.ebics.io;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.utils.BenchmarkData;
+import org.kopi.ebics.utils.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelDeflaterOutputStreamTest {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+
+    @Test
+    void testEmptyInput() throws IOException, EbicsException {
+        assertRoundTrip(new byte[0], 9, 4);
+    }
+
+    @Test
+    void testBlockBoundaries() throws IOException, EbicsException {
+        assertRoundTrip(BenchmarkData.orderData(BLOCK_SIZE), 9, 4);
+        assertRoundTrip(BenchmarkData.orderData(BLOCK_SIZE + 1), 9, 4);
+        assertRoundTrip(BenchmarkData.orderData(3 * BLOCK_SIZE), 9, 4);
+    }
+
+    @Test
+    void testLargeInput() throws IOException, EbicsException {
+        assertRoundTrip(BenchmarkData.orderData(5_000_000), 6, 3);
+        assertRoundTrip(BenchmarkData.orderData(5_000_000), 1, 8);
+    }
+
+    @Test
+    void testSmallWrites() throws IOException, EbicsException {
+        byte[] data = BenchmarkData.orderData(300_000);
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+
+        try (OutputStream out = new ParallelDeflaterOutputStream(zipped, 9, 2)) {
+            for (int i = 0; i < data.length; i += 1000) {
+                out.write(data[i]);
+                out.write(data, i + 1, Math.min(999, data.length - i - 1));
+            }
+        }
+
+        assertArrayEquals(data, Utils.unzip(zipped.toByteArray()));
+    }
+
+    @Test
+    void testBlocksAreCompressedOnTheGivenPool() throws Exception {
+        byte[] data = BenchmarkData.orderData(3 * BLOCK_SIZE);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+
+        try (OutputStream out = Utils.zip(zipped, 9, 2, pool)) {
+            out.write(data);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(3, pool.getCompletedTaskCount());
+        assertArrayEquals(data, Utils.unzip(zipped.toByteArray()));
+    }
+
+    @Test
+    void testIncompressibleInput() throws IOException, EbicsException {
+        byte[] data = new byte[3 * BLOCK_SIZE + 17];
+
+        new Random(0).nextBytes(data);
+        assertRoundTrip(data, 0, 4);
+        assertRoundTrip(data, 9, 4);
+    }
+
+    @Test
+    void testDictionaryKeepsTheRatio() throws IOException, EbicsException {
+        byte[] data = BenchmarkData.orderData(2_000_000);
+        int sequential = zip(data, 9, 1).length;
+        int parallel = zip(data, 9, 4).length;
+
+        assertEquals(sequential, parallel, sequential / 50.0);
+    }
+
+    private static void assertRoundTrip(byte[] data, int level, int threads) throws IOException, EbicsException {
+        assertArrayEquals(data, Utils.unzip(zip(data, level, threads)));
+    }
+
+    private static byte[] zip(byte[] data, int level, int threads) throws IOException {
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+
+        try (OutputStream out = Utils.zip(zipped, level, threads)) {
+            out.write(data);
+        }
+
+        return zipped.toByteArray();
+    }
+}
@@ -0,0 +1,104 @@
+package org.kopi.ebics.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentJournalTest {
+
+    private static final byte[] TRANSACTION_ID = {1, 2, 3, 4};
+    private static final byte[] TRANSACTION_KEY = {5, 6, 7, 8};
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testEmptyJournal() throws Exception {
+        SegmentJournal journal = new SegmentJournal(tempDir.resolve("journal"));
+
+        assertFalse(journal.isStarted());
+        assertFalse(journal.isComplete());
+        assertEquals(0, journal.getLastSegment());
+    }
+
+    @Test
+    void testResumeAfterReload() throws Exception {
+        Path directory = tempDir.resolve("journal");
+        SegmentJournal journal = new SegmentJournal(directory);
+
+        journal.start(TRANSACTION_ID, TRANSACTION_KEY, 3);
+        journal.write(1, new byte[] {1});
+        journal.write(3, new byte[] {3});
+
+        journal = new SegmentJournal(directory);
+        assertTrue(journal.isStarted());
+        assertArrayEquals(TRANSACTION_ID, journal.getTransactionId());
+        assertArrayEquals(TRANSACTION_KEY, journal.getTransactionKey());
+        assertEquals(3, journal.getNumSegments());
+        assertEquals(1, journal.getLastSegment());
+        assertFalse(journal.isComplete());
+
+        journal.write(2, new byte[] {2});
+        assertEquals(3, journal.getLastSegment());
+        assertTrue(journal.isComplete());
+    }
+
+    @Test
+    void testStartDropsThePreviousTransaction() throws Exception {
+        SegmentJournal journal = new SegmentJournal(tempDir.resolve("journal"));
+
+        journal.start(TRANSACTION_ID, TRANSACTION_KEY, 2);
+        journal.write(1, new byte[] {1});
+        journal.start(TRANSACTION_KEY, TRANSACTION_ID, 2);
+
+        assertArrayEquals(TRANSACTION_KEY, journal.getTransactionId());
+        assertEquals(0, journal.getLastSegment());
+    }
+
+    @Test
+    void testUploadJournal() throws Exception {
+        Path directory = tempDir.resolve("journal");
+        Path orderData = Files.write(tempDir.resolve("spool"), new byte[] {1, 1, 2});
+        SegmentJournal journal = new SegmentJournal(directory);
+
+        journal.start(TRANSACTION_ID, TRANSACTION_KEY, 2, 2, orderData);
+        journal.acknowledge(1);
+        assertFalse(Files.exists(orderData));
+
+        journal = new SegmentJournal(directory);
+        assertTrue(journal.isComplete());
+        assertArrayEquals(TRANSACTION_KEY, journal.getTransactionKey());
+        assertEquals(1, journal.getAcknowledged());
+        try (InputStream in = journal.getSegment(1).getContent()) {
+            assertArrayEquals(new byte[] {1, 1}, in.readAllBytes());
+        }
+        try (InputStream in = journal.getSegment(2).getContent()) {
+            assertArrayEquals(new byte[] {2}, in.readAllBytes());
+        }
+
+        journal.start(TRANSACTION_ID, new byte[0], 2);
+        assertEquals(0, journal.getAcknowledged());
+    }
+
+    @Test
+    void testDelete() throws Exception {
+        Path directory = tempDir.resolve("journal");
+        SegmentJournal journal = new SegmentJournal(directory);
+
+        journal.start(TRANSACTION_ID, TRANSACTION_KEY, 1);
+        journal.write(1, new byte[] {1});
+        journal.delete();
+
+        assertFalse(journal.isStarted());
+        assertFalse(Files.exists(directory));
+        assertFalse(new SegmentJournal(directory).isStarted());
+    }
+}
@@ -0,0 +1,52 @@
+package org.kopi.ebics.io;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.client.User;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.Signature;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class SignatureOutputStreamTest {
+
+    private static KeyPair keyPair;
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    @Test
+    void testOSSpecificCharsAreNotSigned() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        for (int i = 0; i < data.length; i += 7) {
+            data[i] = (byte) "\r\n\u001A".charAt(i % 3);
+        }
+
+        Signature expected = signature();
+        expected.update(User.removeOSSpecificChars(data));
+
+        SignatureOutputStream out = new SignatureOutputStream(signature());
+        out.write(data, 0, 50000);
+        out.write('\r');
+        out.write(data[50000]);
+        out.write(data, 50001, data.length - 50001);
+
+        assertArrayEquals(expected.sign(), out.sign());
+    }
+
+    private static Signature signature() throws Exception {
+        Signature signature = Signature.getInstance("SHA256WithRSA", "BC");
+        signature.initSign(keyPair.getPrivate());
+        return signature;
+    }
+}
@@ -0,0 +1,84 @@
+package org.kopi.ebics.io;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.utils.BenchmarkData;
+import org.kopi.ebics.utils.Utils;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the upload segmentation and of the download joining.
+ *
+ * <p>Run with <code>mvn -Pbenchmark verify -Dbenchmark=SplitterBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class SplitterBenchmark {
+
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+
+    @Param({"1024", "1048576", "104857600", "524288000"})
+    public int size;
+
+    private byte[] data;
+    private byte[][] segments;
+    private SecretKeySpec keySpec;
+    private EbicsUser user;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] encrypted;
+
+        keySpec = BenchmarkData.transactionKey();
+        data = BenchmarkData.orderData(size);
+        encrypted = Utils.encrypt(Utils.zip(data), keySpec);
+        segments = new byte[(encrypted.length + SEGMENT_SIZE - 1) / SEGMENT_SIZE][];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = Arrays.copyOfRange(encrypted, i * SEGMENT_SIZE,
+                    Math.min(encrypted.length, (i + 1) * SEGMENT_SIZE));
+        }
+
+        user = Mockito.mock(EbicsUser.class);
+        Mockito.when(user.decrypt(Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> Utils.decrypt(invocation.<byte[]>getArgument(0), keySpec));
+    }
+
+    @Benchmark
+    public int readInput() throws EbicsException, IOException {
+        try (Splitter splitter = new Splitter(data)) {
+            splitter.readInput(true, keySpec);
+            return splitter.getSegmentNumber();
+        }
+    }
+
+    @Benchmark
+    public void joinerWriteTo() throws EbicsException {
+        Joiner joiner = new Joiner(user);
+
+        for (byte[] segment : segments) {
+            joiner.append(segment);
+        }
+        joiner.writeTo(OutputStream.nullOutputStream(), new byte[0]);
+    }
+}
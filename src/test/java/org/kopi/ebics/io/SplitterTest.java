@@ -1,9 +1,11 @@
 package org.kopi.ebics.io;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.session.EbicsSession;
 import org.kopi.ebics.session.OrderType;
+import org.kopi.ebics.utils.Utils;
 import org.kopi.ebics.xml.UploadTransferRequestElement;
 import org.mockito.Mockito;
 
@@ -11,20 +13,27 @@ import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.security.Security;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SplitterTest {
 
     private static final int ONE_KB = 1000;
     private static final int ONE_MB = ONE_KB * ONE_KB;
-    private static final int CHUNK_SIZE_LIMIT = 700 * ONE_KB;
-    private static final int REQUEST_SIZE_LIMIT = 1000 * ONE_KB;
+    private static final int CHUNK_SIZE_LIMIT = Splitter.MAX_SEGMENT_SIZE / 4 * 3;
+    private static final int SEGMENT_SIZE_LIMIT = (Splitter.MAX_SEGMENT_SIZE - Splitter.ENVELOPE_SIZE) / 4 * 3;
+    private static final int REQUEST_SIZE_LIMIT = Splitter.MAX_SEGMENT_SIZE;
     private static final Random RANDOM_SEED = new Random(0);
 
     @Test
@@ -55,6 +64,54 @@ class SplitterTest {
         verifyActualRequestSize(splitter);
     }
 
+    @Test
+    void testSplitSpooledFile(@TempDir Path dir) throws Exception {
+        byte[] b = randomDataArray(3 * ONE_MB);
+        Path file = Files.write(dir.resolve("input"), b);
+        SecretKeySpec keySpec = new SecretKeySpec(secretKey().getEncoded(), "AES");
+        ByteArrayOutputStream segments = new ByteArrayOutputStream();
+
+        try (Splitter splitter = new Splitter(file)) {
+            splitter.readInput(true, keySpec);
+            assertTrue(splitter.getSegmentSize() % 3 == 0);
+            for (int i = 1; i <= splitter.getSegmentNumber(); i++) {
+                try (InputStream in = splitter.getContent(i).getContent()) {
+                    byte[] segment = in.readAllBytes();
+                    assertTrue(segment.length < SplitterTest.CHUNK_SIZE_LIMIT);
+                    segments.write(segment);
+                }
+            }
+            assertArrayEquals(splitter.getContent(), segments.toByteArray());
+        }
+
+        assertArrayEquals(b, Utils.unzip(Utils.decrypt(segments.toByteArray(), keySpec)));
+    }
+
+    @Test
+    void testSegmentsFillTheLimit() throws Exception {
+        byte[] b = randomDataArray(10 * ONE_MB);
+        Splitter splitter = new Splitter(b);
+        int length;
+
+        splitter.readInput(false, new SecretKeySpec(secretKey().getEncoded(), "AES"));
+        length = splitter.getContent().length;
+
+        assertEquals((length + SEGMENT_SIZE_LIMIT - 1) / SEGMENT_SIZE_LIMIT, splitter.getSegmentNumber());
+        assertTrue(splitter.getSegmentSize() <= SEGMENT_SIZE_LIMIT);
+    }
+
+    @Test
+    void testBankSegmentSize() throws Exception {
+        byte[] b = randomDataArray(10 * ONE_MB);
+        Splitter splitter = new Splitter(b);
+
+        splitter.setMaxSegmentSize(500 * ONE_KB);
+        splitter.readInput(false, new SecretKeySpec(secretKey().getEncoded(), "AES"));
+
+        assertTrue(splitter.getSegmentSize() % 3 == 0);
+        assertTrue(4 * splitter.getSegmentSize() / 3 + Splitter.ENVELOPE_SIZE <= 500 * ONE_KB);
+    }
+
     private UploadTransferRequestElement prepareActualRequest(Splitter splitter) throws EbicsException {
         EbicsSession ebicsSession = Mockito.mock(EbicsSession.class, Mockito.RETURNS_DEEP_STUBS);
 
@@ -71,13 +128,14 @@ class SplitterTest {
 
     private void verifyActualRequestSize(Splitter splitter) throws EbicsException {
         UploadTransferRequestElement fullRequest = prepareActualRequest(splitter);
-        int actualSize = fullRequest.prettyPrint().length;
-        assertTrue(actualSize < SplitterTest.REQUEST_SIZE_LIMIT);
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        fullRequest.writeTo(request);
+        assertTrue(request.size() < SplitterTest.REQUEST_SIZE_LIMIT);
     }
 
     private Splitter splitAndVerifyContent(byte[] b) throws InvalidKeySpecException, NoSuchAlgorithmException, EbicsException, IOException {
         Splitter splitter = new Splitter(b);
-        splitter.readInput(true, new SecretKeySpec(secretKey().getEncoded(), "EAS"));
+        splitter.readInput(true, new SecretKeySpec(secretKey().getEncoded(), "AES"));
         int segmentSize = splitter.getSegmentSize();
         int segmentCount = splitter.getSegmentNumber();
         assertTrue(segmentSize < SplitterTest.CHUNK_SIZE_LIMIT);
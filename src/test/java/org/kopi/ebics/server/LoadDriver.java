@@ -0,0 +1,312 @@
+package org.kopi.ebics.server;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.kopi.ebics.client.Bank;
+import org.kopi.ebics.client.FileTransfer;
+import org.kopi.ebics.client.KeyManagement;
+import org.kopi.ebics.client.Partner;
+import org.kopi.ebics.client.User;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.ReturnCode;
+import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.kopi.ebics.interfaces.TraceManager;
+import org.kopi.ebics.session.DefaultConfiguration;
+import org.kopi.ebics.session.EbicsSession;
+import org.kopi.ebics.session.OrderType;
+import org.kopi.ebics.session.Product;
+import org.kopi.ebics.utils.BenchmarkData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives uploads or downloads against a {@link MockBankServer} and reports
+ * the transfers per second, the p50 and p99 transfer latency and the order
+ * data bytes per second.
+ *
+ * <p>A single user, of its own for each driver, is initialized with the INI,
+ * HIA and HPB requests, then the transfers are run by a fixed number of
+ * concurrent workers. Traces are not written, so that the disk is not measured.
+ *
+ * <p>Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.kopi.ebics.server.LoadDriver -Dexec.args="--help"</code>.
+ */
+public final class LoadDriver {
+
+    private static final String HOST_ID = "MOCKBANK";
+    private static final String PARTNER_ID = "PARTNER1";
+    private static final String USER_ID = "USER";
+    private static final AtomicInteger drivers = new AtomicInteger();
+
+    private final MockBankServer server;
+    private final EbicsSession session;
+    private final Path workDir;
+
+    /**
+     * Creates a driver for the given bank and initializes its user.
+     *
+     * @param server     the started mock bank
+     * @param properties the client configuration properties, for the transfer windows
+     * @throws Exception the user cannot be initialized
+     */
+    public LoadDriver(MockBankServer server, Properties properties) throws Exception {
+        DefaultConfiguration configuration;
+        Bank bank;
+        User user;
+        KeyManagement keyManagement;
+
+        this.server = server;
+        workDir = Files.createTempDirectory("ebics-load");
+        configuration = new DefaultConfiguration(workDir.toString(), properties) {
+
+            @Override
+            public TraceManager getTraceManager() {
+                return NO_TRACE;
+            }
+        };
+        configuration.init();
+
+        bank = new Bank(server.getURL(), "Mock Bank", server.getHostId(), true);
+        user = new User(new Partner(bank, PARTNER_ID),
+                USER_ID + drivers.incrementAndGet(),
+                "Load Driver",
+                "load@example.com",
+                "DE",
+                "Mock Bank",
+                "secret"::toCharArray);
+        session = new EbicsSession(user, configuration);
+        session.setProduct(new Product("ebics-load-driver", "en", null));
+        Files.createDirectories(Paths.get(configuration.getKeystoreDirectory(user)));
+
+        keyManagement = new KeyManagement(session);
+        keyManagement.sendINI(null);
+        keyManagement.sendHIA(null);
+        keyManagement.sendHPB();
+    }
+
+    /**
+     * Returns the session of the driver user.
+     *
+     * @return the ebics session
+     */
+    public EbicsSession getSession() {
+        return session;
+    }
+
+    /**
+     * Runs the given number of transfers.
+     *
+     * @param upload      upload or download the order data
+     * @param transfers   the number of transfers
+     * @param concurrency the number of concurrent transfers
+     * @param data        the order data
+     * @return the run report
+     * @throws EbicsException
+     * @throws InterruptedException
+     */
+    public Report run(boolean upload, int transfers, int concurrency, byte[] data)
+            throws EbicsException, InterruptedException {
+        long[] latencies;
+        AtomicInteger next;
+        AtomicInteger failures;
+        ExecutorService workers;
+        long start;
+        long elapsed;
+
+        if (!upload) {
+            server.setDownloadData(data);
+        }
+        latencies = new long[transfers];
+        next = new AtomicInteger();
+        failures = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(concurrency);
+        start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                FileTransfer transfer = new FileTransfer(session);
+                int index;
+
+                while ((index = next.getAndIncrement()) < transfers) {
+                    long begin = System.nanoTime();
+
+                    try {
+                        transfer(transfer, upload, data, index);
+                        latencies[index] = System.nanoTime() - begin;
+                    } catch (IOException | EbicsException e) {
+                        latencies[index] = -1;
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        elapsed = System.nanoTime() - start;
+
+        return new Report(transfers - failures.get(), failures.get(), elapsed, data.length, latencies);
+    }
+
+    private void transfer(FileTransfer transfer, boolean upload, byte[] data, int index)
+            throws IOException, EbicsException {
+        File output;
+
+        if (upload) {
+            transfer.sendFile(data, OrderType.UPL, null);
+            return;
+        }
+
+        output = workDir.resolve("download-" + index).toFile();
+        transfer.fetchFile(OrderType.DNL, null, null, null, output);
+        Files.delete(output.toPath());
+    }
+
+    /**
+     * The outcome of a run.
+     *
+     * @param transfers the successful transfers
+     * @param failures  the failed transfers
+     * @param elapsed   the run duration in nanoseconds
+     * @param size      the order data size of a transfer
+     * @param latencies the transfer latencies in nanoseconds, -1 for the failed ones
+     */
+    public record Report(int transfers, int failures, long elapsed, int size, long[] latencies) {
+
+        public double getTransfersPerSecond() {
+            return transfers / seconds();
+        }
+
+        public double getBytesPerSecond() {
+            return (double) transfers * size / seconds();
+        }
+
+        /**
+         * Returns a percentile of the successful transfer latencies.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the latency in milliseconds
+         */
+        public double getLatency(double percentile) {
+            long[] sorted = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+
+            if (sorted.length == 0) {
+                return Double.NaN;
+            }
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+
+        private double seconds() {
+            return elapsed / 1e9;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d transfers, %d failures in %.2f s: %.1f transfers/s, p50 %.1f ms, p99 %.1f ms, %.1f MB/s",
+                    transfers,
+                    failures,
+                    seconds(),
+                    getTransfersPerSecond(),
+                    getLatency(50),
+                    getLatency(99),
+                    getBytesPerSecond() / (1024 * 1024));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        CommandLine line;
+        Properties properties;
+        boolean upload;
+        int size;
+
+        options = new Options();
+        options.addOption(null, "download", false, "Download the order data instead of uploading it");
+        options.addOption(null, "transfers", true, "The number of transfers, 100 by default");
+        options.addOption(null, "concurrency", true, "The number of concurrent transfers, 4 by default");
+        options.addOption(null, "size", true, "The order data size in bytes, 1048576 by default");
+        options.addOption(null, "segments", true, "The number of segments of a download, 1 by default");
+        options.addOption(null, "window", true, "The client download window, 1 by default");
+        options.addOption(null, "lookahead", true, "The client upload look-ahead, 0 by default");
+        options.addOption(null, "latency", true, "The bank latency of a request in milliseconds, 0 by default");
+        options.addOption(null, "error-rate", true, "The share of failing transaction initialisations, 0 by default");
+        options.addOption(null, "warmup", true, "The number of warmup transfers, 10 by default");
+        options.addOption(null, "help", false, "Print this help text");
+        line = parseArguments(options, args);
+
+        upload = !line.hasOption("download");
+        size = Integer.parseInt(line.getOptionValue("size", "1048576"));
+        properties = new Properties();
+        properties.setProperty("download.window", line.getOptionValue("window", "1"));
+        properties.setProperty("upload.lookahead", line.getOptionValue("lookahead", "0"));
+
+        try (MockBankServer server = new MockBankServer(HOST_ID)) {
+            LoadDriver driver;
+            int concurrency;
+            byte[] data;
+
+            server.start();
+            server.setDownloadSegments(Integer.parseInt(line.getOptionValue("segments", "1")));
+            driver = new LoadDriver(server, properties);
+            concurrency = Integer.parseInt(line.getOptionValue("concurrency", "4"));
+            data = BenchmarkData.orderData(size);
+
+            driver.run(upload, Integer.parseInt(line.getOptionValue("warmup", "10")), concurrency, data);
+            server.setLatency(Long.parseLong(line.getOptionValue("latency", "0")));
+            server.setError(Double.parseDouble(line.getOptionValue("error-rate", "0")), ReturnCode.EBICS_INTERNAL_ERROR);
+            System.out.println(driver.run(upload, Integer.parseInt(line.getOptionValue("transfers", "100")), concurrency, data));
+        }
+    }
+
+    private static CommandLine parseArguments(Options options, String[] args) throws ParseException {
+        CommandLine line = new DefaultParser().parse(options, args);
+
+        if (line.hasOption("help")) {
+            new HelpFormatter().printHelp(LoadDriver.class.getSimpleName(), options);
+            System.exit(0);
+        }
+        return line;
+    }
+
+    /**
+     * A trace manager writing nothing.
+     */
+    private static final TraceManager NO_TRACE = new TraceManager() {
+
+        @Override
+        public void trace(EbicsRootElement element) {
+        }
+
+        @Override
+        public void trace(EbicsRootElement element, String traceDir) {
+        }
+
+        @Override
+        public void remove(EbicsRootElement element) {
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public void setTraceDirectory(String traceDir) {
+        }
+
+        @Override
+        public void setTraceEnabled(boolean enabled) {
+        }
+    };
+}
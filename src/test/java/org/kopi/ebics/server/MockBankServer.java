@@ -0,0 +1,804 @@
+package org.kopi.ebics.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.kopi.ebics.certificate.KeyUtil;
+import org.kopi.ebics.certificate.X509Constants;
+import org.kopi.ebics.certificate.X509Generator;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.ReturnCode;
+import org.kopi.ebics.io.Splitter;
+import org.kopi.ebics.schema.h005.DataTransferResponseType;
+import org.kopi.ebics.schema.h005.EbicsKeyManagementResponseDocument;
+import org.kopi.ebics.schema.h005.EbicsKeyManagementResponseDocument.EbicsKeyManagementResponse;
+import org.kopi.ebics.schema.h005.EbicsNoPubKeyDigestsRequestDocument;
+import org.kopi.ebics.schema.h005.EbicsNoPubKeyDigestsRequestDocument.EbicsNoPubKeyDigestsRequest;
+import org.kopi.ebics.schema.h005.EbicsRequestDocument;
+import org.kopi.ebics.schema.h005.EbicsRequestDocument.EbicsRequest;
+import org.kopi.ebics.schema.h005.EbicsResponseDocument;
+import org.kopi.ebics.schema.h005.EbicsResponseDocument.EbicsResponse;
+import org.kopi.ebics.schema.h005.EbicsUnsecuredRequestDocument;
+import org.kopi.ebics.schema.h005.EbicsUnsecuredRequestDocument.EbicsUnsecuredRequest;
+import org.kopi.ebics.schema.h005.EncryptionPubKeyInfoType;
+import org.kopi.ebics.schema.h005.HIARequestOrderDataDocument;
+import org.kopi.ebics.schema.h005.HPBResponseOrderDataDocument;
+import org.kopi.ebics.schema.h005.HPBResponseOrderDataType;
+import org.kopi.ebics.schema.h005.ResponseMutableHeaderType;
+import org.kopi.ebics.schema.h005.TransactionPhaseType;
+import org.kopi.ebics.utils.CryptoEngines;
+import org.kopi.ebics.utils.Utils;
+import org.kopi.ebics.xml.EbicsXmlFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process EBICS H005 bank stand-in for load and soak tests.
+ *
+ * <p>The server answers the INI, HIA and HPB key management requests, the
+ * segmented uploads and downloads and their receipts over plain HTTP, using
+ * the same XMLBeans schema types as the client. The encryption key sent in
+ * the HIA request is kept per user, so that the downloads and the HPB bank
+ * keys can be encrypted for it.
+ *
+ * <p>It is not a bank: the signatures are not verified, the uploaded order
+ * data is only counted, an upload segment without order data being rejected
+ * with <code>EBICS_INVALID_REQUEST_CONTENT</code> and one over 1 MB once base64
+ * coded with <code>EBICS_SEGMENT_SIZE_EXCEEDED</code>, and the responses are not
+ * signed. The latency, the
+ * injected error codes and the download segments are configurable, so that
+ * the client can be measured against a slow or failing bank. An upload
+ * segment sent out of order is answered with <code>EBICS_TX_RECOVERY_SYNC</code>
+ * and the last segment received, as a bank does for a recovered transaction.
+ */
+public class MockBankServer implements AutoCloseable {
+
+    private static final String VERSION = "H005";
+    private static final int REVISION = 1;
+    private static final String DIGEST_ALGORITHM = "http://www.w3.org/2001/04/xmlenc#sha256";
+
+    private final String hostId;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final KeyPair x002KeyPair;
+    private final KeyPair e002KeyPair;
+    private final X509Certificate x002Certificate;
+    private final X509Certificate e002Certificate;
+    private final Map<String, RSAPublicKey> users;
+    private final Map<String, Transaction> transactions;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder uploads = new LongAdder();
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder orderDataReceived = new LongAdder();
+
+    private volatile long latency;
+    private volatile double errorRate;
+    private volatile ReturnCode errorCode = ReturnCode.EBICS_INTERNAL_ERROR;
+    private volatile double segmentErrorRate;
+    private volatile int downloadSegments = 1;
+    private volatile long[] segmentLatencies = new long[0];
+    private volatile int failingSegment;
+    private volatile ReturnCode failingSegmentCode;
+    private volatile byte[] downloadData;
+    private int handling;
+
+    /**
+     * Creates a new mock bank listening on a free local port.
+     * The server is started with {@link #start()}.
+     *
+     * @param hostId the bank host ID
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public MockBankServer(String hostId) throws IOException, GeneralSecurityException {
+        X509Generator generator;
+        Calendar calendar;
+
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        this.hostId = hostId;
+        calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_YEAR, X509Constants.DEFAULT_DURATION);
+        generator = new X509Generator();
+        x002KeyPair = KeyUtil.makeKeyPair(X509Constants.EBICS_KEY_SIZE);
+        e002KeyPair = KeyUtil.makeKeyPair(X509Constants.EBICS_KEY_SIZE);
+        x002Certificate = generator.generateX002Certificate(x002KeyPair, getDN(), new Date(), calendar.getTime());
+        e002Certificate = generator.generateE002Certificate(e002KeyPair, getDN(), new Date(), calendar.getTime());
+        users = new ConcurrentHashMap<>();
+        transactions = new ConcurrentHashMap<>();
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts the server.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server and drops its transactions.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        transactions.clear();
+    }
+
+    /**
+     * Returns the URL the client should send its requests to.
+     *
+     * @return the bank URL
+     */
+    public URL getURL() {
+        try {
+            return new URI("http", null, server.getAddress().getHostString(), server.getAddress().getPort(),
+                    "/ebics", null, null).toURL();
+        } catch (URISyntaxException | MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String getHostId() {
+        return hostId;
+    }
+
+    /**
+     * Sets the time every request waits before it is answered.
+     *
+     * @param latency the latency in milliseconds
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Makes the given share of the transaction initialisations fail
+     * with the given return code.
+     *
+     * @param errorRate the share of failing initialisations, between 0 and 1
+     * @param errorCode the return code of the failing initialisations
+     */
+    public void setError(double errorRate, ReturnCode errorCode) {
+        this.errorRate = errorRate;
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * Makes the given share of the upload segments fail with
+     * <code>EBICS_INTERNAL_ERROR</code> after they are received, as if the
+     * response were lost. The last segments, that close the transactions,
+     * do not fail.
+     *
+     * @param segmentErrorRate the share of failing segments, between 0 and 1
+     */
+    public void setSegmentError(double segmentErrorRate) {
+        this.segmentErrorRate = segmentErrorRate;
+    }
+
+    /**
+     * Sets the order data served by the downloads. Without order data,
+     * the downloads are answered with <code>EBICS_NO_DOWNLOAD_DATA_AVAILABLE</code>.
+     * The data is compressed once here, so that only its encryption is
+     * done for each download.
+     *
+     * @param downloadData the order data
+     * @throws EbicsException
+     */
+    public void setDownloadData(byte[] downloadData) throws EbicsException {
+        this.downloadData = downloadData == null ? null : Utils.zip(downloadData);
+    }
+
+    /**
+     * Sets the number of segments the downloads are split into.
+     *
+     * @param downloadSegments the number of segments
+     */
+    public void setDownloadSegments(int downloadSegments) {
+        this.downloadSegments = Math.max(1, downloadSegments);
+    }
+
+    /**
+     * Sets the time the download segments wait before they are answered,
+     * the first latency being the one of the first segment. The segments
+     * without latency are answered at once.
+     *
+     * @param segmentLatencies the latencies in milliseconds
+     */
+    public void setSegmentLatencies(long... segmentLatencies) {
+        this.segmentLatencies = segmentLatencies;
+    }
+
+    /**
+     * Makes the download segment of the given number fail with the given
+     * return code, after its latency.
+     *
+     * @param segmentNumber the failing segment number, 0 for none
+     * @param errorCode     the return code of the failing segment
+     */
+    public void setFailingSegment(int segmentNumber, ReturnCode errorCode) {
+        this.failingSegmentCode = errorCode;
+        this.failingSegment = segmentNumber;
+    }
+
+    /**
+     * Registers the encryption key of a user that did not send its HIA request.
+     *
+     * @param partnerId the partner ID
+     * @param userId    the user ID
+     * @param e002Key   the user encryption key
+     */
+    public void registerUser(String partnerId, String userId, RSAPublicKey e002Key) {
+        users.put(userKey(partnerId, userId), e002Key);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getUploads() {
+        return uploads.sum();
+    }
+
+    public long getDownloads() {
+        return downloads.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Returns the size of the order data received in the upload segments.
+     *
+     * @return the received order data bytes
+     */
+    public long getOrderDataReceived() {
+        return orderDataReceived.sum();
+    }
+
+    /**
+     * Returns the number of open transactions.
+     *
+     * @return the open transactions
+     */
+    public int getOpenTransactions() {
+        return transactions.size();
+    }
+
+    /**
+     * Drops the open transactions, as the bank does when they time out.
+     */
+    public void clearTransactions() {
+        transactions.clear();
+    }
+
+    /**
+     * Waits until the requests being handled are answered, the ones the
+     * client gave up on included, so that they reach neither the
+     * transactions nor the counters of the next test.
+     *
+     * @throws InterruptedException the wait is interrupted
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (handling > 0) {
+            wait();
+        }
+    }
+
+    private synchronized void started() {
+        handling++;
+    }
+
+    private synchronized void finished() {
+        handling--;
+        notifyAll();
+    }
+
+    private String getDN() {
+        return "CN=" + hostId + ",O=Mock Bank,C=DE";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        started();
+        try (exchange) {
+            byte[] request;
+            XmlObject response;
+            ByteArrayOutputStream body;
+
+            request = exchange.getRequestBody().readAllBytes();
+            requests.increment();
+            bytesReceived.add(request.length);
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+
+            try {
+                response = dispatch(rootElement(request), request);
+            } catch (XmlException | GeneralSecurityException | EbicsException | RuntimeException e) {
+                errors.increment();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            if (response == null) {
+                errors.increment();
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            body = new ByteArrayOutputStream();
+            response.save(body);
+            bytesSent.add(body.size());
+            exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.size());
+            body.writeTo(exchange.getResponseBody());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } finally {
+            finished();
+        }
+    }
+
+    private XmlObject dispatch(String rootElement, byte[] request)
+            throws GeneralSecurityException, EbicsException, IOException, XmlException {
+        switch (rootElement) {
+            case "ebicsRequest":
+                return transaction(EbicsRequestDocument.Factory.parse(new ByteArrayInputStream(request))
+                        .getEbicsRequest());
+            case "ebicsUnsecuredRequest":
+                return keyManagement(EbicsUnsecuredRequestDocument.Factory.parse(new ByteArrayInputStream(request))
+                        .getEbicsUnsecuredRequest());
+            case "ebicsNoPubKeyDigestsRequest":
+                return bankKeys(EbicsNoPubKeyDigestsRequestDocument.Factory.parse(new ByteArrayInputStream(request))
+                        .getEbicsNoPubKeyDigestsRequest());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the local name of the root element of a request, so that it
+     * is parsed only once, with the factory of its document type.
+     *
+     * @param request the request
+     * @return the root element local name, or an empty string
+     */
+    private static String rootElement(byte[] request) {
+        int start;
+        int end;
+
+        start = 0;
+        while (start < request.length - 1
+                && (request[start] != '<' || request[start + 1] == '?' || request[start + 1] == '!')) {
+            start++;
+        }
+        end = ++start;
+        while (end < request.length && request[end] != '>' && request[end] != '/'
+                && !Character.isWhitespace(request[end])) {
+            if (request[end] == ':') {
+                start = end + 1;
+            }
+            end++;
+        }
+
+        return new String(request, start, Math.max(0, end - start), StandardCharsets.UTF_8);
+    }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // Key management
+    //-----------------------------------------------------------------------------------------------------------------
+
+    private XmlObject keyManagement(EbicsUnsecuredRequest request)
+            throws GeneralSecurityException, EbicsException, IOException, XmlException {
+        String orderType;
+        String partnerId;
+        String userId;
+        EncryptionPubKeyInfoType encryptionKey;
+        X509Certificate certificate;
+
+        orderType = request.getHeader().getStatic().getOrderDetails().getAdminOrderType();
+        partnerId = request.getHeader().getStatic().getPartnerID();
+        userId = request.getHeader().getStatic().getUserID();
+        if ("INI".equals(orderType)) {
+            return keyManagementResponse(ReturnCode.EBICS_OK);
+        }
+        if (!"HIA".equals(orderType)) {
+            return keyManagementResponse(ReturnCode.EBICS_UNSUPPORTED_ORDER_IDENTIFIER);
+        }
+
+        encryptionKey = HIARequestOrderDataDocument.Factory.parse(new ByteArrayInputStream(
+                        Utils.unzip(request.getBody().getDataTransfer().getOrderData().getByteArrayValue())))
+                .getHIARequestOrderData()
+                .getEncryptionPubKeyInfo();
+        if (encryptionKey.getX509Data() == null || encryptionKey.getX509Data().sizeOfX509CertificateArray() == 0) {
+            return keyManagementResponse(ReturnCode.EBICS_ONLY_X509_SUPPORT);
+        }
+
+        certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(encryptionKey.getX509Data().getX509CertificateArray(0)));
+        users.put(userKey(partnerId, userId), (RSAPublicKey) certificate.getPublicKey());
+        return keyManagementResponse(ReturnCode.EBICS_OK);
+    }
+
+    private XmlObject bankKeys(EbicsNoPubKeyDigestsRequest request)
+            throws GeneralSecurityException, EbicsException, IOException {
+        RSAPublicKey userKey;
+        HPBResponseOrderDataDocument orderData;
+        HPBResponseOrderDataType hpb;
+        ByteArrayOutputStream out;
+        EncryptedData encrypted;
+        EbicsKeyManagementResponseDocument document;
+        EbicsKeyManagementResponse.Body.DataTransfer dataTransfer;
+
+        userKey = users.get(userKey(request.getHeader().getStatic().getPartnerID(),
+                request.getHeader().getStatic().getUserID()));
+        if (userKey == null) {
+            return keyManagementResponse(ReturnCode.EBICS_USER_UNKNOWN);
+        }
+
+        orderData = HPBResponseOrderDataDocument.Factory.newInstance();
+        hpb = orderData.addNewHPBResponseOrderData();
+        hpb.setAuthenticationPubKeyInfo(EbicsXmlFactory.createAuthenticationPubKeyInfoType("X002",
+                EbicsXmlFactory.createX509DataType(getDN(), x002Certificate.getEncoded())));
+        hpb.setEncryptionPubKeyInfo(EbicsXmlFactory.createEncryptionPubKeyInfoType("E002",
+                EbicsXmlFactory.createX509DataType(getDN(), e002Certificate.getEncoded())));
+        hpb.setHostID(hostId);
+        out = new ByteArrayOutputStream();
+        orderData.save(out);
+        encrypted = encrypt(Utils.zip(out.toByteArray()), userKey);
+
+        document = keyManagementResponse(ReturnCode.EBICS_OK);
+        dataTransfer = document.getEbicsKeyManagementResponse().getBody().addNewDataTransfer();
+        dataTransfer.addNewDataEncryptionInfo().setTransactionKey(encrypted.transactionKey);
+        dataTransfer.getDataEncryptionInfo().setAuthenticate(true);
+        dataTransfer.getDataEncryptionInfo().addNewEncryptionPubKeyDigest().setByteArrayValue(KeyUtil.getKeyDigest(userKey));
+        dataTransfer.getDataEncryptionInfo().getEncryptionPubKeyDigest().setVersion("E002");
+        dataTransfer.getDataEncryptionInfo().getEncryptionPubKeyDigest().setAlgorithm(DIGEST_ALGORITHM);
+        dataTransfer.addNewOrderData().setByteArrayValue(encrypted.data);
+        return document;
+    }
+
+    private EbicsKeyManagementResponseDocument keyManagementResponse(ReturnCode returnCode) {
+        EbicsKeyManagementResponseDocument document;
+        EbicsKeyManagementResponse response;
+
+        if (!returnCode.isOk()) {
+            errors.increment();
+        }
+        document = EbicsKeyManagementResponseDocument.Factory.newInstance();
+        response = document.addNewEbicsKeyManagementResponse();
+        response.setVersion(VERSION);
+        response.setRevision(REVISION);
+        response.addNewHeader().setAuthenticate(true);
+        response.getHeader().addNewStatic();
+        response.getHeader().addNewMutable().setReturnCode(code(returnCode));
+        response.getHeader().getMutable().setReportText(reportText(returnCode));
+        response.addNewBody().addNewReturnCode().setStringValue(code(returnCode));
+        response.getBody().getReturnCode().setAuthenticate(true);
+        return document;
+    }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // Transactions
+    //-----------------------------------------------------------------------------------------------------------------
+
+    private XmlObject transaction(EbicsRequest request) throws GeneralSecurityException, EbicsException {
+        TransactionPhaseType.Enum phase;
+        Transaction transaction;
+
+        phase = request.getHeader().getMutable().getTransactionPhase();
+        if (phase == TransactionPhaseType.INITIALISATION) {
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                return response(phase, errorCode);
+            }
+            return request.getBody().isSetDataTransfer() ? initializeUpload(request) : initializeDownload(request);
+        }
+
+        transaction = transactions.get(Hex.encodeHexString(request.getHeader().getStatic().getTransactionID()));
+
+        if (transaction == null) {
+            return response(phase, ReturnCode.EBICS_TX_UNKNOWN_TXID);
+        }
+        if (phase == TransactionPhaseType.RECEIPT) {
+            return receipt(transaction);
+        }
+
+        return transaction.upload ? uploadSegment(request, transaction) : downloadSegment(request, transaction);
+    }
+
+    private EbicsResponseDocument initializeUpload(EbicsRequest request) {
+        Transaction transaction;
+        EbicsResponseDocument document;
+
+        transaction = open(true, (int) request.getHeader().getStatic().getNumSegments(), null, null);
+        document = response(TransactionPhaseType.INITIALISATION, ReturnCode.EBICS_OK);
+        document.getEbicsResponse().getHeader().getStatic().setTransactionID(transaction.id);
+        return document;
+    }
+
+    private EbicsResponseDocument uploadSegment(EbicsRequest request, Transaction transaction) {
+        EbicsRequest.Header header;
+        long segmentNumber;
+        int orderData;
+
+        header = request.getHeader();
+        segmentNumber = header.getMutable().getSegmentNumber().getLongValue();
+        if (segmentNumber > transaction.numSegments) {
+            return response(TransactionPhaseType.TRANSFER, ReturnCode.EBICS_TX_SEGMENT_NUMBER_EXCEEDED);
+        }
+        if (segmentNumber != transaction.received + 1) {
+            return recoverySync(transaction);
+        }
+        orderData = request.getBody().getDataTransfer().getOrderData().getByteArrayValue().length;
+        if (orderData == 0) {
+            return response(TransactionPhaseType.TRANSFER, ReturnCode.EBICS_INVALID_REQUEST_CONTENT);
+        }
+        if (4L * ((orderData + 2) / 3) > Splitter.MAX_SEGMENT_SIZE) {
+            return response(TransactionPhaseType.TRANSFER, ReturnCode.EBICS_SEGMENT_SIZE_EXCEEDED);
+        }
+        transaction.received = (int) segmentNumber;
+        orderDataReceived.add(orderData);
+
+        if (header.getMutable().getSegmentNumber().getLastSegment()) {
+            transactions.remove(Hex.encodeHexString(transaction.id));
+            uploads.increment();
+        } else if (segmentErrorRate > 0 && ThreadLocalRandom.current().nextDouble() < segmentErrorRate) {
+            return response(TransactionPhaseType.TRANSFER, ReturnCode.EBICS_INTERNAL_ERROR);
+        }
+
+        return transferResponse(transaction, segmentNumber, header.getMutable().getSegmentNumber().getLastSegment());
+    }
+
+    /**
+     * Returns the response to an upload segment sent out of order, holding
+     * the last segment received in the transaction.
+     */
+    private EbicsResponseDocument recoverySync(Transaction transaction) {
+        EbicsResponseDocument document;
+        ResponseMutableHeaderType.SegmentNumber segment;
+
+        document = response(TransactionPhaseType.TRANSFER, ReturnCode.EBICS_TX_RECOVERY_SYNC);
+        document.getEbicsResponse().getHeader().getStatic().setTransactionID(transaction.id);
+        segment = document.getEbicsResponse().getHeader().getMutable().addNewSegmentNumber();
+        segment.setLongValue(transaction.received);
+        segment.setLastSegment(false);
+        return document;
+    }
+
+    private EbicsResponseDocument initializeDownload(EbicsRequest request)
+            throws GeneralSecurityException, EbicsException {
+        byte[] data;
+        RSAPublicKey userKey;
+        EncryptedData encrypted;
+        Transaction transaction;
+        EbicsResponseDocument document;
+        DataTransferResponseType dataTransfer;
+
+        data = downloadData;
+        if (data == null) {
+            document = response(TransactionPhaseType.INITIALISATION, ReturnCode.EBICS_OK);
+            document.getEbicsResponse().getBody().getReturnCode()
+                    .setStringValue(code(ReturnCode.EBICS_NO_DOWNLOAD_DATA_AVAILABLE));
+            return document;
+        }
+        userKey = users.get(userKey(request.getHeader().getStatic().getPartnerID(),
+                request.getHeader().getStatic().getUserID()));
+        if (userKey == null) {
+            return response(TransactionPhaseType.INITIALISATION, ReturnCode.EBICS_USER_UNKNOWN);
+        }
+
+        encrypted = encrypt(data, userKey);
+        transaction = open(false, Math.min(downloadSegments, encrypted.data.length), encrypted.data, encrypted.transactionKey);
+        document = transferResponse(transaction, 1, transaction.numSegments == 1);
+        document.getEbicsResponse().getHeader().getMutable().setTransactionPhase(TransactionPhaseType.INITIALISATION);
+        document.getEbicsResponse().getHeader().getStatic().setTransactionID(transaction.id);
+        document.getEbicsResponse().getHeader().getStatic().setNumSegments(transaction.numSegments);
+        dataTransfer = document.getEbicsResponse().getBody().getDataTransfer();
+        dataTransfer.addNewDataEncryptionInfo().setTransactionKey(transaction.transactionKey);
+        dataTransfer.getDataEncryptionInfo().setAuthenticate(true);
+        dataTransfer.getDataEncryptionInfo().addNewEncryptionPubKeyDigest().setByteArrayValue(KeyUtil.getKeyDigest(userKey));
+        dataTransfer.getDataEncryptionInfo().getEncryptionPubKeyDigest().setVersion("E002");
+        dataTransfer.getDataEncryptionInfo().getEncryptionPubKeyDigest().setAlgorithm(DIGEST_ALGORITHM);
+        return document;
+    }
+
+    private EbicsResponseDocument downloadSegment(EbicsRequest request, Transaction transaction) {
+        long[] latencies = segmentLatencies;
+        long segmentNumber;
+
+        segmentNumber = request.getHeader().getMutable().getSegmentNumber().getLongValue();
+        if (segmentNumber > transaction.numSegments) {
+            return response(TransactionPhaseType.TRANSFER, ReturnCode.EBICS_TX_SEGMENT_NUMBER_EXCEEDED);
+        }
+        if (segmentNumber <= latencies.length && latencies[(int) segmentNumber - 1] > 0) {
+            try {
+                Thread.sleep(latencies[(int) segmentNumber - 1]);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (segmentNumber == failingSegment) {
+            return response(TransactionPhaseType.TRANSFER, failingSegmentCode);
+        }
+
+        return transferResponse(transaction, segmentNumber, segmentNumber == transaction.numSegments);
+    }
+
+    private EbicsResponseDocument receipt(Transaction transaction) {
+        transactions.remove(Hex.encodeHexString(transaction.id));
+        downloads.increment();
+        return response(TransactionPhaseType.RECEIPT, ReturnCode.EBICS_DOWNLOAD_POSTPROCESS_DONE);
+    }
+
+    /**
+     * Returns the response to a segment of the given transaction, holding
+     * the segment order data for a download.
+     */
+    private EbicsResponseDocument transferResponse(Transaction transaction, long segmentNumber, boolean lastSegment) {
+        EbicsResponseDocument document;
+        ResponseMutableHeaderType.SegmentNumber segment;
+
+        document = response(TransactionPhaseType.TRANSFER, ReturnCode.EBICS_OK);
+        document.getEbicsResponse().getHeader().getStatic().setTransactionID(transaction.id);
+        segment = document.getEbicsResponse().getHeader().getMutable().addNewSegmentNumber();
+        segment.setLongValue(segmentNumber);
+        segment.setLastSegment(lastSegment);
+        if (!transaction.upload) {
+            document.getEbicsResponse().getBody().addNewDataTransfer().addNewOrderData()
+                    .setByteArrayValue(transaction.segment((int) segmentNumber));
+        }
+
+        return document;
+    }
+
+    private EbicsResponseDocument response(TransactionPhaseType.Enum phase, ReturnCode returnCode) {
+        EbicsResponseDocument document;
+        EbicsResponse response;
+
+        if (!returnCode.isOk() && !returnCode.equals(ReturnCode.EBICS_DOWNLOAD_POSTPROCESS_DONE)) {
+            errors.increment();
+        }
+        document = EbicsResponseDocument.Factory.newInstance();
+        response = document.addNewEbicsResponse();
+        response.setVersion(VERSION);
+        response.setRevision(REVISION);
+        response.addNewHeader().setAuthenticate(true);
+        response.getHeader().addNewStatic();
+        response.getHeader().addNewMutable().setTransactionPhase(phase);
+        response.getHeader().getMutable().setReturnCode(code(returnCode));
+        response.getHeader().getMutable().setReportText(reportText(returnCode));
+        response.addNewBody().addNewReturnCode().setStringValue(code(ReturnCode.EBICS_OK));
+        response.getBody().getReturnCode().setAuthenticate(true);
+        return document;
+    }
+
+    private Transaction open(boolean upload, int numSegments, byte[] data, byte[] transactionKey) {
+        Transaction transaction;
+
+        transaction = new Transaction(Utils.generateNonce(), upload, numSegments, data, transactionKey);
+        transactions.put(Hex.encodeHexString(transaction.id), transaction);
+        return transaction;
+    }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // Helpers
+    //-----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Encrypts the given order data for a user, the same way the client
+     * does for the bank: AES with a fresh transaction key, itself RSA
+     * encrypted with the user encryption key.
+     */
+    private static EncryptedData encrypt(byte[] data, RSAPublicKey userKey)
+            throws GeneralSecurityException, EbicsException {
+        byte[] key;
+        byte[] transactionKey;
+
+        key = Utils.generateKey();
+        transactionKey = CryptoEngines.withCipher("RSA/NONE/PKCS1Padding",
+                Cipher.ENCRYPT_MODE,
+                userKey,
+                null,
+                cipher -> cipher.doFinal(key));
+        return new EncryptedData(transactionKey, Utils.encrypt(data, new SecretKeySpec(key, "AES")));
+    }
+
+    private static String userKey(String partnerId, String userId) {
+        return partnerId + "/" + userId;
+    }
+
+    private static String code(ReturnCode returnCode) {
+        return String.format("%06d", returnCode.getCode());
+    }
+
+    private static String reportText(ReturnCode returnCode) {
+        return "[" + returnCode.getSymbolicName() + "] " + returnCode.getText();
+    }
+
+    private record EncryptedData(byte[] transactionKey, byte[] data) {
+    }
+
+    /**
+     * An open upload or download transaction.
+     */
+    private static final class Transaction {
+
+        private final byte[] id;
+        private final boolean upload;
+        private final int numSegments;
+        private final byte[] data;
+        private final byte[] transactionKey;
+        private volatile int received;
+
+        Transaction(byte[] id, boolean upload, int numSegments, byte[] data, byte[] transactionKey) {
+            this.id = id;
+            this.upload = upload;
+            this.numSegments = numSegments;
+            this.data = data;
+            this.transactionKey = transactionKey;
+        }
+
+        /**
+         * Returns the order data of a download segment, the encrypted data
+         * being split evenly over the segments.
+         *
+         * @param segmentNumber the segment number, starting at 1
+         * @return the segment order data
+         */
+        byte[] segment(int segmentNumber) {
+            int from = (int) ((long) data.length * (segmentNumber - 1) / numSegments);
+            int to = (int) ((long) data.length * segmentNumber / numSegments);
+
+            return Arrays.copyOfRange(data, from, to);
+        }
+    }
+}
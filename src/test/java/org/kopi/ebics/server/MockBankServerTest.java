@@ -0,0 +1,278 @@
+package org.kopi.ebics.server;
+
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.client.FileTransfer;
+import org.kopi.ebics.client.HttpRequestSender;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.ReturnCode;
+import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.session.OrderType;
+import org.kopi.ebics.utils.BenchmarkData;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MockBankServerTest {
+
+    private static MockBankServer server;
+    private static LoadDriver driver;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        Properties properties = new Properties();
+
+        properties.setProperty("download.window", "2");
+        properties.setProperty("upload.retries", "2");
+        properties.setProperty("upload.retry.delay", "1");
+        server = new MockBankServer("MOCKBANK");
+        server.start();
+        driver = new LoadDriver(server, properties);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void testUpload() throws Exception {
+        long received = server.getOrderDataReceived();
+        LoadDriver.Report report = driver.run(true, 4, 2, BenchmarkData.orderData(2_500_000));
+
+        assertEquals(4, report.transfers());
+        assertEquals(0, report.failures());
+        assertEquals(0, server.getOpenTransactions());
+        assertTrue(server.getOrderDataReceived() > received);
+    }
+
+    @Test
+    void testSegmentedDownload() throws Exception {
+        LoadDriver.Report report;
+
+        server.setDownloadSegments(3);
+        try {
+            report = driver.run(false, 4, 2, BenchmarkData.orderData(100_000));
+        } finally {
+            server.setDownloadSegments(1);
+        }
+
+        assertEquals(4, report.transfers());
+        assertEquals(0, report.failures());
+        assertEquals(0, server.getOpenTransactions());
+    }
+
+    @Test
+    void testDownloadWindowKeepsSegmentOrder() throws Exception {
+        byte[] data = new byte[300_000];
+        File output = Files.createTempFile("ebics-window", ".dat").toFile();
+
+        new Random(2).nextBytes(data);
+        server.setDownloadData(data);
+        server.setDownloadSegments(6);
+        server.setSegmentLatencies(0, 300, 0, 200, 0, 0);
+        try {
+            new FileTransfer(driver.getSession()).fetchFile(OrderType.DNL, null, null, null, output);
+        } finally {
+            server.setDownloadSegments(1);
+            server.setSegmentLatencies();
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(output.toPath()));
+        assertEquals(0, server.getOpenTransactions());
+        Files.delete(output.toPath());
+    }
+
+    @Test
+    void testDownloadWindowFailure() throws Exception {
+        File output = Files.createTempFile("ebics-window", ".dat").toFile();
+        EbicsException e;
+        long start;
+        long elapsed;
+
+        server.setDownloadData(BenchmarkData.orderData(300_000));
+        server.setDownloadSegments(6);
+        server.setSegmentLatencies(0, 0, 200, 5000, 0, 0);
+        server.setFailingSegment(3, ReturnCode.EBICS_TX_ABORT);
+        start = System.nanoTime();
+        try {
+            e = assertThrows(EbicsException.class,
+                    () -> new FileTransfer(driver.getSession()).fetchFile(OrderType.DNL, null, null, null, output));
+            elapsed = System.nanoTime() - start;
+        } finally {
+            server.setDownloadSegments(1);
+            server.setSegmentLatencies();
+            server.setFailingSegment(0, null);
+            server.awaitIdle();
+            server.clearTransactions();
+        }
+
+        assertEquals(ReturnCode.EBICS_TX_ABORT, e.getReturnCode());
+        assertFalse(output.exists());
+        assertTrue(elapsed < 2_500_000_000L);
+    }
+
+    @Test
+    void testAbortedRequest() throws Exception {
+        HttpRequestSender sender = new HttpRequestSender(driver.getSession());
+        CompletableFuture<Integer> response;
+        ExecutionException e;
+        long start;
+        long elapsed;
+
+        server.setLatency(5000);
+        start = System.nanoTime();
+        try {
+            response = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return sender.send(new ByteArrayContentFactory("<request/>".getBytes(StandardCharsets.UTF_8)));
+                } catch (Exception failure) {
+                    throw new IllegalStateException(failure);
+                }
+            });
+            Thread.sleep(200);
+            sender.abort();
+            e = assertThrows(ExecutionException.class, response::get);
+            elapsed = System.nanoTime() - start;
+        } finally {
+            server.setLatency(0);
+            server.awaitIdle();
+        }
+
+        assertTrue(e.getCause().getCause() instanceof RequestAbortedException);
+        assertTrue(elapsed < 2_500_000_000L);
+    }
+
+    @Test
+    void testUploadLookAhead() throws Exception {
+        Properties properties = new Properties();
+        LoadDriver lookAheadDriver;
+        byte[] data = new byte[3_000_000];
+        long errors = server.getErrors();
+        long uploads = server.getUploads();
+        LoadDriver.Report report;
+
+        properties.setProperty("upload.lookahead", "2");
+        lookAheadDriver = new LoadDriver(server, properties);
+        new Random(3).nextBytes(data);
+        report = lookAheadDriver.run(true, 2, 1, data);
+
+        assertEquals(2, report.transfers());
+        assertEquals(uploads + 2, server.getUploads());
+        assertEquals(errors, server.getErrors());
+        assertEquals(0, server.getOpenTransactions());
+    }
+
+    @Test
+    void testUploadLookAheadFailure() throws Exception {
+        Properties properties = new Properties();
+        FileTransfer transfer;
+        byte[] data = new byte[3_000_000];
+        EbicsException e;
+
+        properties.setProperty("upload.lookahead", "2");
+        transfer = new FileTransfer(new LoadDriver(server, properties).getSession());
+        new Random(4).nextBytes(data);
+        server.setSegmentError(1);
+        try {
+            e = assertThrows(EbicsException.class, () -> transfer.sendFile(data, OrderType.UPL, null));
+        } finally {
+            server.setSegmentError(0);
+            server.clearTransactions();
+        }
+
+        assertEquals(ReturnCode.EBICS_INTERNAL_ERROR, e.getReturnCode());
+    }
+
+    @Test
+    void testUploadRecovery() throws Exception {
+        byte[] data = new byte[2_000_000];
+        LoadDriver.Report report;
+
+        new Random(0).nextBytes(data);
+        server.setSegmentError(1);
+        try {
+            report = driver.run(true, 2, 1, data);
+        } finally {
+            server.setSegmentError(0);
+        }
+
+        assertEquals(2, report.transfers());
+        assertEquals(0, report.failures());
+        assertEquals(0, server.getOpenTransactions());
+    }
+
+    @Test
+    void testUploadResumedFromJournal() throws Exception {
+        Properties properties = new Properties();
+        LoadDriver recoveryDriver;
+        byte[] data = new byte[2_000_000];
+        LoadDriver.Report report;
+
+        properties.setProperty("upload.recovery", "true");
+        recoveryDriver = new LoadDriver(server, properties);
+        new Random(1).nextBytes(data);
+        server.setSegmentError(1);
+        try {
+            report = recoveryDriver.run(true, 1, 1, data);
+        } finally {
+            server.setSegmentError(0);
+        }
+        assertEquals(1, report.failures());
+        assertEquals(1, server.getOpenTransactions());
+
+        report = recoveryDriver.run(true, 1, 1, data);
+
+        assertEquals(1, report.transfers());
+        assertEquals(0, server.getOpenTransactions());
+    }
+
+    @Test
+    void testTransferDeadline() throws Exception {
+        Properties properties = new Properties();
+        LoadDriver deadlineDriver;
+        LoadDriver.Report report;
+
+        properties.setProperty("transfer.deadline", "1");
+        deadlineDriver = new LoadDriver(server, properties);
+        server.setLatency(3000);
+        try {
+            report = deadlineDriver.run(false, 1, 1, BenchmarkData.orderData(1024));
+        } finally {
+            server.setLatency(0);
+            server.awaitIdle();
+            server.clearTransactions();
+        }
+
+        assertEquals(1, report.failures());
+        assertTrue(report.elapsed() < 2_500_000_000L);
+    }
+
+    @Test
+    void testInjectedError() throws Exception {
+        LoadDriver.Report report;
+
+        server.setError(1, ReturnCode.EBICS_TX_ABORT);
+        try {
+            report = driver.run(true, 2, 1, BenchmarkData.orderData(1024));
+        } finally {
+            server.setError(0, ReturnCode.EBICS_INTERNAL_ERROR);
+        }
+
+        assertEquals(0, report.transfers());
+        assertEquals(2, report.failures());
+    }
+}
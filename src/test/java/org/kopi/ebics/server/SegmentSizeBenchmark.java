@@ -0,0 +1,97 @@
+package org.kopi.ebics.server;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duration and round trips of a large upload to a {@link MockBankServer}
+ * answering every request after a fixed latency, with the segments sized
+ * like before, 699999 bytes, and filling the 1 MB base64 limit.
+ *
+ * <p>The order data is random, so that the compression does not shrink it,
+ * and the <code>requests</code> counter reports the round trips of an upload.
+ *
+ * <p>Run with <code>mvn -Pbenchmark verify -Dbenchmark=SegmentSizeBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class SegmentSizeBenchmark {
+
+    @Param({"933332", "1048576"})
+    public int segmentSize;
+
+    @Param({"104857600", "524288000"})
+    public int size;
+
+    @Param({"20"})
+    public long latency;
+
+    private MockBankServer server;
+    private LoadDriver driver;
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+
+        properties.setProperty("segment.size", Integer.toString(segmentSize));
+        server = new MockBankServer("MOCKBANK");
+        server.start();
+        driver = new LoadDriver(server, properties);
+        server.setLatency(latency);
+        data = new byte[size];
+        new Random(0).nextBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public void upload(RoundTrips roundTrips) throws EbicsException, InterruptedException {
+        long requests = server.getRequests();
+        LoadDriver.Report report = driver.run(true, 1, 1, data);
+
+        if (report.failures() > 0) {
+            throw new IllegalStateException("The upload failed");
+        }
+        roundTrips.requests += server.getRequests() - requests;
+    }
+
+    /**
+     * The requests sent by the uploads of an iteration.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class RoundTrips {
+
+        public long requests;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requests = 0;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.kopi.ebics.session;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncTraceManagerTest {
+
+    @TempDir
+    File traceDir;
+
+    @Test
+    void testTracesAreAppendedToOneLog() throws Exception {
+        AsyncTraceManager manager = new AsyncTraceManager(16, AsyncTraceManager.Policy.BLOCK, false);
+        String log;
+
+        try (manager) {
+            manager.trace(element("request.xml", "<request/>"), traceDir.getPath());
+            manager.trace(element("response.xml", "<response/>"), traceDir.getPath());
+            manager.flush();
+
+            log = read(single(traceDir), false);
+            assertTrue(log.indexOf("request.xml -->\n<request/>") < log.indexOf("response.xml -->\n<response/>"));
+        }
+    }
+
+    @Test
+    void testTransactionsHaveTheirOwnWellFormedLog() throws Exception {
+        AsyncTraceManager manager = new AsyncTraceManager(16, AsyncTraceManager.Policy.BLOCK, false);
+        File[] files;
+
+        try (manager) {
+            manager.trace(element("first.xml", "<?xml version=\"1.0\"?>\n<first/>"), traceDir.getPath(), "FUL-1");
+            manager.trace(element("second.xml", "<second/>"), traceDir.getPath(), "FUL-2");
+            manager.trace(element("third.xml", "<third/>"), traceDir.getPath(), "FUL-1");
+            manager.endTransaction(traceDir.getPath(), "FUL-1");
+            manager.endTransaction(traceDir.getPath(), "FUL-2");
+            manager.flush();
+
+            files = traceDir.listFiles((dir, name) -> name.endsWith("-FUL-1.log"));
+            assertEquals(1, files.length);
+            assertEquals(List.of("first", "third"), elements(files[0]));
+            files = traceDir.listFiles((dir, name) -> name.endsWith("-FUL-2.log"));
+            assertEquals(1, files.length);
+            assertEquals(List.of("second"), elements(files[0]));
+        }
+    }
+
+    @Test
+    void testCompressedLog() throws Exception {
+        AsyncTraceManager manager = new AsyncTraceManager(16, AsyncTraceManager.Policy.BLOCK, true);
+
+        try (manager) {
+            manager.trace(element("request.xml", "<request/>"), traceDir.getPath());
+            manager.flush();
+
+            assertTrue(single(traceDir).getName().endsWith(".log.gz"));
+        }
+        assertTrue(read(single(traceDir), true).contains("<request/>"));
+    }
+
+    @Test
+    void testClearDeletesTheLogs() throws Exception {
+        AsyncTraceManager manager = new AsyncTraceManager(16, AsyncTraceManager.Policy.BLOCK, false);
+
+        try (manager) {
+            manager.trace(element("request.xml", "<request/>"), traceDir.getPath());
+            manager.clear();
+
+            assertEquals(0, traceDir.listFiles().length);
+        }
+    }
+
+    @Test
+    void testFullQueueDropsTraces() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncTraceManager manager = new AsyncTraceManager(1, AsyncTraceManager.Policy.DROP, false, heldWriter(release));
+
+        try (manager) {
+            manager.trace(element("queued.xml", "<queued/>"), traceDir.getPath());
+            manager.trace(element("dropped.xml", "<dropped/>"), traceDir.getPath());
+            release.countDown();
+            manager.flush();
+
+            assertEquals(1, manager.getDropped());
+            assertTrue(read(single(traceDir), false).contains("<queued/>"));
+        }
+    }
+
+    @Test
+    void testElementIsSerializedWhenTraced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncTraceManager manager = new AsyncTraceManager(16, AsyncTraceManager.Policy.BLOCK, false, heldWriter(release));
+        EbicsRootElement element = element("request.xml", "<request/>");
+
+        try (manager) {
+            manager.trace(element, traceDir.getPath());
+            Mockito.verify(element).toByteArray();
+            Mockito.when(element.toByteArray()).thenReturn("<changed/>".getBytes(StandardCharsets.UTF_8));
+            release.countDown();
+            manager.flush();
+
+            assertTrue(read(single(traceDir), false).contains("<request/>"));
+        }
+    }
+
+    @Test
+    void testRemoveDropsQueuedTraces() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncTraceManager manager = new AsyncTraceManager(16, AsyncTraceManager.Policy.BLOCK, false, heldWriter(release));
+        EbicsRootElement removed = element("removed.xml", "<removed/>");
+        String log;
+
+        try (manager) {
+            manager.trace(removed, traceDir.getPath());
+            manager.trace(element("kept.xml", "<kept/>"), traceDir.getPath());
+            manager.remove(removed);
+            release.countDown();
+            manager.flush();
+
+            log = read(single(traceDir), false);
+            assertTrue(log.contains("<kept/>"));
+            assertFalse(log.contains("<removed/>"));
+        }
+    }
+
+    /**
+     * A writer thread factory whose writer waits for the given latch
+     * before taking the queued entries.
+     */
+    private static ThreadFactory heldWriter(CountDownLatch release) {
+        return task -> new Thread(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            task.run();
+        });
+    }
+
+    private static EbicsRootElement element(String name, String content) {
+        EbicsRootElement element = Mockito.mock(EbicsRootElement.class);
+
+        Mockito.when(element.getName()).thenReturn(name);
+        Mockito.when(element.toByteArray()).thenReturn(content.getBytes(StandardCharsets.UTF_8));
+        return element;
+    }
+
+    /**
+     * Parses a trace log and returns the names of its traced elements.
+     */
+    private static List<String> elements(File file) throws Exception {
+        Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+        List<String> names = new ArrayList<>();
+
+        assertEquals("traces", root.getTagName());
+        for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element element) {
+                names.add(element.getTagName());
+            }
+        }
+
+        return names;
+    }
+
+    private static File single(File traceDir) {
+        File[] files = traceDir.listFiles();
+
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static String read(File file, boolean compressed) throws IOException {
+        try (InputStream in = compressed ? new GZIPInputStream(new FileInputStream(file)) : new FileInputStream(file)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
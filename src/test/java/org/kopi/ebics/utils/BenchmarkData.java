@@ -0,0 +1,136 @@
+package org.kopi.ebics.utils;
+
+import org.apache.commons.codec.binary.Hex;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.io.Splitter;
+import org.kopi.ebics.session.EbicsSession;
+import org.mockito.Mockito;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Synthetic keys, payloads and sessions shared by the JMH benchmarks.
+ */
+public final class BenchmarkData {
+
+    private static final byte[] LINE = "<Ntry><Amt Ccy=\"EUR\">0000000000</Amt><CdtDbtInd>CRDT</CdtDbtInd></Ntry>\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final int AMOUNT_OFFSET = 22;
+    private static final int AMOUNT_LENGTH = 10;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Returns XML like order data of the given size. The amounts are random
+     * so that the data compresses like real statements rather than to nothing.
+     *
+     * @param size the data size in bytes
+     * @return the order data
+     */
+    public static byte[] orderData(int size) {
+        byte[] data = new byte[size];
+        Random random = new Random(0);
+
+        for (int offset = 0; offset < size; offset += LINE.length) {
+            int length = Math.min(LINE.length, size - offset);
+
+            System.arraycopy(LINE, 0, data, offset, length);
+            for (int i = AMOUNT_OFFSET; i < Math.min(length, AMOUNT_OFFSET + AMOUNT_LENGTH); i++) {
+                data[offset + i] = (byte) ('0' + random.nextInt(10));
+            }
+        }
+
+        return data;
+    }
+
+    /**
+     * Returns a random transaction key.
+     *
+     * @return the transaction key
+     */
+    public static SecretKeySpec transactionKey() {
+        addProvider();
+        return new SecretKeySpec(Utils.generateNonce(), "AES");
+    }
+
+    /**
+     * Generates a 2048 bits RSA key pair.
+     *
+     * @return the key pair
+     * @throws GeneralSecurityException
+     */
+    public static KeyPair keyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator;
+
+        addProvider();
+        generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Returns a session whose user signs, authenticates and decrypts with the
+     * given key pair, the same pair standing for the bank keys.
+     *
+     * @param keyPair the user and bank key pair
+     * @return the session
+     * @throws Exception
+     */
+    public static EbicsSession session(KeyPair keyPair) throws Exception {
+        EbicsSession session = Mockito.mock(EbicsSession.class, Mockito.RETURNS_DEEP_STUBS);
+        EbicsUser user = Mockito.mock(EbicsUser.class, Mockito.RETURNS_DEEP_STUBS);
+        byte[] bankDigest = Hex.encodeHexString(new byte[32]).getBytes(StandardCharsets.US_ASCII);
+
+        Mockito.when(user.getUserId()).thenReturn("USER1");
+        Mockito.when(user.getSecurityMedium()).thenReturn("0000");
+        Mockito.when(user.getPartner().getPartnerId()).thenReturn("PARTNER1");
+        Mockito.when(user.getPartner().nextOrderId()).thenReturn("A001");
+        Mockito.when(user.getPartner().getBank().getX002Digest()).thenReturn(bankDigest);
+        Mockito.when(user.getPartner().getBank().getE002Digest()).thenReturn(bankDigest);
+        Mockito.when(user.sign(Mockito.any(byte[].class)))
+                .thenAnswer(invocation -> CryptoEngines.sign("SHA256WithRSA", keyPair.getPrivate(), (byte[]) invocation.getArgument(0)));
+        Mockito.when(user.sign(Mockito.any(InputStream.class)))
+                .thenAnswer(invocation -> CryptoEngines.sign("SHA256WithRSA", keyPair.getPrivate(), invocation.<InputStream>getArgument(0).readAllBytes()));
+        Mockito.when(user.createSignature()).thenAnswer(invocation -> {
+            Signature signature = Signature.getInstance("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME);
+
+            signature.initSign(keyPair.getPrivate());
+            return signature;
+        });
+        Mockito.when(user.authenticate(Mockito.any()))
+                .thenAnswer(invocation -> CryptoEngines.sign("SHA256WithRSA", keyPair.getPrivate(), invocation.getArgument(0)));
+
+        Mockito.when(session.getUser()).thenReturn(user);
+        Mockito.when(session.getBankID()).thenReturn("BANK1");
+        Mockito.when(session.getBankE002Key()).thenReturn((RSAPublicKey) keyPair.getPublic());
+        Mockito.when(session.getConfiguration().isCompressionEnabled()).thenReturn(true);
+        Mockito.when(session.getConfiguration().getCompressionLevel()).thenReturn(Deflater.BEST_COMPRESSION);
+        Mockito.when(session.getConfiguration().getCompressionThreads()).thenReturn(1);
+        Mockito.when(session.getConfiguration().getSegmentSize(Mockito.any())).thenReturn(Splitter.MAX_SEGMENT_SIZE);
+        Mockito.when(session.getConfiguration().getSymmetricCipher()).thenReturn(new BouncyCastleCipher());
+        Mockito.when(session.getConfiguration().getSignatureVersion()).thenReturn("A005");
+        Mockito.when(session.getConfiguration().getAuthenticationVersion()).thenReturn("X002");
+        Mockito.when(session.getConfiguration().getEncryptionVersion()).thenReturn("E002");
+        Mockito.when(session.getProduct().getLanguage()).thenReturn("en");
+        Mockito.when(session.getProduct().getName()).thenReturn("ebics-java-client");
+        return session;
+    }
+
+    private static void addProvider() {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+}
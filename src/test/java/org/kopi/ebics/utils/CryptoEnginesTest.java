@@ -0,0 +1,85 @@
+package org.kopi.ebics.utils;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.security.Signature;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CryptoEnginesTest {
+
+    @BeforeAll
+    static void addProvider() {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+    }
+
+    @Test
+    void testPooledDigestMatchesFreshDigest() throws Exception {
+        byte[] data = new byte[10000];
+        new Random(0).nextBytes(data);
+
+        byte[] expected = MessageDigest.getInstance("SHA-256", "BC").digest(data);
+
+        assertArrayEquals(expected, CryptoEngines.digest("SHA-256", data));
+        assertArrayEquals(expected, CryptoEngines.digest("SHA-256", data));
+    }
+
+    @Test
+    void testPooledDigestIsCountedLikeTheOtherEngines() throws Exception {
+        byte[] data = "ebics".getBytes();
+        long hits = CryptoEngines.getHits();
+        long misses = CryptoEngines.getMisses();
+
+        CryptoEngines.digest("SHA-384", data);
+        assertEquals(misses + 1, CryptoEngines.getMisses());
+        assertEquals(hits, CryptoEngines.getHits());
+        CryptoEngines.digest("SHA-384", data);
+        assertEquals(misses + 1, CryptoEngines.getMisses());
+        assertEquals(hits + 1, CryptoEngines.getHits());
+    }
+
+    @Test
+    void testPooledSignatureIsReusedForTheSameKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        byte[] data = "ebics".getBytes();
+
+        CryptoEngines.sign("SHA256WithRSA", keyPair.getPrivate(), data);
+        long hits = CryptoEngines.getHits();
+        byte[] signed = CryptoEngines.sign("SHA256WithRSA", keyPair.getPrivate(), data);
+
+        Signature verifier = Signature.getInstance("SHA256WithRSA", "BC");
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(data);
+        assertTrue(verifier.verify(signed));
+        assertTrue(CryptoEngines.getHits() > hits);
+    }
+
+    @Test
+    void testPooledCipherIsInitializedForEachKey() throws Exception {
+        IvParameterSpec iv = new IvParameterSpec(new byte[16]);
+        SecretKeySpec first = new SecretKeySpec(new byte[16], "AES");
+        SecretKeySpec second = new SecretKeySpec(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}, "AES");
+        byte[] data = "order data".getBytes();
+
+        for (SecretKeySpec key : new SecretKeySpec[]{first, second, first}) {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding", "BC");
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+
+            assertArrayEquals(cipher.doFinal(data),
+                    CryptoEngines.withCipher("AES/CBC/PKCS5Padding", Cipher.ENCRYPT_MODE, key, iv, c -> c.doFinal(data)));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.kopi.ebics.utils;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.SymmetricCipher;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JceCipherTest {
+
+    private static final int[] SIZES = {0, 1, 15, 16, 17, 1000, 100_003};
+
+    private final JceCipher jce = new JceCipher();
+    private final BouncyCastleCipher bc = new BouncyCastleCipher();
+    private final SecretKeySpec keySpec = BenchmarkData.transactionKey();
+
+    @Test
+    void testSameBlocksAsBouncyCastle() throws EbicsException {
+        for (int size : SIZES) {
+            byte[] data = data(size);
+            byte[] expected = bc.encrypt(data, keySpec);
+            byte[] actual = jce.encrypt(data, keySpec);
+
+            assertEquals(expected.length, actual.length);
+            assertArrayEquals(Arrays.copyOf(expected, expected.length - 16), Arrays.copyOf(actual, actual.length - 16));
+            assertArrayEquals(data, bc.decrypt(actual, keySpec));
+            assertArrayEquals(data, jce.decrypt(expected, keySpec));
+        }
+    }
+
+    @Test
+    void testStreams() throws EbicsException, IOException {
+        for (int size : SIZES) {
+            byte[] data = data(size);
+
+            assertArrayEquals(data, bc.decrypt(stream(true, data), keySpec));
+            assertArrayEquals(data, stream(false, bc.encrypt(data, keySpec)));
+        }
+    }
+
+    @Test
+    void testPooledCipherIsReusedForTheSameTransactionKey() throws EbicsException {
+        byte[] data = data(1000);
+        long misses;
+
+        jce.encrypt(data, keySpec);
+        misses = CryptoEngines.getMisses();
+        jce.encrypt(data, keySpec);
+
+        assertEquals(misses, CryptoEngines.getMisses());
+    }
+
+    @Test
+    void testWrongPadding() throws EbicsException {
+        byte[] data = data(16);
+        byte[] encrypted;
+
+        data[15] = 17;
+        encrypted = Arrays.copyOf(jce.encrypt(data, keySpec), 16);
+
+        assertThrows(EbicsException.class, () -> jce.decrypt(encrypted, keySpec));
+        assertThrows(IOException.class, () -> stream(false, encrypted));
+        assertThrows(EbicsException.class, () -> jce.decrypt(new byte[17], keySpec));
+        assertThrows(IOException.class, () -> stream(false, new byte[0]));
+    }
+
+    @Test
+    void testCorruptBouncyCastleStream() throws EbicsException, IOException {
+        byte[] encrypted = bc.encrypt(data(1000), keySpec);
+        byte[] corrupt = encrypted.clone();
+        byte[] truncated = Arrays.copyOf(encrypted, encrypted.length - 5);
+
+        // the last byte of the previous block flips the padding length of the last one
+        corrupt[corrupt.length - 17] ^= (byte) 0x80;
+
+        assertThrows(IOException.class, () -> bcStream(false, corrupt));
+        assertThrows(IOException.class, () -> bcStream(false, truncated));
+        assertArrayEquals(data(1000), bcStream(false, bcStream(true, data(1000))));
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Encrypts or decrypts the data with a stream, written by chunks of growing sizes.
+     */
+    private byte[] stream(boolean encrypt, byte[] data) throws EbicsException, IOException {
+        return stream(jce, encrypt, data);
+    }
+
+    private byte[] bcStream(boolean encrypt, byte[] data) throws EbicsException, IOException {
+        return stream(bc, encrypt, data);
+    }
+
+    private byte[] stream(SymmetricCipher cipher, boolean encrypt, byte[] data) throws EbicsException, IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try (OutputStream out = encrypt ? cipher.encrypt(output, keySpec) : cipher.decrypt(output, keySpec)) {
+            for (int offset = 0, chunk = 1; offset < data.length; offset += chunk, chunk = 3 * chunk + 1) {
+                out.write(data, offset, Math.min(chunk, data.length - offset));
+            }
+        }
+
+        return output.toByteArray();
+    }
+}
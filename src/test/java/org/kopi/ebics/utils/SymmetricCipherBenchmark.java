@@ -0,0 +1,109 @@
+package org.kopi.ebics.utils;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.SymmetricCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to encrypt and decrypt 100MB of order data with the BouncyCastle
+ * and the JDK symmetric ciphers, whole or streamed by segments.
+ *
+ * <p>Run with <code>mvn -Pbenchmark verify -Dbenchmark=SymmetricCipherBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SymmetricCipherBenchmark {
+
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+
+    @Param({"bc", "jce"})
+    public String provider;
+
+    @Param({"104857600"})
+    public int size;
+
+    private SymmetricCipher cipher;
+    private byte[] data;
+    private byte[] encrypted;
+    private SecretKeySpec keySpec;
+
+    @Setup
+    public void setUp() throws EbicsException {
+        cipher = "jce".equals(provider) ? new JceCipher() : new BouncyCastleCipher();
+        keySpec = BenchmarkData.transactionKey();
+        data = new byte[size];
+        new Random(0).nextBytes(data);
+        encrypted = cipher.encrypt(data, keySpec);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws EbicsException {
+        return cipher.encrypt(data, keySpec);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws EbicsException {
+        return cipher.decrypt(encrypted, keySpec);
+    }
+
+    @Benchmark
+    public long encryptStream() throws EbicsException, IOException {
+        CountingSink sink = new CountingSink();
+
+        stream(cipher.encrypt(sink, keySpec), data);
+        return sink.count;
+    }
+
+    @Benchmark
+    public long decryptStream() throws EbicsException, IOException {
+        CountingSink sink = new CountingSink();
+
+        stream(cipher.decrypt(sink, keySpec), encrypted);
+        return sink.count;
+    }
+
+    private static void stream(OutputStream out, byte[] input) throws IOException {
+        for (int offset = 0; offset < input.length; offset += SEGMENT_SIZE) {
+            out.write(input, offset, Math.min(SEGMENT_SIZE, input.length - offset));
+        }
+        out.close();
+    }
+
+    /**
+     * A sink discarding the data, so that only the cipher is measured.
+     */
+    private static final class CountingSink extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
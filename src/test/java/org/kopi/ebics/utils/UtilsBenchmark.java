@@ -0,0 +1,67 @@
+package org.kopi.ebics.utils;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the order data compression and encryption.
+ *
+ * <p>Run with <code>mvn -Pbenchmark verify -Dbenchmark=UtilsBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class UtilsBenchmark {
+
+    @Param({"1024", "1048576", "104857600", "524288000"})
+    public int size;
+
+    private byte[] data;
+    private byte[] zipped;
+    private byte[] encrypted;
+    private SecretKeySpec keySpec;
+
+    @Setup
+    public void setUp() throws EbicsException {
+        keySpec = BenchmarkData.transactionKey();
+        data = BenchmarkData.orderData(size);
+        zipped = Utils.zip(data);
+        encrypted = Utils.encrypt(zipped, keySpec);
+    }
+
+    @Benchmark
+    public byte[] zip() throws EbicsException {
+        return Utils.zip(data);
+    }
+
+    @Benchmark
+    public byte[] unzip() throws EbicsException {
+        return Utils.unzip(zipped);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws EbicsException {
+        return Utils.encrypt(zipped, keySpec);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws EbicsException {
+        return Utils.decrypt(encrypted, keySpec);
+    }
+}
@@ -0,0 +1,157 @@
+package org.kopi.ebics.xml;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.RecoverySyncException;
+import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.session.OrderType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseReaderTest {
+
+    private static final byte[] TRANSACTION_KEY = {1, 2, 3, 4};
+
+    @Test
+    void testInitializationResponse() throws Exception {
+        byte[] orderData = orderData(1_000_000);
+        ResponseReader reader = new ResponseReader(new ByteArrayContentFactory(response("000000", 1, true, orderData)));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        reader.read(output);
+
+        assertEquals("000000", reader.getReturnCode());
+        assertEquals("[EBICS_OK] OK", reader.getReportText());
+        assertEquals("000000", reader.getBodyReturnCode());
+        assertArrayEquals(new byte[] {0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xAB, (byte) 0xCD, (byte) 0xEF},
+                reader.getTransactionId());
+        assertEquals(3, reader.getNumSegments());
+        assertEquals(1, reader.getSegmentNumber());
+        assertTrue(reader.isLastSegment());
+        assertArrayEquals(TRANSACTION_KEY, reader.getTransactionKey());
+        assertArrayEquals(orderData, output.toByteArray());
+    }
+
+    @Test
+    void testDownloadTransferResponse() throws Exception {
+        byte[] orderData = orderData(100_000);
+        DownloadTransferResponseElement element;
+
+        element = new DownloadTransferResponseElement(new ByteArrayContentFactory(response("000000", 2, false, orderData)),
+                OrderType.BTD,
+                "DownloadTransferResponse");
+        element.build();
+
+        assertArrayEquals(orderData, element.getOrderData());
+        assertTrue(new String(element.toByteArray(), StandardCharsets.UTF_8).contains("<TransactionID>"));
+    }
+
+    @Test
+    void testDownloadTransferResponseToOutput() throws Exception {
+        byte[] orderData = orderData(100_000);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DownloadTransferResponseElement element;
+
+        element = new DownloadTransferResponseElement(new ByteArrayContentFactory(response("000000", 2, false, orderData)),
+                OrderType.BTD,
+                "DownloadTransferResponse",
+                output);
+        element.build();
+
+        assertArrayEquals(orderData, output.toByteArray());
+        assertNull(element.getOrderData());
+    }
+
+    @Test
+    void testErrorResponseDoesNotWriteTheOrderData() {
+        byte[] orderData = orderData(100_000);
+
+        for (byte[] response : new byte[][] {response("091102", "000000", 2, false, orderData),
+                                             response("000000", "091102", 2, false, orderData)}) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            DownloadTransferResponseElement element;
+
+            element = new DownloadTransferResponseElement(new ByteArrayContentFactory(response),
+                    OrderType.BTD,
+                    "DownloadTransferResponse",
+                    output);
+
+            assertThrows(EbicsException.class, element::build);
+            assertEquals(0, output.size());
+        }
+    }
+
+    @Test
+    void testRecoverySync() {
+        DownloadTransferResponseElement element;
+        RecoverySyncException e;
+
+        element = new DownloadTransferResponseElement(new ByteArrayContentFactory(response("061101", 2, false, new byte[0])),
+                OrderType.BTD,
+                "DownloadTransferResponse");
+        e = assertThrows(RecoverySyncException.class, element::build);
+
+        assertEquals(2, e.getSegmentNumber());
+    }
+
+    @Test
+    void testMalformedResponse() {
+        ResponseReader reader = new ResponseReader(new ByteArrayContentFactory("<ebicsResponse>".getBytes(StandardCharsets.UTF_8)));
+
+        assertThrows(EbicsException.class, () -> reader.read(new ByteArrayOutputStream()));
+    }
+
+    private static byte[] orderData(int size) {
+        byte[] data = new byte[size];
+
+        new Random(0).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] response(String returnCode, int segmentNumber, boolean lastSegment, byte[] orderData) {
+        return response(returnCode, "000000", segmentNumber, lastSegment, orderData);
+    }
+
+    private static byte[] response(String returnCode,
+                                   String bodyReturnCode,
+                                   int segmentNumber,
+                                   boolean lastSegment,
+                                   byte[] orderData) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<ebicsResponse xmlns=\"urn:org:ebics:H005\" xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\" Version=\"H005\" Revision=\"1\">\n"
+                + "  <header authenticate=\"true\">\n"
+                + "    <static>\n"
+                + "      <TransactionID>0123456789ABCDEF</TransactionID>\n"
+                + "      <NumSegments>3</NumSegments>\n"
+                + "    </static>\n"
+                + "    <mutable>\n"
+                + "      <TransactionPhase>Transfer</TransactionPhase>\n"
+                + "      <SegmentNumber lastSegment=\"" + lastSegment + "\">" + segmentNumber + "</SegmentNumber>\n"
+                + "      <ReturnCode>" + returnCode + "</ReturnCode>\n"
+                + "      <ReportText>[EBICS_OK] OK</ReportText>\n"
+                + "    </mutable>\n"
+                + "  </header>\n"
+                + "  <AuthSignature>\n"
+                + "    <ds:SignatureValue>AAAA</ds:SignatureValue>\n"
+                + "  </AuthSignature>\n"
+                + "  <body>\n"
+                + "    <DataTransfer>\n"
+                + "      <DataEncryptionInfo authenticate=\"true\">\n"
+                + "        <TransactionKey>" + Base64.encodeBase64String(TRANSACTION_KEY) + "</TransactionKey>\n"
+                + "      </DataEncryptionInfo>\n"
+                + "      <OrderData>" + Base64.encodeBase64String(orderData) + "</OrderData>\n"
+                + "    </DataTransfer>\n"
+                + "    <ReturnCode authenticate=\"true\">" + bodyReturnCode + "</ReturnCode>\n"
+                + "  </body>\n"
+                + "</ebicsResponse>\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,109 @@
+package org.kopi.ebics.xml;
+
+import org.apache.commons.codec.binary.Base64;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.schema.h005.EbicsRequestDocument;
+import org.kopi.ebics.schema.xmldsig.SignatureType;
+import org.kopi.ebics.session.EbicsSession;
+import org.kopi.ebics.session.OrderType;
+import org.kopi.ebics.utils.BenchmarkData;
+import org.kopi.ebics.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the per segment XML work: canonization and authentication
+ * signature of a segment request, and parsing of a segment response. The
+ * segments are at most 1MB, as the EBICS specification requires.
+ *
+ * <p>Run with <code>mvn -Pbenchmark verify -Dbenchmark=SegmentBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentBenchmark {
+
+    @Param({"1024", "102400", "1048576"})
+    public int segmentSize;
+
+    private UploadTransferRequestElement request;
+    private SignatureType authSignature;
+    private SignedInfo signedInfo;
+    private byte[] serialized;
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws Exception {
+        EbicsSession session = BenchmarkData.session(BenchmarkData.keyPair());
+        byte[] segment = BenchmarkData.orderData(segmentSize);
+
+        request = new UploadTransferRequestElement(session,
+                OrderType.BTU,
+                1,
+                false,
+                "transaction".getBytes(),
+                new ByteArrayContentFactory(segment));
+        request.build();
+        authSignature = ((EbicsRequestDocument) request.document).getEbicsRequest().getAuthSignature();
+        signedInfo = new SignedInfo(session.getUser());
+        serialized = request.toByteArray();
+        response = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<ebicsResponse xmlns=\"urn:org:ebics:H005\" xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\" Version=\"H005\" Revision=\"1\">\n"
+                + "  <header authenticate=\"true\">\n"
+                + "    <static>\n"
+                + "      <TransactionID>0123456789ABCDEF0123456789ABCDEF</TransactionID>\n"
+                + "    </static>\n"
+                + "    <mutable>\n"
+                + "      <TransactionPhase>Transfer</TransactionPhase>\n"
+                + "      <SegmentNumber lastSegment=\"false\">2</SegmentNumber>\n"
+                + "      <ReturnCode>000000</ReturnCode>\n"
+                + "      <ReportText>[EBICS_OK] OK</ReportText>\n"
+                + "    </mutable>\n"
+                + "  </header>\n"
+                + "  <body>\n"
+                + "    <DataTransfer>\n"
+                + "      <OrderData>" + Base64.encodeBase64String(segment) + "</OrderData>\n"
+                + "    </DataTransfer>\n"
+                + "    <ReturnCode authenticate=\"true\">000000</ReturnCode>\n"
+                + "  </body>\n"
+                + "</ebicsResponse>\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] canonize() throws EbicsException {
+        return Utils.canonize(serialized);
+    }
+
+    @Benchmark
+    public SignatureType sign() throws EbicsException {
+        signedInfo.sign(request, authSignature);
+        return authSignature;
+    }
+
+    @Benchmark
+    public byte[] parseResponse() throws EbicsException {
+        DownloadTransferResponseElement element;
+
+        element = new DownloadTransferResponseElement(new ByteArrayContentFactory(response),
+                OrderType.BTD,
+                "DownloadTransferResponse");
+        element.build();
+        return element.getOrderData();
+    }
+}
@@ -0,0 +1,70 @@
+package org.kopi.ebics.xml;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.session.EbicsSession;
+import org.kopi.ebics.session.OrderType;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former wire serialization of a segment request, a JDOM
+ * re-parse of the XMLBeans output, with the single XMLBeans pass.
+ *
+ * <p>Run with <code>mvn -Pbenchmark verify -Dbenchmark=SerializationBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"1000", "699999"})
+    public int segmentSize;
+
+    private UploadTransferRequestElement request;
+
+    @Setup
+    public void setUp() throws EbicsException {
+        EbicsSession session = Mockito.mock(EbicsSession.class, Mockito.RETURNS_DEEP_STUBS);
+        byte[] segment = new byte[segmentSize];
+
+        new Random(0).nextBytes(segment);
+        request = new UploadTransferRequestElement(session,
+                OrderType.BTU,
+                1,
+                false,
+                "transaction".getBytes(),
+                new ByteArrayContentFactory(segment));
+        request.build();
+    }
+
+    @Benchmark
+    public byte[] prettyPrint() throws EbicsException {
+        return request.prettyPrint();
+    }
+
+    @Benchmark
+    public byte[] writeTo() throws EbicsException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        request.writeTo(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,72 @@
+package org.kopi.ebics.xml;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.session.EbicsSession;
+import org.kopi.ebics.session.OrderType;
+import org.kopi.ebics.utils.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the upload initialization: user signature, segmentation,
+ * transaction key and authentication signature, then the trace form.
+ *
+ * <p>Run with <code>mvn -Pbenchmark verify -Dbenchmark=UploadInitializationBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class UploadInitializationBenchmark {
+
+    @Param({"1024", "1048576", "104857600", "524288000"})
+    public int size;
+
+    private EbicsSession session;
+    private byte[] data;
+    private UploadInitializationRequestElement built;
+
+    @Setup
+    public void setUp() throws Exception {
+        session = BenchmarkData.session(BenchmarkData.keyPair());
+        data = BenchmarkData.orderData(size);
+        built = new UploadInitializationRequestElement(session, OrderType.UPL, null, data);
+        built.build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        built.close();
+    }
+
+    @Benchmark
+    public int build() throws EbicsException, IOException {
+        try (UploadInitializationRequestElement initializer = new UploadInitializationRequestElement(session,
+                OrderType.UPL,
+                null,
+                data)) {
+            initializer.build();
+            return initializer.getSegmentNumber();
+        }
+    }
+
+    @Benchmark
+    public byte[] prettyPrint() throws EbicsException {
+        return built.prettyPrint();
+    }
+}
@@ -0,0 +1,46 @@
+package org.kopi.ebics.xml;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.schema.h005.EbicsRequestDocument;
+import org.kopi.ebics.session.EbicsSession;
+import org.kopi.ebics.session.OrderType;
+import org.kopi.ebics.utils.BenchmarkData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadTransferRequestElementTest {
+
+    @Test
+    void testOrderDataIsEncodedWhileWriting() throws Exception {
+        EbicsSession session = BenchmarkData.session(BenchmarkData.keyPair());
+        byte[] segment = new byte[700_001];
+        UploadTransferRequestElement request;
+        ByteArrayOutputStream output;
+        EbicsRequestDocument written;
+
+        new Random(0).nextBytes(segment);
+        request = new UploadTransferRequestElement(session,
+                OrderType.BTU,
+                2,
+                false,
+                new byte[16],
+                new ByteArrayContentFactory(segment));
+        request.build();
+        request.validate();
+        output = new ByteArrayOutputStream();
+        request.writeTo(output);
+        written = EbicsRequestDocument.Factory.parse(new ByteArrayInputStream(output.toByteArray()));
+
+        assertTrue(written.validate());
+        assertArrayEquals(segment, written.getEbicsRequest().getBody().getDataTransfer().getOrderData().getByteArrayValue());
+        assertEquals(2, written.getEbicsRequest().getHeader().getMutable().getSegmentNumber().getLongValue());
+        assertTrue(request.toByteArray().length < 10_000);
+    }
+}